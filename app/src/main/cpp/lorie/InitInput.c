@@ -45,6 +45,7 @@ __unused DeviceIntPtr lorieMouse, lorieTouch, lorieKeyboard, loriePen, lorieEras
 
 void
 ProcessInputEvents(void) {
+    lorieLatencyInputProcessed();
     mieqProcessInputEvents();
 }
 
@@ -121,6 +122,7 @@ lorieMouseProc(DeviceIntPtr device, int what) {
             ||  !InitValuatorAxisStruct(device, 3, axes_labels[3], NO_AXIS_LIMITS, NO_AXIS_LIMITS, 0, 0, 0, Relative)
             ||  !SetScrollValuator(device, 2, SCROLL_TYPE_HORIZONTAL, 1.0, SCROLL_FLAG_NONE)
             ||  !SetScrollValuator(device, 3, SCROLL_TYPE_VERTICAL, 1.0, SCROLL_FLAG_PREFERRED)
+            ||  !InitGestureClassDeviceStruct(device, 5)
             ||  !InitPtrFeedbackClassDeviceStruct(device, (PtrCtrlProcPtr) NoopDDA)
             ||  !InitPointerAccelerationScheme(device, PtrAccelPredictable))
                 return BadValue;
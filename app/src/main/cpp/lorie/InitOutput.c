@@ -256,6 +256,7 @@ void ddxUseMsg(void) {
     ErrorF("-disable-dri3          disabling DRI3 support (to let lavapipe work)\n");
     ErrorF("-force-sysvshm         force using SysV shm syscalls\n");
     ErrorF("-check-drawing         run server only able to draw some test image (for testing if rendering root window works or not),\n");
+    ErrorF("-input-ring            receive input events from activity through shared memory ring instead of socket\n");
 }
 
 int ddxProcessArgument(unused int argc, unused char *argv[], unused int i) {
@@ -285,6 +286,11 @@ int ddxProcessArgument(unused int argc, unused char *argv[], unused int i) {
         return 1;
     }
 
+    if (strcmp(argv[i], "-input-ring") == 0) {
+        lorieSetInputRingEnabled(TRUE);
+        return 1;
+    }
+
     if (strcmp(argv[i], "-check-drawing") == 0) {
         NoListenAll = TRUE;
         QueueWorkProc(drawSquares, NULL, NULL);
@@ -396,6 +402,43 @@ static miPointerScreenFuncRec loriePointerCursorFuncs = {
 
 static void loriePerformVblanks(void);
 
+// Times of the oldest input event of each type queued and processed since the last frame was requested.
+static _Atomic uint64_t latencyQueued[LORIE_LATENCY_TYPES];
+static uint64_t latencyProcessed[LORIE_LATENCY_TYPES];
+
+// May be called from any thread.
+void lorieLatencyQueued(int type, uint64_t time) {
+    uint64_t expected = 0;
+    if (!time)
+        return;
+
+    lorieLatencyRecord(&pvfb->state->latency, LORIE_LATENCY_QUEUE, type, time, lorieLatencyNow());
+    atomic_compare_exchange_strong_explicit(&latencyQueued[type], &expected, time, memory_order_relaxed, memory_order_relaxed);
+}
+
+// Called from main thread right before queued events are processed.
+void lorieLatencyInputProcessed(void) {
+    for (int type = 0; type < LORIE_LATENCY_TYPES; type++) {
+        uint64_t time = atomic_exchange_explicit(&latencyQueued[type], 0, memory_order_relaxed);
+        if (time && !latencyProcessed[type])
+            latencyProcessed[type] = time;
+    }
+}
+
+static void lorieLatencyFrameRequested(Bool requested) {
+    uint64_t now = lorieLatencyNow(), expected;
+    for (int type = 0; type < LORIE_LATENCY_TYPES; type++) {
+        if (!latencyProcessed[type] || (!requested && now - latencyProcessed[type] < LORIE_LATENCY_PRESENT_TIMEOUT))
+            continue;
+
+        // In the case if renderer did not present previous frame yet the older event is left pending.
+        expected = 0;
+        if (requested && now - latencyProcessed[type] < LORIE_LATENCY_PRESENT_TIMEOUT)
+            atomic_compare_exchange_strong_explicit(&pvfb->state->latency.pending[type], &expected, latencyProcessed[type], memory_order_relaxed, memory_order_relaxed);
+        latencyProcessed[type] = 0;
+    }
+}
+
 static Bool lorieRedraw(__unused ClientPtr pClient, __unused void *closure) {
     int status, nonEmpty;
     LoriePixmapPriv* priv;
@@ -433,6 +476,7 @@ static Bool lorieRedraw(__unused ClientPtr pClient, __unused void *closure) {
         pvfb->state->drawRequested = TRUE;
     }
 
+    lorieLatencyFrameRequested(pvfb->state->drawRequested || pvfb->state->cursor.moved || pvfb->state->cursor.updated);
     if (pvfb->state->drawRequested || pvfb->state->cursor.moved || pvfb->state->cursor.updated) {
         pvfb->state->rootWindowTextureID = LorieBuffer_description(priv->buffer)->id;
 
@@ -4,14 +4,17 @@
 #include <unistd.h>
 #include <string.h>
 #include <pthread.h>
-#include <sys/ioctl.h>
 #include <sys/prctl.h>
 #include <sys/socket.h>
+#include <sys/uio.h>
 #include <sys/mman.h>
+#include <sys/eventfd.h>
+#include <sys/resource.h>
+#include <sched.h>
 #include <errno.h>
+#include <stdatomic.h>
 #include <jni.h>
 #include <android/looper.h>
-#include <wchar.h>
 #include <linux/in.h>
 #include <arpa/inet.h>
 #include <poll.h>
@@ -26,13 +29,18 @@ extern volatile int conn_fd; // The only variable from shared with X server code
 
 static struct {
     jclass self;
-    jmethodID getInstance, clientConnectedStateChanged, resetIme;
+    jmethodID getInstance, clientConnectedStateChanged;
 } MainActivity = {0};
 
+static struct {
+    jmethodID postClipboardText, postClipboardRequest, postResetIme;
+} LorieView = {0};
+
 static struct {
     jclass self;
     jmethodID forName;
     jmethodID decode;
+    jobject utf8;
 } Charset = {0};
 
 static struct {
@@ -40,9 +48,581 @@ static struct {
     jmethodID toString;
 } CharBuffer = {0};
 
-static JNIEnv *guienv = NULL; // Must be used only in GUI thread.
 static jobject globalThiz = NULL;
 
+/*
+ * conn_fd is read by a dedicated thread with its own looper, so mapping buffers and server state or decoding
+ * large clipboard content does not delay drawing. Only results visible to Java (clipboard text and requests,
+ * IME reset and connection state) are posted to UI thread. Connection is replaced by reader thread too,
+ * connect_ waits until it is done, so callers see the new connection right away.
+ */
+static struct {
+    pthread_mutex_t lock;
+    pthread_cond_t cond;
+    JavaVM* vm;
+    JNIEnv* env; // Must be used only in reader thread.
+    int wakeFd;
+    bool changing; // connect_ waits for reader thread to start using `pending` connection.
+    int pending;
+} reader = { .lock = PTHREAD_MUTEX_INITIALIZER, .cond = PTHREAD_COND_INITIALIZER, .wakeFd = -1, .pending = -1 };
+
+static ALooper* looper = NULL; // Looper of reader thread, it polls conn_fd.
+static int xcallback(int fd, int events, void* data);
+
+// Framing of messages sent to and received from X server, negotiated with EVENT_PROTOCOL (see events.h).
+static struct lorie_protocol protocol = {0};
+// Only reader thread reads conn_fd.
+static struct lorie_receiver receiver;
+
+/*
+ * Messages to X server are queued and written with non-blocking sendmsg(), so a stalled X server can not
+ * freeze UI thread. What socket does not accept stays queued and is written when conn_fd becomes writable.
+ * While a batch is open messages sent from the thread which opened it are collected and written together
+ * when the outermost batch is flushed.
+ *
+ * The queue is bounded. Once half of it is used, absolute mouse motion, stylus events and touch updates
+ * replace the latest queued event of the same pointer unless a button or another event of that pointer
+ * follows it. Keys, buttons, text, clipboard and the rest are always delivered in order, they are dropped
+ * only if X server does not read anything until the whole queue is used.
+ */
+#define SEND_QUEUE_SIZE 1024
+#define SEND_BATCH_SIZE 64
+
+static struct {
+    pthread_mutex_t lock;
+    int depth;
+    pthread_t owner;
+    uint32_t head, count;
+    size_t written; // Bytes of the first message already written.
+    bool polling; // conn_fd is polled for ALOOPER_EVENT_OUTPUT.
+    bool overflowed; // Dropping was logged, it is logged again after the queue is written.
+    uint32_t maxCount;
+    uint64_t coalesced, dropped;
+    uint32_t ringHead; // Input ring head the last EVENT_RING_SYNC was queued with.
+    struct {
+        lorieEvent e;
+        uint8_t version;
+        uint8_t* payload; // Owned by the queue.
+        size_t size;
+    } items[SEND_QUEUE_SIZE];
+    uint8_t scratch[SEND_BATCH_SIZE * LORIE_MESSAGE_MAX];
+} queue = { .lock = PTHREAD_MUTEX_INITIALIZER };
+
+#define queueItem(i) queue.items[(queue.head + (i)) % SEND_QUEUE_SIZE]
+
+// Must be called with queue.lock held.
+static void queueClear(void) {
+    for (; queue.count; queue.count--, queue.head++)
+        free(queueItem(0).payload);
+    queue.head = 0;
+    queue.written = 0;
+}
+
+// Must be called with queue.lock held.
+static void queuePoll(bool output) {
+    if (queue.polling != output && looper && conn_fd != -1)
+        ALooper_addFd(looper, conn_fd, 0, ALOOPER_EVENT_INPUT | ALOOPER_EVENT_ERROR | ALOOPER_EVENT_HANGUP | (output ? ALOOPER_EVENT_OUTPUT : 0), xcallback, NULL);
+    queue.polling = output;
+}
+
+// Writes as much of the queue as socket accepts. Must be called with queue.lock held.
+static void queueFlush(void) {
+    while (queue.count && conn_fd != -1) {
+        struct iovec iov[SEND_BATCH_SIZE * 2];
+        size_t lengths[SEND_BATCH_SIZE], used = 0, skip = queue.written;
+        uint32_t n, built, count = 0;
+        ssize_t sent;
+
+        // Messages are encoded into scratch, adjacent ones share one iovec.
+        for (n = 0; n < queue.count && n < SEND_BATCH_SIZE; n++) {
+            __typeof__(queue.items[0])* item = &queueItem(n);
+            uint8_t* message = queue.scratch + used;
+            size_t length = lorieEventEncode(&item->e, item->version, message), part;
+            lengths[n] = length + item->size;
+            used += length;
+
+            part = skip < length ? length - skip : 0;
+            if (part && count && (uint8_t*) iov[count - 1].iov_base + iov[count - 1].iov_len == message + length - part)
+                iov[count - 1].iov_len += part;
+            else if (part)
+                iov[count++] = (struct iovec) { .iov_base = message + length - part, .iov_len = part };
+            skip -= length - part;
+
+            part = skip < item->size ? item->size - skip : 0;
+            if (part)
+                iov[count++] = (struct iovec) { .iov_base = item->payload + item->size - part, .iov_len = part };
+            skip -= item->size - part;
+        }
+        built = n;
+
+        do sent = sendmsg(conn_fd, &(struct msghdr) { .msg_iov = iov, .msg_iovlen = count }, MSG_DONTWAIT | MSG_NOSIGNAL);
+        while (sent < 0 && errno == EINTR);
+        if (sent < 0 && (errno == EAGAIN || errno == EWOULDBLOCK)) {
+            queuePoll(true);
+            return;
+        }
+        if (sent < 0) {
+            // Connection is broken, xcallback handles the hangup.
+            log(ERROR, "failed to send %u messages to X server: %s", queue.count, strerror(errno));
+            queueClear();
+            break;
+        }
+
+        for (sent += (ssize_t) queue.written, n = 0; n < built && (size_t) sent >= lengths[n]; n++) {
+            sent -= (ssize_t) lengths[n];
+            free(queueItem(0).payload);
+            queue.head++;
+            queue.count--;
+        }
+        queue.written = sent;
+    }
+
+    queue.overflowed = false;
+    queuePoll(false);
+}
+
+// Events which only report the current position of a pointer, an older one is useless once a newer one is queued.
+static bool queueCanReplace(const lorieEvent* queued, const lorieEvent* e) {
+    if (queued->type != e->type)
+        return false;
+    switch (e->type) {
+        case EVENT_MOUSE: return !e->mouse.detail && !e->mouse.relative && !queued->mouse.detail && !queued->mouse.relative;
+        case EVENT_STYLUS: return e->stylus.mouse == queued->stylus.mouse && e->stylus.eraser == queued->stylus.eraser && e->stylus.buttons == queued->stylus.buttons
+                && !e->stylus.pressure == !queued->stylus.pressure; // touching down and lifting the pen must not be lost
+        case EVENT_TOUCH: return e->touch.type == 19 /* XI_TouchUpdate */ && queued->touch.type == e->touch.type && e->touch.id == queued->touch.id;
+        default: return false;
+    }
+}
+
+static bool queueIsMotion(const lorieEvent* e) {
+    return queueCanReplace(e, e);
+}
+
+// Whether the event must not move before the queued one, i.e. it is a button of the same pointer.
+static bool queueIsOrdered(const lorieEvent* queued, const lorieEvent* e) {
+    bool mouse = e->type == EVENT_MOUSE || (e->type == EVENT_STYLUS && e->stylus.mouse);
+    if (mouse && (queued->type == EVENT_MOUSE || (queued->type == EVENT_STYLUS && queued->stylus.mouse)))
+        return true;
+    if (queued->type != e->type)
+        return false;
+    return e->type != EVENT_TOUCH || queued->touch.id == e->touch.id;
+}
+
+static bool queueMessage(const lorieEvent* e, uint8_t* payload, size_t size);
+
+// X server speaking protocol version 0 does not know EVENT_TEXT, it gets EVENT_UNICODE per character.
+// Must be called with queue.lock held, takes ownership of `text`.
+static bool queueUnicode(uint8_t* text, size_t size) {
+    lorieEvent e = { .unicode = { .t = EVENT_UNICODE } };
+    bool queued = true;
+    long code;
+
+    for (size_t position = 0; queued && position < size;)
+        if ((code = lorieNextCodepoint(text, size, &position)) > 0)
+            e.unicode.code = code, queued = queueMessage(&e, NULL, 0);
+    free(text);
+    return queued;
+}
+
+/**
+ * Queues a message and writes the queue unless the batch is open. Takes ownership of `payload`.
+ * Must be called with queue.lock held.
+ *
+ * @return false if the queue is full and the message was dropped.
+ */
+static bool queueMessage(const lorieEvent* e, uint8_t* payload, size_t size) {
+    bool motion = queueIsMotion(e);
+
+    if (e->type == EVENT_TEXT && !protocol.out)
+        return queueUnicode(payload, size);
+
+    if (motion && queue.count >= SEND_QUEUE_SIZE / 2) {
+        // The first message may be partially written already, it can not be changed.
+        for (uint32_t i = queue.count; i-- > (queue.written ? 1 : 0);) {
+            if (queueCanReplace(&queueItem(i).e, e)) {
+                queueItem(i).e = *e;
+                queue.coalesced++;
+                return true;
+            }
+            if (queueIsOrdered(&queueItem(i).e, e))
+                break;
+        }
+    }
+
+    if (queue.count == SEND_QUEUE_SIZE) {
+        if (!motion && !queue.overflowed)
+            log(ERROR, "X server does not read input, dropping messages");
+        queue.overflowed |= !motion;
+        queue.dropped++;
+        free(payload);
+        return false;
+    }
+
+    queueItem(queue.count) = (__typeof__(queue.items[0])) { .e = *e, .version = protocol.out, .payload = payload, .size = size };
+    if (++queue.count > queue.maxCount)
+        queue.maxCount = queue.count;
+    if (!queue.depth || !pthread_equal(queue.owner, pthread_self()) || queue.count - (queue.written ? 1 : 0) >= SEND_BATCH_SIZE)
+        queueFlush();
+    return true;
+}
+
+/**
+ * Queues a message followed by `size` bytes of payload and writes the queue unless the batch is open.
+ * Payload is copied.
+ */
+static void sendMessage(const lorieEvent* e, const void* payload, size_t size) {
+    uint8_t* copy = NULL;
+
+    if (conn_fd == -1)
+        return;
+
+    if (size && !(copy = malloc(size))) {
+        log(ERROR, "failed to queue %zu bytes of payload", size);
+        return;
+    }
+    if (copy)
+        memcpy(copy, payload, size);
+
+    pthread_mutex_lock(&queue.lock);
+    queueMessage(e, copy, size);
+    pthread_mutex_unlock(&queue.lock);
+}
+
+// Tells X server which framing activity uses for messages sent after this one.
+static void sendProtocol(int version) {
+    lorieEvent e = { .protocol = { .t = EVENT_PROTOCOL, .version = version, .max = LORIE_PROTOCOL_VERSION } };
+    if (conn_fd == -1)
+        return;
+
+    // Other threads queue messages too, they must not get between EVENT_PROTOCOL and the switch.
+    pthread_mutex_lock(&queue.lock);
+    if (queueMessage(&e, NULL, 0))
+        protocol.out = version;
+    pthread_mutex_unlock(&queue.lock);
+}
+
+// Shared memory ring offered by X server started with `-input-ring` option.
+static struct {
+    struct lorie_input_ring* ring;
+    int eventFd;
+    atomic_flag busy;
+} inputRing = { .eventFd = -1, .busy = ATOMIC_FLAG_INIT };
+
+static void inputRingSet(struct lorie_input_ring* ring, int eventFd) {
+    while (atomic_flag_test_and_set_explicit(&inputRing.busy, memory_order_acquire));
+    if (inputRing.ring)
+        munmap(inputRing.ring, sizeof(*inputRing.ring));
+    if (inputRing.eventFd != -1)
+        close(inputRing.eventFd);
+    inputRing.ring = ring;
+    inputRing.eventFd = eventFd;
+    atomic_flag_clear_explicit(&inputRing.busy, memory_order_release);
+}
+
+// Own mapping of server state, renderer's one can be unmapped at any moment.
+static struct {
+    struct lorie_shared_server_state* state;
+    atomic_flag busy;
+} latency = { .busy = ATOMIC_FLAG_INIT };
+
+static void latencySetState(int stateFd) {
+    struct lorie_shared_server_state* state = NULL;
+    if (stateFd != -1 && MAP_FAILED == (state = mmap(NULL, sizeof(*state), PROT_READ|PROT_WRITE, MAP_SHARED, stateFd, 0)))
+        state = NULL;
+
+    while (atomic_flag_test_and_set_explicit(&latency.busy, memory_order_acquire));
+    if (latency.state)
+        munmap(latency.state, sizeof(*latency.state));
+    latency.state = state;
+    atomic_flag_clear_explicit(&latency.busy, memory_order_release);
+}
+
+static void latencyRecordSent(lorieEvent* e) {
+    int type;
+    uint64_t time;
+    switch (e->type) {
+        case EVENT_TOUCH: type = LORIE_LATENCY_TOUCH; time = e->time; break;
+        case EVENT_STYLUS: type = e->stylus.mouse ? LORIE_LATENCY_MOUSE : LORIE_LATENCY_STYLUS; time = e->time; break;
+        case EVENT_MOUSE: type = LORIE_LATENCY_MOUSE; time = e->time; break;
+        case EVENT_KEY: type = LORIE_LATENCY_KEY; time = e->time; break;
+        case EVENT_TEXT: type = LORIE_LATENCY_KEY; time = e->time; break;
+        case EVENT_GESTURE: type = LORIE_LATENCY_MOUSE; time = e->time; break;
+        default: return;
+    }
+
+    if (latency.state && !atomic_flag_test_and_set_explicit(&latency.busy, memory_order_acquire)) {
+        if (latency.state)
+            lorieLatencyRecord(&latency.state->latency, LORIE_LATENCY_SEND, type, time, lorieLatencyNow());
+        atomic_flag_clear_explicit(&latency.busy, memory_order_release);
+    }
+}
+
+static void senderFormatStats(char* text, size_t size);
+static jstring getInputLatencyStats(JNIEnv *env, __unused jclass clazz) {
+    char text[2048];
+    size_t used = 0;
+    if (!latency.state)
+        return NULL;
+
+    while (atomic_flag_test_and_set_explicit(&latency.busy, memory_order_acquire));
+    if (latency.state)
+        used = lorieLatencyFormat(&latency.state->latency, text, sizeof(text));
+    atomic_flag_clear_explicit(&latency.busy, memory_order_release);
+    if (!used)
+        return NULL;
+
+    pthread_mutex_lock(&queue.lock);
+    if (used < sizeof(text))
+        snprintf(text + used, sizeof(text) - used, "send queue: %u queued, %u at most, %llu coalesced, %llu dropped\n",
+                 queue.count, queue.maxCount, (unsigned long long) queue.coalesced, (unsigned long long) queue.dropped);
+    pthread_mutex_unlock(&queue.lock);
+
+    if (used < sizeof(text))
+        senderFormatStats(text + strlen(text), sizeof(text) - strlen(text));
+    return (*env)->NewStringUTF(env, text);
+}
+
+static void sendEvent(lorieEvent* e) {
+    latencyRecordSent(e);
+
+    // Ring has only one producer so in the case if other thread is writing it we simply use socket.
+    // While X server does not read socket events are queued there too, otherwise they would overtake queued ones.
+    if (inputRing.ring && !queue.count && !atomic_flag_test_and_set_explicit(&inputRing.busy, memory_order_acquire)) {
+        int ret = inputRing.ring ? lorieRingPush(inputRing.ring, e, sizeof(*e)) : LORIE_RING_FULL;
+        if (ret == LORIE_RING_PUSHED_WAKE)
+            eventfd_write(inputRing.eventFd, 1);
+        atomic_flag_clear_explicit(&inputRing.busy, memory_order_release);
+        if (ret != LORIE_RING_FULL)
+            return;
+    }
+
+    // X server reads socket before the ring, so events pushed to the ring since the last sync must be handled first.
+    if (conn_fd == -1)
+        return;
+    pthread_mutex_lock(&queue.lock);
+    if (inputRing.ring) {
+        lorieEvent sync = { .ringSync = { .t = EVENT_RING_SYNC } };
+        while (atomic_flag_test_and_set_explicit(&inputRing.busy, memory_order_acquire));
+        sync.ringSync.ringHead = inputRing.ring ? atomic_load_explicit(&inputRing.ring->head, memory_order_relaxed) : queue.ringHead;
+        atomic_flag_clear_explicit(&inputRing.busy, memory_order_release);
+        if (sync.ringSync.ringHead != queue.ringHead && queueMessage(&sync, NULL, 0))
+            queue.ringHead = sync.ringSync.ringHead;
+    }
+    queueMessage(e, NULL, 0);
+    pthread_mutex_unlock(&queue.lock);
+}
+
+static void beginBatch(void) {
+    pthread_mutex_lock(&queue.lock);
+    if (!queue.depth)
+        queue.owner = pthread_self();
+    if (pthread_equal(queue.owner, pthread_self()))
+        queue.depth++;
+    pthread_mutex_unlock(&queue.lock);
+}
+
+static void flushBatch(void) {
+    pthread_mutex_lock(&queue.lock);
+    if (queue.depth && pthread_equal(queue.owner, pthread_self()) && !--queue.depth)
+        queueFlush();
+    pthread_mutex_unlock(&queue.lock);
+}
+
+// Buffer LorieEventEncoder writes input events to, LorieView registers it once.
+static struct {
+    uint8_t* data;
+    jlong capacity;
+} eventBuffer = {0};
+
+static void setEventBuffer(JNIEnv *env, __unused jclass clazz, jobject buffer) {
+    eventBuffer.data = buffer ? (*env)->GetDirectBufferAddress(env, buffer) : NULL;
+    eventBuffer.capacity = eventBuffer.data ? (*env)->GetDirectBufferCapacity(env, buffer) : 0;
+}
+
+// Sends events encoded by LorieEventEncoder, returns how many events were sent.
+static uint32_t sendEncodedEvents(const uint8_t* data, size_t length) {
+    lorieEvent e;
+    uint32_t count = 0;
+
+    // Events encoded in Java are written with a single sendmsg() unless they go to input ring.
+    beginBatch();
+    for (size_t at = 0; at + sizeof(e) <= length; at += sizeof(e), count++) {
+        memcpy(&e, data + at, sizeof(e));
+        if (e.type != EVENT_TEXT) {
+            sendEvent(&e);
+            continue;
+        }
+
+        if (e.text.length > length - at - sizeof(e)) {
+            log(ERROR, "text event is longer than encoded events, dropping it");
+            break;
+        }
+
+        // X server handles events pushed to the ring before the text first.
+        while (atomic_flag_test_and_set_explicit(&inputRing.busy, memory_order_acquire));
+        e.text.ringHead = inputRing.ring ? atomic_load_explicit(&inputRing.ring->head, memory_order_relaxed) : 0;
+        atomic_flag_clear_explicit(&inputRing.busy, memory_order_release);
+
+        latencyRecordSent(&e);
+        sendMessage(&e, data + at + sizeof(e), e.text.length);
+        at += e.text.length;
+    }
+    flushBatch();
+    return count;
+}
+
+/*
+ * Optional sender thread. When it runs flushEvents only copies encoded events to a single-producer
+ * single-consumer ring and the thread sends them, so UI thread makes a syscall only to wake the thread.
+ * Every record is its length followed by encoded events, padded to 8 bytes. Records do not wrap, if there is
+ * no room at the end of the ring producer marks the rest of it with SENDER_WRAP and starts from the beginning.
+ * If the ring is full UI thread waits for the thread to take some records, events are never reordered.
+ */
+#define SENDER_RING_SIZE 65536
+#define SENDER_WRAP UINT32_MAX
+#define SENDER_RECORD_SIZE(length) ((sizeof(uint32_t) + (length) + 7) & ~7u)
+
+static struct {
+    pthread_t thread;
+    bool running; // Used only by UI thread.
+    int eventFd;
+    atomic_bool stop, sleeping;
+    // Free-running byte counters, head is written only by UI thread and tail only by sender thread.
+    _Atomic uint32_t head, tail;
+    // Statistics.
+    _Atomic uint32_t maxDepth;
+    _Atomic uint64_t enqueues, events, enqueueNanos;
+    _Alignas(8) uint8_t data[SENDER_RING_SIZE];
+} sender = { .eventFd = -1 };
+
+static void* senderThread(__unused void* cookie) {
+    uint32_t tail = atomic_load_explicit(&sender.tail, memory_order_relaxed);
+    pthread_setname_np(pthread_self(), "LorieInputSender");
+    // The same as ANDROID_PRIORITY_URGENT_DISPLAY, input must not wait for background work.
+    if (setpriority(PRIO_PROCESS, 0, -8))
+        log(WARN, "failed to raise priority of input sender thread: %s", strerror(errno));
+
+    for (;;) {
+        uint32_t head = atomic_load_explicit(&sender.head, memory_order_acquire);
+        if (head == tail) {
+            if (atomic_load(&sender.stop))
+                break;
+
+            // Pairs with atomic_exchange in flushEvents, either producer sees the flag or we see new head.
+            atomic_store(&sender.sleeping, true);
+            if (atomic_load(&sender.head) == tail && !atomic_load(&sender.stop)) {
+                eventfd_t value;
+                eventfd_read(sender.eventFd, &value);
+            }
+            atomic_store(&sender.sleeping, false);
+            continue;
+        }
+
+        beginBatch();
+        while (tail != head) {
+            uint32_t length, at = tail % SENDER_RING_SIZE;
+            memcpy(&length, sender.data + at, sizeof(length));
+            if (length == SENDER_WRAP)
+                tail += SENDER_RING_SIZE - at;
+            else {
+                atomic_fetch_add_explicit(&sender.events, sendEncodedEvents(sender.data + at + sizeof(length), length), memory_order_relaxed);
+                tail += SENDER_RECORD_SIZE(length);
+            }
+            atomic_store_explicit(&sender.tail, tail, memory_order_release);
+        }
+        flushBatch();
+    }
+
+    return NULL;
+}
+
+// Copies a record to the ring, returns false if it does not fit even the empty ring.
+static bool senderPush(const uint8_t* data, uint32_t length) {
+    uint32_t size = SENDER_RECORD_SIZE(length), head = atomic_load_explicit(&sender.head, memory_order_relaxed);
+    uint32_t at = head % SENDER_RING_SIZE, skip = SENDER_RING_SIZE - at < size ? SENDER_RING_SIZE - at : 0, depth;
+    if (size > SENDER_RING_SIZE)
+        return false;
+
+    while ((depth = head + skip + size - atomic_load_explicit(&sender.tail, memory_order_acquire)) > SENDER_RING_SIZE)
+        sched_yield();
+
+    if (skip) {
+        uint32_t wrap = SENDER_WRAP;
+        memcpy(sender.data + at, &wrap, sizeof(wrap));
+        at = 0;
+    }
+    memcpy(sender.data + at, &length, sizeof(length));
+    memcpy(sender.data + at + sizeof(length), data, length);
+    atomic_store(&sender.head, head + skip + size);
+
+    if (depth > atomic_load_explicit(&sender.maxDepth, memory_order_relaxed))
+        atomic_store_explicit(&sender.maxDepth, depth, memory_order_relaxed);
+    if (atomic_exchange(&sender.sleeping, false))
+        eventfd_write(sender.eventFd, 1);
+    return true;
+}
+
+static void setInputSenderThreadEnabled(__unused JNIEnv *env, __unused jclass clazz, jboolean enabled) {
+    if (enabled == sender.running)
+        return;
+
+    if (!enabled) {
+        // Thread sends everything queued before it exits.
+        atomic_store(&sender.stop, true);
+        eventfd_write(sender.eventFd, 1);
+        pthread_join(sender.thread, NULL);
+        sender.running = false;
+        return;
+    }
+
+    if (sender.eventFd == -1 && (sender.eventFd = eventfd(0, EFD_CLOEXEC)) == -1) {
+        log(ERROR, "failed to create eventfd for input sender thread: %s", strerror(errno));
+        return;
+    }
+
+    atomic_store(&sender.stop, false);
+    atomic_store(&sender.sleeping, false);
+    if ((errno = pthread_create(&sender.thread, NULL, senderThread, NULL))) {
+        log(ERROR, "failed to start input sender thread: %s", strerror(errno));
+        return;
+    }
+    sender.running = true;
+}
+
+static void senderFormatStats(char* text, size_t size) {
+    uint64_t events = atomic_load_explicit(&sender.events, memory_order_relaxed);
+    uint64_t enqueues = atomic_load_explicit(&sender.enqueues, memory_order_relaxed);
+    uint64_t nanos = atomic_load_explicit(&sender.enqueueNanos, memory_order_relaxed);
+    uint32_t depth = atomic_load_explicit(&sender.head, memory_order_relaxed) - atomic_load_explicit(&sender.tail, memory_order_relaxed);
+    if (!sender.running)
+        snprintf(text, size, "input sender: off, events are sent by UI thread\n");
+    else
+        snprintf(text, size, "input sender: %llu events, %llu ns per enqueue, %llu ns per event, %u bytes queued, %u at most\n",
+                 (unsigned long long) events, (unsigned long long) (enqueues ? nanos / enqueues : 0), (unsigned long long) (events ? nanos / events : 0),
+                 depth, atomic_load_explicit(&sender.maxDepth, memory_order_relaxed));
+}
+
+// It is @CriticalNative so it gets neither JNIEnv nor jclass.
+static void flushEvents(jint length) {
+    if (conn_fd == -1 || !eventBuffer.data || length < 0 || length > eventBuffer.capacity)
+        return;
+
+    if (sender.running) {
+        uint64_t start = lorieLatencyNow();
+        if (senderPush(eventBuffer.data, length)) {
+            atomic_fetch_add_explicit(&sender.enqueueNanos, lorieLatencyNow() - start, memory_order_relaxed);
+            atomic_fetch_add_explicit(&sender.enqueues, 1, memory_order_relaxed);
+            return;
+        }
+
+        // Queued events must be sent first.
+        while (atomic_load_explicit(&sender.tail, memory_order_acquire) != atomic_load_explicit(&sender.head, memory_order_relaxed))
+            sched_yield();
+    }
+
+    sendEncodedEvents(eventBuffer.data, length);
+}
+
 static jclass FindClassOrDie(JNIEnv *env, const char* name) {
     jclass clazz = (*env)->FindClass(env, name);
     if (!clazz) {
@@ -105,13 +685,15 @@ static jboolean requestConnection(__unused JNIEnv *env, __unused jclass clazz) {
 }
 
 static void connect_(__unused JNIEnv* env, __unused jobject cls, jint fd);
+static void* readerThread(void* cookie);
 static void nativeInit(JNIEnv *env, jobject thiz) {
-    JavaVM* vm;
+    pthread_t t;
     if (!Charset.self) {
         // Init clipboard-related JNI stuff
         Charset.self = FindClassOrDie(env, "java/nio/charset/Charset");
         Charset.forName = FindMethodOrDie(env, Charset.self, "forName", "(Ljava/lang/String;)Ljava/nio/charset/Charset;", JNI_TRUE);
         Charset.decode = FindMethodOrDie(env, Charset.self, "decode", "(Ljava/nio/ByteBuffer;)Ljava/nio/CharBuffer;", JNI_FALSE);
+        Charset.utf8 = (*env)->NewGlobalRef(env, (*env)->CallStaticObjectMethod(env, Charset.self, Charset.forName, (*env)->NewStringUTF(env, "UTF-8")));
 
         CharBuffer.self = FindClassOrDie(env,  "java/nio/CharBuffer");
         CharBuffer.toString = FindMethodOrDie(env, CharBuffer.self, "toString", "()Ljava/lang/String;", JNI_FALSE);
@@ -119,119 +701,250 @@ static void nativeInit(JNIEnv *env, jobject thiz) {
         MainActivity.self = FindClassOrDie(env,  "com/termux/x11/MainActivity");
         MainActivity.getInstance = FindMethodOrDie(env, MainActivity.self, "getInstance", "()Lcom/termux/x11/MainActivity;", JNI_TRUE);
         MainActivity.clientConnectedStateChanged = FindMethodOrDie(env, MainActivity.self, "clientConnectedStateChanged", "()V", JNI_FALSE);
-        MainActivity.resetIme = FindMethodOrDie(env, (*env)->GetObjectClass(env, thiz), "resetIme", "()V", JNI_FALSE);
+
+        LorieView.postClipboardText = FindMethodOrDie(env, (*env)->GetObjectClass(env, thiz), "postClipboardText", "(Ljava/lang/String;)V", JNI_FALSE);
+        LorieView.postClipboardRequest = FindMethodOrDie(env, (*env)->GetObjectClass(env, thiz), "postClipboardRequest", "()V", JNI_FALSE);
+        LorieView.postResetIme = FindMethodOrDie(env, (*env)->GetObjectClass(env, thiz), "postResetIme", "()V", JNI_FALSE);
+    }
+
+    globalThiz = (*env)->NewGlobalRef(env, thiz);
+
+    if (reader.wakeFd == -1) {
+        (*env)->GetJavaVM(env, &reader.vm);
+        if ((reader.wakeFd = eventfd(0, EFD_CLOEXEC)) == -1 || (errno = pthread_create(&t, NULL, readerThread, NULL))) {
+            log(ERROR, "failed to start X connection reader thread: %s", strerror(errno));
+            (*env)->FatalError(env, "Exiting");
+        }
+
+        pthread_mutex_lock(&reader.lock);
+        while (!looper)
+            pthread_cond_wait(&reader.cond, &reader.lock);
+        pthread_mutex_unlock(&reader.lock);
     }
 
-    (*env)->GetJavaVM(env, &vm);
-    (*vm)->AttachCurrentThread(vm, &guienv, NULL);
-    globalThiz = (*guienv)->NewGlobalRef(env, thiz);
     connect_(NULL, NULL, -1);
 }
 
-static int xcallback(int fd, int events, __unused void* data) {
-    JNIEnv *env = guienv;
+// Messages followed by file descriptors read the rest of them from conn_fd.
+// Java exceptions must not stay pending in reader thread, it never returns to Java.
+static void readerCheckException(JNIEnv* env) {
+    if ((*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionDescribe(env);
+        (*env)->ExceptionClear(env);
+    }
+}
+
+static void handleMessage(lorieEvent* e, const uint8_t* payload, __unused void* data) {
+    JNIEnv *env = reader.env;
     jobject thiz = globalThiz;
 
+    switch(e->type) {
+        case EVENT_PROTOCOL: {
+            int version = lorieProtocolReceived(&protocol, e);
+            if (version >= 0)
+                sendProtocol(version);
+            log(DEBUG, "X server uses protocol version %d, activity uses %d", protocol.in, protocol.out);
+            break;
+        }
+        case EVENT_CLIPBOARD_SEND: {
+            // Content ends at the first NUL, if there is any.
+            size_t length = payload ? strnlen((const char*) payload, e->clipboardSend.count) : 0;
+            if (!length)
+                break;
+            log(DEBUG, "Clipboard content (%zu symbols) is %.*s", length, (int) length, payload);
+            // Reader thread never returns to Java, so local references are released with the frame.
+            if ((*env)->PushLocalFrame(env, 4))
+                break;
+            jobject bb = (*env)->NewDirectByteBuffer(env, (void*) payload, (jlong) length);
+            jobject cb = bb ? (*env)->CallObjectMethod(env, Charset.utf8, Charset.decode, bb) : NULL;
+            jstring str = cb ? (*env)->CallObjectMethod(env, cb, CharBuffer.toString) : NULL;
+            if (str)
+                (*env)->CallVoidMethod(env, thiz, LorieView.postClipboardText, str);
+            readerCheckException(env);
+            (*env)->PopLocalFrame(env, NULL);
+            break;
+        }
+        case EVENT_CLIPBOARD_REQUEST: {
+            (*env)->CallVoidMethod(env, thiz, LorieView.postClipboardRequest);
+            readerCheckException(env);
+            break;
+        }
+        case EVENT_SHARED_SERVER_STATE: {
+            struct lorie_shared_server_state* state = NULL;
+            int stateFd = ancil_recv_fd(conn_fd);
+
+            if (stateFd < 0)
+                break;
+
+            state = mmap(NULL, sizeof(*state), PROT_READ|PROT_WRITE, MAP_SHARED, stateFd, 0);
+            if (!state || state == MAP_FAILED) {
+                log(ERROR, "Failed to map server state: %s", strerror(errno));
+                state = NULL;
+            }
+
+            rendererSetSharedState(state);
+            latencySetState(state ? stateFd : -1);
+
+            close(stateFd); // Closing file descriptor does not unmmap shared memory fragment.
+            break;
+        }
+        case EVENT_ADD_BUFFER: {
+            static LorieBuffer* buffer = NULL;
+            const LorieBuffer_Desc* desc;
+            LorieBuffer_recvHandleFromUnixSocket(conn_fd, &buffer);
+            desc = LorieBuffer_description(buffer);
+            log(INFO, "Received shared buffer width %d stride %d height %d format %d type %d id %llu", desc->width, desc->stride, desc->height, desc->format, desc->type, desc->id);
+            rendererAddBuffer(buffer);
+            break;
+        }
+        case EVENT_REMOVE_BUFFER: {
+            rendererRemoveBuffer(e->removeBuffer.id);
+            break;
+        }
+        case EVENT_WINDOW_FOCUS_CHANGED: {
+            (*env)->CallVoidMethod(env, thiz, LorieView.postResetIme);
+            readerCheckException(env);
+            break;
+        }
+        case EVENT_INPUT_RING: {
+            struct lorie_input_ring* ring;
+            int ringFd = ancil_recv_fd(conn_fd), eventFd = ancil_recv_fd(conn_fd);
+
+            ring = ringFd < 0 ? MAP_FAILED : mmap(NULL, sizeof(*ring), PROT_READ|PROT_WRITE, MAP_SHARED, ringFd, 0);
+            if (ring == MAP_FAILED || eventFd < 0) {
+                log(ERROR, "Failed to map input ring, using socket: %s", strerror(errno));
+                if (ring != MAP_FAILED)
+                    munmap(ring, sizeof(*ring));
+                if (eventFd >= 0)
+                    close(eventFd);
+                ring = NULL;
+                eventFd = -1;
+            }
+
+            inputRingSet(ring, eventFd);
+            if (ringFd >= 0)
+                close(ringFd);
+            break;
+        }
+    }
+}
+
+// Must be called from reader thread.
+static void readerDisconnect(void) {
+    // queuePoll adds conn_fd to the looper with queue.lock held, so it is removed and closed with the lock held too.
+    pthread_mutex_lock(&queue.lock);
+    ALooper_removeFd(looper, conn_fd);
+    close(conn_fd);
+    conn_fd = -1;
+    queueClear();
+    queue.polling = false;
+    pthread_mutex_unlock(&queue.lock);
+    inputRingSet(NULL, -1);
+    latencySetState(-1);
+    rendererSetSharedState(NULL);
+    rendererRemoveAllBuffers();
+    log(DEBUG, "disconnected");
+}
+
+static int xcallback(__unused int fd, int events, __unused void* data) {
+    JNIEnv *env = reader.env;
+
     if (events & (ALOOPER_EVENT_ERROR | ALOOPER_EVENT_HANGUP)) {
+        readerDisconnect();
+
+        // It updates UI on UI thread.
         jobject instance = (*env)->CallStaticObjectMethod(env, MainActivity.self, MainActivity.getInstance);
-        if (instance)
+        if (instance) {
             (*env)->CallVoidMethod(env, instance, MainActivity.clientConnectedStateChanged);
-
-        ALooper_removeFd(ALooper_forThread(), fd);
-        close(conn_fd);
-        conn_fd = -1;
-        rendererSetSharedState(NULL);
-        rendererRemoveAllBuffers();
-        log(DEBUG, "disconnected");
+            (*env)->DeleteLocalRef(env, instance);
+        }
+        readerCheckException(env);
         return 1;
     }
 
-    if (conn_fd != -1) {
-        lorieEvent e = {0};
-
-        again:
-        if (read(conn_fd, &e, sizeof(e)) == sizeof(e)) {
-            switch(e.type) {
-                case EVENT_CLIPBOARD_SEND: {
-                    if (!e.clipboardSend.count)
-                        break;
-                    char clipboard[e.clipboardSend.count + 1];
-                    memset(clipboard, 0, e.clipboardSend.count + 1);
-                    read(conn_fd, clipboard, sizeof(clipboard));
-                    clipboard[e.clipboardSend.count] = 0;
-                    log(DEBUG, "Clipboard content (%zu symbols) is %s", strlen(clipboard), clipboard);
-                    jmethodID id = (*env)->GetMethodID(env, (*env)->GetObjectClass(env, thiz), "setClipboardText","(Ljava/lang/String;)V");
-                    jobject bb = (*env)->NewDirectByteBuffer(env, clipboard, strlen(clipboard));
-                    jobject charset = (*env)->CallStaticObjectMethod(env, Charset.self, Charset.forName, (*env)->NewStringUTF(env, "UTF-8"));
-                    jobject cb = (*env)->CallObjectMethod(env, charset, Charset.decode, bb);
-                    (*env)->DeleteLocalRef(env, bb);
-
-                    jstring str = (*env)->CallObjectMethod(env, cb, CharBuffer.toString);
-                    (*env)->CallVoidMethod(env, thiz, id, str);
-                    break;
-                }
-                case EVENT_CLIPBOARD_REQUEST: {
-                    (*env)->CallVoidMethod(env, thiz, (*env)->GetMethodID(env, (*env)->GetObjectClass(env, thiz), "requestClipboard", "()V"));
-                    break;
-                }
-                case EVENT_SHARED_SERVER_STATE: {
-                    struct lorie_shared_server_state* state = NULL;
-                    int stateFd = ancil_recv_fd(conn_fd);
-
-                    if (stateFd < 0)
-                        break;
-
-                    state = mmap(NULL, sizeof(*state), PROT_READ|PROT_WRITE, MAP_SHARED, stateFd, 0);
-                    if (!state || state == MAP_FAILED) {
-                        log(ERROR, "Failed to map server state: %s", strerror(errno));
-                        state = NULL;
-                    }
-
-                    rendererSetSharedState(state);
-
-                    close(stateFd); // Closing file descriptor does not unmmap shared memory fragment.
-                    break;
-                }
-                case EVENT_ADD_BUFFER: {
-                    static LorieBuffer* buffer = NULL;
-                    const LorieBuffer_Desc* desc;
-                    LorieBuffer_recvHandleFromUnixSocket(conn_fd, &buffer);
-                    desc = LorieBuffer_description(buffer);
-                    log(INFO, "Received shared buffer width %d stride %d height %d format %d type %d id %llu", desc->width, desc->stride, desc->height, desc->format, desc->type, desc->id);
-                    rendererAddBuffer(buffer);
-                    break;
-                }
-                case EVENT_REMOVE_BUFFER: {
-                    rendererRemoveBuffer(e.removeBuffer.id);
-                    break;
-                }
-                case EVENT_WINDOW_FOCUS_CHANGED: {
-                    (*env)->CallVoidMethod(env, thiz, MainActivity.resetIme);
-                }
-            }
-        }
+    if (conn_fd != -1 && (events & ALOOPER_EVENT_OUTPUT)) {
+        pthread_mutex_lock(&queue.lock);
+        queueFlush();
+        pthread_mutex_unlock(&queue.lock);
+    }
+
+    // X server sends file descriptors after some messages, so data is peeked and only parsed messages are consumed.
+    if (conn_fd != -1 && (events & ALOOPER_EVENT_INPUT))
+        lorieReceive(&receiver, conn_fd, &protocol, true, handleMessage, NULL);
+
+    return 1;
+}
 
-        int n;
-        if (ioctl(conn_fd, FIONREAD, &n) >= 0 && n > sizeof(e))
-            goto again;
+// Must be called from reader thread.
+static void readerConnect(int fd) {
+    if (conn_fd != -1)
+        readerDisconnect();
+
+    lorieReceiverReset(&receiver);
+    pthread_mutex_lock(&queue.lock);
+    // Other threads frame queued messages with protocol.out under the lock.
+    protocol = (struct lorie_protocol) {0};
+    queueClear();
+    queue.ringHead = 0;
+    queue.polling = false;
+    queue.maxCount = 0;
+    queue.coalesced = queue.dropped = 0;
+    if ((conn_fd = fd) != -1)
+        ALooper_addFd(looper, fd, 0, ALOOPER_EVENT_INPUT | ALOOPER_EVENT_ERROR | ALOOPER_EVENT_HANGUP, xcallback, NULL);
+    pthread_mutex_unlock(&queue.lock);
+    if (fd != -1) {
+        log(DEBUG, "XCB connection is successfull");
+        // Older servers ignore it and keep using whole lorieEvents.
+        sendProtocol(0);
     }
+}
+
+static int readerWake(int fd, __unused int events, __unused void* data) {
+    eventfd_t value;
+    eventfd_read(fd, &value);
 
+    pthread_mutex_lock(&reader.lock);
+    if (reader.changing) {
+        readerConnect(reader.pending);
+        reader.changing = false;
+        pthread_cond_broadcast(&reader.cond);
+    }
+    pthread_mutex_unlock(&reader.lock);
     return 1;
 }
 
+static void* readerThread(__unused void* cookie) {
+    JavaVMAttachArgs args = { .version = JNI_VERSION_1_6, .name = "LorieXReader" };
+    ALooper* l = ALooper_prepare(0);
+    (*reader.vm)->AttachCurrentThread(reader.vm, &reader.env, &args);
+    ALooper_addFd(l, reader.wakeFd, 0, ALOOPER_EVENT_INPUT, readerWake, NULL);
+
+    pthread_mutex_lock(&reader.lock);
+    looper = l;
+    pthread_cond_broadcast(&reader.cond);
+    pthread_mutex_unlock(&reader.lock);
+
+    for (;;)
+        ALooper_pollOnce(-1, NULL, NULL, NULL);
+    return NULL;
+}
+
 static void connect_(__unused JNIEnv* env, __unused jobject cls, jint fd) {
-    if (conn_fd != -1) {
-        ALooper_removeFd(ALooper_forThread(), conn_fd);
-        close(conn_fd);
-        rendererSetSharedState(NULL);
-        rendererRemoveAllBuffers();
-        log(DEBUG, "disconnected");
+    pthread_mutex_lock(&reader.lock);
+    if (!looper) {
+        // Reader thread is not started, nativeInit was not called yet.
+        pthread_mutex_unlock(&reader.lock);
+        if (fd != -1)
+            close(fd);
+        return;
     }
 
-    if ((conn_fd = fd) != -1) {
-        ALooper_addFd(ALooper_forThread(), fd, 0, ALOOPER_EVENT_INPUT | ALOOPER_EVENT_ERROR | ALOOPER_EVENT_HANGUP, xcallback, NULL);
-        log(DEBUG, "XCB connection is successfull");
-    }
+    reader.pending = fd;
+    reader.changing = true;
+    eventfd_write(reader.wakeFd, 1);
+    while (reader.changing)
+        pthread_cond_wait(&reader.cond, &reader.lock);
+    pthread_mutex_unlock(&reader.lock);
 }
 
 static jboolean connected(__unused JNIEnv* env,__unused jclass clazz) {
@@ -260,14 +973,14 @@ static void startLogcat(JNIEnv *env, __unused jobject cls, jint fd) {
 static void setClipboardSyncEnabled(__unused JNIEnv* env, __unused jobject cls, jboolean enable, __unused jboolean ignored) {
     if (conn_fd != -1) {
         lorieEvent e = { .clipboardEnable = { .t = EVENT_CLIPBOARD_ENABLE, .enable = enable } };
-        write(conn_fd, &e, sizeof(e));
+        sendMessage(&e, NULL, 0);
     }
 }
 
 static void sendClipboardAnnounce(__unused JNIEnv *env, __unused jobject thiz) {
     if (conn_fd != -1) {
         lorieEvent e = { .type = EVENT_CLIPBOARD_ANNOUNCE };
-        write(conn_fd, &e, sizeof(e));
+        sendMessage(&e, NULL, 0);
     }
 }
 
@@ -276,8 +989,7 @@ static void sendClipboardEvent(JNIEnv *env, __unused jobject thiz, jbyteArray te
         jsize length = (*env)->GetArrayLength(env, text);
         jbyte* str = (*env)->GetByteArrayElements(env, text, NULL);
         lorieEvent e = { .clipboardSend = { .t = EVENT_CLIPBOARD_SEND, .count = length } };
-        write(conn_fd, &e, sizeof(e));
-        write(conn_fd, str, length);
+        sendMessage(&e, str, length);
         (*env)->ReleaseByteArrayElements(env, text, str, JNI_ABORT);
     }
 }
@@ -286,92 +998,30 @@ static void sendWindowChange(__unused JNIEnv* env, __unused jobject cls, jint wi
     if (conn_fd != -1) {
         const char *name = (!jname || width <= 0 || height <= 0) ? NULL : (*env)->GetStringUTFChars(env, jname, JNI_FALSE);
         lorieEvent e = { .screenSize = { .t = EVENT_SCREEN_SIZE, .width = width, .height = height, .framerate = framerate, .name_size = (name ? strlen(name) : 0) } };
-        write(conn_fd, &e, sizeof(e));
-        if (name) {
-            write(conn_fd, name, strlen(name));
+        sendMessage(&e, name, e.screenSize.name_size);
+        if (name)
             (*env)->ReleaseStringUTFChars(env, jname, name);
-        }
-    }
-}
-
-static void sendMouseEvent(__unused JNIEnv* env, __unused jobject cls, jfloat x, jfloat y, jint which_button, jboolean button_down, jboolean relative) {
-    if (conn_fd != -1) {
-        if (which_button > 0)
-            (*env)->CallVoidMethod(env, globalThiz, MainActivity.resetIme);
-        lorieEvent e = { .mouse = { .t = EVENT_MOUSE, .x = x, .y = y, .detail = which_button, .down = button_down, .relative = relative } };
-        write(conn_fd, &e, sizeof(e));
-    }
-}
-
-static void sendTouchEvent(__unused JNIEnv* env, __unused jobject cls, jint action, jint id, jint x, jint y) {
-    if (conn_fd != -1 && action != -1) {
-        lorieEvent e = { .touch = { .t = EVENT_TOUCH, .type = action, .id = id, .x = x, .y = y } };
-        write(conn_fd, &e, sizeof(e));
-    }
-}
-
-static void sendStylusEvent(__unused JNIEnv *env, __unused jobject thiz, jfloat x, jfloat y,
-                            jint pressure, jint tilt_x, jint tilt_y,
-                            jint orientation, jint buttons, jboolean eraser, jboolean mouse) {
-    if (conn_fd != -1) {
-        (*env)->CallVoidMethod(env, globalThiz, MainActivity.resetIme);
-        lorieEvent e = { .stylus = { .t = EVENT_STYLUS, .x = x, .y = y, .pressure = pressure, .tilt_x = tilt_x, .tilt_y = tilt_y, .orientation = orientation, .buttons = buttons, .eraser = eraser, .mouse = mouse } };
-        write(conn_fd, &e, sizeof(e));
     }
 }
 
 static void requestStylusEnabled(__unused JNIEnv *env, __unused jclass clazz, jboolean enabled) {
     if (conn_fd != -1) {
         lorieEvent e = { .stylusEnable = { .t = EVENT_STYLUS_ENABLE, .enable = enabled } };
-        write(conn_fd, &e, sizeof(e));
+        sendMessage(&e, NULL, 0);
     }
 }
 
-static jboolean sendKeyEvent(__unused JNIEnv* env, __unused jobject cls, jint scan_code, jint key_code, jboolean key_down) {
-    if (conn_fd != -1) {
-        int code = (scan_code) ?: android_to_linux_keycode[key_code];
-        log(DEBUG, "Sending key: %d (%d %d %d)", code + 8, scan_code, key_code, key_down);
-        lorieEvent e = { .key = { .t = EVENT_KEY, .key = code + 8, .state = key_down } };
-        write(conn_fd, &e, sizeof(e));
-    }
-
-    return true;
+static jintArray getLinuxKeycodes(JNIEnv *env, __unused jclass clazz) {
+    jsize count = sizeof(android_to_linux_keycode) / sizeof(android_to_linux_keycode[0]);
+    jintArray keycodes = (*env)->NewIntArray(env, count);
+    if (keycodes)
+        (*env)->SetIntArrayRegion(env, keycodes, 0, count, android_to_linux_keycode);
+    return keycodes;
 }
 
-static void sendTextEvent(JNIEnv *env, __unused jobject thiz, jbyteArray text) {
-    if (conn_fd != -1 && text) {
-        jsize length = (*env)->GetArrayLength(env, text);
-        jbyte *str = (*env)->GetByteArrayElements(env, text, NULL);
-        char *p = (char*) str;
-        mbstate_t mbstate = { 0 };
-        if (!length)
-            return;
-
-        log(DEBUG, "Parsing text: %.*s", length, str);
-
-        while (*p) {
-            wchar_t wc;
-            size_t len = mbrtowc(&wc, p, MB_CUR_MAX, &mbstate);
-
-            if (len == (size_t)-1 || len == (size_t)-2) {
-                log(ERROR, "Invalid UTF-8 sequence encountered");
-                break;
-            }
-
-            if (len == 0)
-                break;
-
-            log(DEBUG, "Sending unicode event: %lc (U+%X)", wc, wc);
-            lorieEvent e = { .unicode = { .t = EVENT_UNICODE, .code = wc } };
-            write(conn_fd, &e, sizeof(e));
-            p += len;
-            if (p - (char*) str >= length)
-                break;
-            usleep(2500);
-        }
-
-        (*env)->ReleaseByteArrayElements(env, text, str, JNI_ABORT);
-    }
+// It is @CriticalNative so it gets neither JNIEnv nor jclass.
+static void setViewport(jfloat zoom, jfloat x, jfloat y) {
+    rendererSetViewport(zoom, x, y);
 }
 
 static void surfaceChanged(JNIEnv *env, __unused jobject thiz, jobject sfc) {
@@ -394,13 +1044,14 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, __unused void *reserved) {
             {"sendClipboardAnnounce", "()V", (void *)&sendClipboardAnnounce},
             {"sendClipboardEvent", "([B)V", (void *)&sendClipboardEvent},
             {"sendWindowChange", "(IIILjava/lang/String;)V", (void *)&sendWindowChange},
-            {"sendMouseEvent", "(FFIZZ)V", (void *)&sendMouseEvent},
-            {"sendTouchEvent", "(IIII)V", (void *)&sendTouchEvent},
-            {"sendStylusEvent", "(FFIIIIIZZ)V", (void *)&sendStylusEvent},
             {"requestStylusEnabled", "(Z)V", (void *)&requestStylusEnabled},
-            {"sendKeyEvent", "(IIZI)Z", (void *)&sendKeyEvent},
-            {"sendTextEvent", "([B)V", (void *)&sendTextEvent},
             {"requestConnection", "()Z", (void *)&requestConnection},
+            {"getLinuxKeycodes", "()[I", (void *)&getLinuxKeycodes},
+            {"setEventBuffer", "(Ljava/nio/ByteBuffer;)V", (void *)&setEventBuffer},
+            {"flushEvents", "(I)V", (void *)&flushEvents},
+            {"setInputSenderThreadEnabled", "(Z)V", (void *)&setInputSenderThreadEnabled},
+            {"getInputLatencyStats", "()Ljava/lang/String;", (void *)&getInputLatencyStats},
+            {"setViewport", "(FFF)V", (void *)&setViewport},
     };
     (*vm)->AttachCurrentThread(vm, &env, NULL);
     jclass cls = (*env)->FindClass(env, "com/termux/x11/LorieView");
@@ -13,12 +13,15 @@
 #include <sys/stat.h>
 #include <sys/socket.h>
 #include <sys/prctl.h>
-#include <sys/ioctl.h>
+#include <sys/mman.h>
+#include <sys/eventfd.h>
 #include <libgen.h>
 #include <globals.h>
 #include <xkbsrv.h>
 #include <errno.h>
 #include <inpututils.h>
+#include <X11/extensions/XI2.h>
+#include <mi.h>
 #include <randrstr.h>
 #include <linux/in.h>
 #include <arpa/inet.h>
@@ -208,30 +211,51 @@ Java_com_termux_x11_CmdEntryPoint_start(JNIEnv *env, __unused jclass cls, jobjec
     return JNI_TRUE;
 }
 
-static Bool sendConfigureNotify(__unused ClientPtr pClient, void *closure) {
-    // This must be done only on X server thread.
-    lorieEvent* e = closure;
-    __android_log_print(ANDROID_LOG_ERROR, "tx11-request", "window changed: %d %d %s", e->screenSize.width, e->screenSize.height, e->screenSize.name);
-    lorieConfigureNotify(e->screenSize.width, e->screenSize.height, e->screenSize.framerate, e->screenSize.name_size, e->screenSize.name);
-    free(e);
-    return TRUE;
+/*
+ * Activity stamps every input event with the time Android received it (CLOCK_MONOTONIC, the same clock X server uses),
+ * so we can report real event time to clients even if the connection was backlogged.
+ * Time is clamped to be not greater than current server time and not less than time of previously queued event.
+ */
+static void lorieQueueEventList(DeviceIntPtr device, uint64_t time, int nevents) {
+    static CARD32 last = 0;
+    CARD32 now = GetTimeInMillis(), ms = time ? (CARD32) (time / 1000000) : now;
+
+    if ((INT32) (ms - now) > 0)
+        ms = now;
+    if ((INT32) (ms - last) < 0)
+        ms = last;
+    last = ms;
+
+    for (int i = 0; i < nevents; i++) {
+        InputEventList[i].any.time = ms;
+        mieqEnqueue(device, &InputEventList[i]);
+    }
+
+    if (nevents)
+        lorieLatencyQueued(device == lorieTouch ? LORIE_LATENCY_TOUCH : device == lorieKeyboard ? LORIE_LATENCY_KEY
+                : device == lorieMouse ? LORIE_LATENCY_MOUSE : LORIE_LATENCY_STYLUS, time);
 }
 
-static Bool handleClipboardAnnounce(__unused ClientPtr pClient, __unused void *closure) {
-    // This must be done only on X server thread.
-    lorieHandleClipboardAnnounce();
-    return TRUE;
+static void lorieQueuePointerEvents(uint64_t time, DeviceIntPtr device, int type, int buttons, int flags, const ValuatorMask *mask) {
+    input_lock();
+    lorieQueueEventList(device, time, GetPointerEvents(InputEventList, device, type, buttons, flags, mask));
+    input_unlock();
 }
 
-static Bool handleClipboardData(__unused ClientPtr pClient, void *closure) {
-    // This must be done only on X server thread.
-    lorieHandleClipboardData(closure);
-    return TRUE;
+static void lorieQueueTouchEvents(uint64_t time, DeviceIntPtr device, int type, uint32_t touchid, int flags, const ValuatorMask *mask) {
+    input_lock();
+    lorieQueueEventList(device, time, GetTouchEvents(InputEventList, device, touchid, type, flags, mask));
+    input_unlock();
+}
+
+static void lorieQueueKeyboardEvents(uint64_t time, DeviceIntPtr device, int type, int keycode) {
+    input_lock();
+    lorieQueueEventList(device, time, GetKeyboardEvents(InputEventList, device, type, keycode));
+    input_unlock();
 }
 
-static Bool handleTouchEvent(__unused ClientPtr pClient, void *closure) {
+static void handleTouchEvent(lorieEvent *e) {
     ValuatorMask mask;
-    lorieEvent *e = closure;
     double x = max(min((float) e->touch.x, pScreenPtr->width), 0);
     double y = max(min((float) e->touch.y, pScreenPtr->height), 0);
     valuator_mask_zero(&mask);
@@ -244,7 +268,7 @@ static Bool handleTouchEvent(__unused ClientPtr pClient, void *closure) {
             valuator_mask_fetch_double(touch->valuators, 0, &oldx) &&
             valuator_mask_fetch_double(touch->valuators, 1, &oldy) &&
             oldx == x && oldy == y)
-            goto end;
+            return;
     }
 
     // Sometimes activity part does not send XI_TouchBegin and sends only XI_TouchUpdate.
@@ -252,176 +276,491 @@ static Bool handleTouchEvent(__unused ClientPtr pClient, void *closure) {
         e->touch.type = XI_TouchBegin;
 
     if (e->touch.type == XI_TouchEnd && (!touch || !touch->active))
-        goto end;
+        return;
 
     valuator_mask_set_double(&mask, 0, x * 0xFFFF / (float) pScreenPtr->width);
     valuator_mask_set_double(&mask, 1, y * 0xFFFF / (float) pScreenPtr->height);
-    QueueTouchEvents(lorieTouch, e->touch.type, e->touch.id, 0, &mask);
+    lorieQueueTouchEvents(e->time, lorieTouch, e->touch.type, e->touch.id, 0, &mask);
+}
+
+/*
+ * Text is typed on X server thread a few characters per round, so clients are not starved while a long
+ * text is typed. Key events which come while text is typed are queued after it, otherwise Enter pressed
+ * right after typing (or AltGr pressed again after its character) would be handled before the text.
+ * Only input thread queues items and only X server thread removes them, a single work proc types them
+ * while the list is not empty.
+ */
+typedef struct {
+    struct xorg_list link;
+    lorieEvent e; // EVENT_TEXT, EVENT_UNICODE or EVENT_KEY.
+    size_t position; // Bytes of text typed so far.
+    uint8_t data[]; // Text of EVENT_TEXT.
+} LorieTypingItem;
+
+static struct {
+    pthread_mutex_t lock;
+    struct xorg_list items;
+} typing = { .lock = PTHREAD_MUTEX_INITIALIZER, .items = { &typing.items, &typing.items } };
+
+static void lorieTypeCodepoint(long code) {
+    int ks = code > 0 ? ucs2keysym(code) : NoSymbol;
+    if (ks == NoSymbol)
+        return;
+
+    lorieKeysymKeyboardEvent(ks, TRUE);
+    lorieKeysymKeyboardEvent(ks, FALSE);
+}
+
+static Bool handleTyping(__unused ClientPtr pClient, __unused void *closure) {
+    // Typing a long text in one go starves clients, they should be able to handle events in between.
+    for (int typed = 0; typed < 64;) {
+        LorieTypingItem* item;
+        bool empty;
+
+        pthread_mutex_lock(&typing.lock);
+        item = xorg_list_first_entry(&typing.items, LorieTypingItem, link);
+        pthread_mutex_unlock(&typing.lock);
+
+        switch (item->e.type) {
+            case EVENT_KEY:
+                lorieQueueKeyboardEvents(item->e.time, lorieKeyboard, item->e.key.state ? KeyPress : KeyRelease, item->e.key.key);
+                typed++;
+                break;
+            case EVENT_UNICODE:
+                lorieTypeCodepoint(item->e.unicode.code);
+                typed++;
+                break;
+            case EVENT_TEXT:
+                for (; typed < 64 && item->position < item->e.text.length; typed++)
+                    lorieTypeCodepoint(lorieNextCodepoint(item->data, item->e.text.length, &item->position));
+                if (item->position < item->e.text.length)
+                    continue;
+                break;
+        }
+
+        pthread_mutex_lock(&typing.lock);
+        xorg_list_del(&item->link);
+        empty = xorg_list_is_empty(&typing.items);
+        pthread_mutex_unlock(&typing.lock);
+        free(item);
+        if (empty)
+            return TRUE;
+    }
+
+    lorieWakeServer();
+    return FALSE;
+}
+
+// Must be called only on input thread.
+static bool lorieTypingPending(void) {
+    bool pending;
+    pthread_mutex_lock(&typing.lock);
+    pending = !xorg_list_is_empty(&typing.items);
+    pthread_mutex_unlock(&typing.lock);
+    return pending;
+}
+
+// Queues text, a character or a key to be typed after what is queued already. Must be called only on input thread.
+static void lorieQueueTyping(const lorieEvent* e, const uint8_t* text, size_t length) {
+    LorieTypingItem* item = calloc(1, sizeof(*item) + length);
+    bool schedule;
+    if (!item)
+        return;
+
+    item->e = *e;
+    if (length)
+        memcpy(item->data, text, length);
+
+    pthread_mutex_lock(&typing.lock);
+    schedule = xorg_list_is_empty(&typing.items);
+    xorg_list_append(&item->link, &typing.items);
+    pthread_mutex_unlock(&typing.lock);
+
+    if (schedule) {
+        QueueWorkProc(handleTyping, NULL, NULL);
+        lorieWakeServer();
+    }
+}
+
+/*
+ * Touch, screen size and clipboard messages must be handled on X server thread. Input thread puts them
+ * to a preallocated single-producer single-consumer queue and schedules a work proc only if none is pending,
+ * so a burst of touch events costs one work proc and one wakeup instead of an allocation, a work proc and
+ * a wakeup per event. The work proc handles everything queued by the time it runs.
+ *
+ * If X server stalls long enough to fill the queue, items are queued as separate work procs until all of
+ * them are handled, so the order is kept either way.
+ */
+#define LORIE_WORK_QUEUE_SIZE 1024
+
+typedef struct {
+    lorieEvent e;
+    char* data; // Screen name or clipboard content, owned by the item.
+} LorieWorkItem;
+
+static struct {
+    LorieWorkItem items[LORIE_WORK_QUEUE_SIZE];
+    _Atomic uint32_t head, tail; // head is advanced by input thread, tail by X server thread.
+    atomic_bool scheduled;
+    _Atomic uint32_t overflowed; // Items queued as separate work procs and not handled yet.
+} work;
+
+static void handleWorkItem(LorieWorkItem* item) {
+    switch (item->e.type) {
+        case EVENT_TOUCH:
+            handleTouchEvent(&item->e);
+            break;
+        case EVENT_SCREEN_SIZE:
+            __android_log_print(ANDROID_LOG_ERROR, "tx11-request", "window changed: %d %d %s", item->e.screenSize.width, item->e.screenSize.height, item->data);
+            lorieConfigureNotify(item->e.screenSize.width, item->e.screenSize.height, item->e.screenSize.framerate, item->data ? item->e.screenSize.name_size : 0, item->data);
+            break;
+        case EVENT_CLIPBOARD_ANNOUNCE:
+            lorieHandleClipboardAnnounce();
+            break;
+        case EVENT_CLIPBOARD_SEND:
+            lorieHandleClipboardData(item->data); // Takes ownership.
+            item->data = NULL;
+            break;
+    }
+    free(item->data);
+    item->data = NULL;
+}
+
+static Bool handleWorkQueue(__unused ClientPtr pClient, __unused void *closure) {
+    // This must be done only on X server thread.
+    uint32_t tail = atomic_load_explicit(&work.tail, memory_order_relaxed), head, count, i;
+    uint8_t merged[LORIE_WORK_QUEUE_SIZE / 8] = {0};
+    uint64_t updated = 0;
+
+    // Items queued after this are handled by the next work proc.
+    atomic_store_explicit(&work.scheduled, false, memory_order_seq_cst);
+    head = atomic_load_explicit(&work.head, memory_order_seq_cst);
+    count = head - tail;
+
+    // Only the last of TouchUpdates of the same touch which are not separated by its begin or end is handled.
+    for (i = count; i-- > 0;) {
+        lorieEvent* e = &work.items[(tail + i) % LORIE_WORK_QUEUE_SIZE].e;
+        uint64_t bit = e->type == EVENT_TOUCH && e->touch.id < 64 ? 1ULL << e->touch.id : 0;
+        if (!bit)
+            continue;
+        if (e->touch.type != XI_TouchUpdate)
+            updated &= ~bit;
+        else if (updated & bit)
+            merged[i / 8] |= 1 << (i % 8);
+        else
+            updated |= bit;
+    }
+
+    for (i = 0; i < count; i++) {
+        LorieWorkItem* item = &work.items[(tail + i) % LORIE_WORK_QUEUE_SIZE];
+        if (!(merged[i / 8] & (1 << (i % 8))))
+            handleWorkItem(item);
+    }
 
-    end:
-    free(e);
+    atomic_store_explicit(&work.tail, head, memory_order_release);
     return TRUE;
 }
 
-void handleLorieEvents(int fd, __unused int ready, __unused void *ignored) {
-    ValuatorMask mask;
-    lorieEvent e = {0};
-    valuator_mask_zero(&mask);
+static Bool handleOverflowedWorkItem(__unused ClientPtr pClient, void *closure) {
+    // This must be done only on X server thread.
+    handleWorkItem(closure);
+    free(closure);
+    atomic_fetch_sub_explicit(&work.overflowed, 1, memory_order_release);
+    return TRUE;
+}
 
-    if (ready & X_NOTIFY_ERROR) {
-        LorieBuffer* buf;
-        InputThreadUnregisterDev(fd);
-        close(fd);
-        conn_fd = -1;
-        lorieEnableClipboardSync(FALSE);
-        while ((buf = LorieBufferList_first(&registeredBuffers)))
-            LorieBuffer_removeFromList(buf);
+// Must be called only on input thread, takes ownership of data.
+static void lorieQueueWork(const lorieEvent* e, char* data) {
+    uint32_t head = atomic_load_explicit(&work.head, memory_order_relaxed);
+
+    if (atomic_load_explicit(&work.overflowed, memory_order_acquire)
+            || head - atomic_load_explicit(&work.tail, memory_order_acquire) >= LORIE_WORK_QUEUE_SIZE) {
+        // Pending work procs run in the order they were queued, after the one handling the queue.
+        LorieWorkItem* item = calloc(1, sizeof(*item));
+        if (!item) {
+            free(data);
+            return;
+        }
+        item->e = *e;
+        item->data = data;
+        atomic_fetch_add_explicit(&work.overflowed, 1, memory_order_relaxed);
+        QueueWorkProc(handleOverflowedWorkItem, NULL, item);
+        lorieWakeServer();
         return;
     }
 
-    again:
-    if (read(fd, &e, sizeof(e)) == sizeof(e)) {
-        switch(e.type) {
-            case EVENT_SCREEN_SIZE: {
-                lorieEvent *copy = calloc(1, sizeof(lorieEvent) + e.screenSize.name_size + 1);
-                memcpy(copy, &e, sizeof(e));
-                copy->screenSize.name = copy->screenSize.name_size ? (char*) (copy + 1) : NULL;
-                if (copy->screenSize.name_size)
-                    read(fd, copy->screenSize.name, copy->screenSize.name_size);
-                QueueWorkProc(sendConfigureNotify, NULL, copy);
-                lorieWakeServer();
-                break;
-            }
-            case EVENT_TOUCH: {
-                lorieEvent *copy = calloc(1, sizeof(lorieEvent));
-                memcpy(copy, &e, sizeof(e));
-                QueueWorkProc(handleTouchEvent, NULL, copy);
-                lorieWakeServer();
-                break;
-            }
-            case EVENT_STYLUS: {
-                static int buttons_prev = 0;
-                uint32_t released, pressed, diff;
-                DeviceIntPtr device = e.stylus.mouse ? lorieMouse : (e.stylus.eraser ? lorieEraser : loriePen);
-                if (!device) {
-                    __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "got stylus event but device is not requested\n");
-                    break;
-                }
-                __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "got stylus event %f %f %d %d %d %d %s\n", e.stylus.x, e.stylus.y, e.stylus.pressure, e.stylus.tilt_x, e.stylus.tilt_y, e.stylus.orientation,
-                                    device == lorieMouse ? "lorieMouse" : (device == loriePen ? "loriePen" : "lorieEraser"));
-
-                valuator_mask_set_double(&mask, 0, max(min(e.stylus.x, pScreenPtr->width), 0));
-                valuator_mask_set_double(&mask, 1, max(min(e.stylus.y, pScreenPtr->height), 0));
-                if (device != lorieMouse) {
-                    valuator_mask_set_double(&mask, 2, e.stylus.pressure);
-                    valuator_mask_set_double(&mask, 3, e.stylus.tilt_x);
-                    valuator_mask_set_double(&mask, 4, e.stylus.tilt_y);
-                    valuator_mask_set_double(&mask, 5, e.stylus.orientation);
-                }
-                QueuePointerEvents(device, MotionNotify, 0, POINTER_ABSOLUTE | POINTER_DESKTOP | (device == lorieMouse ? POINTER_NORAW : 0), &mask);
+    work.items[head % LORIE_WORK_QUEUE_SIZE] = (LorieWorkItem) { .e = *e, .data = data };
+    atomic_store_explicit(&work.head, head + 1, memory_order_seq_cst);
+    if (!atomic_exchange_explicit(&work.scheduled, true, memory_order_seq_cst)) {
+        QueueWorkProc(handleWorkQueue, NULL, NULL);
+        lorieWakeServer();
+    }
+}
 
-                diff = buttons_prev ^ e.stylus.buttons;
-                released = diff & ~e.stylus.buttons;
-                pressed = diff & e.stylus.buttons;
+static void lorieDrainInputRingUntil(uint32_t head);
 
-                for (int i=0; i<3; i++) {
-                    if (released & 0x1) {
-                        QueuePointerEvents(device, ButtonRelease, i + 1, POINTER_RELATIVE, NULL);
-                        __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "sending %d press", i+1);
-                    }
-                    if (pressed & 0x1) {
-                        QueuePointerEvents(device, ButtonPress, i + 1, POINTER_RELATIVE, NULL);
-                        __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "sending %d release", i+1);
-                    }
-                    released >>= 1;
-                    pressed >>= 1;
-                }
-                buttons_prev = e.stylus.buttons;
+static void handleLorieEvent(lorieEvent *e, const uint8_t* payload) {
+    ValuatorMask mask;
+    valuator_mask_zero(&mask);
 
+    switch(e->type) {
+        case EVENT_SCREEN_SIZE: {
+            char* name = e->screenSize.name_size && payload ? calloc(1, e->screenSize.name_size + 1) : NULL;
+            if (name)
+                memcpy(name, payload, e->screenSize.name_size);
+            lorieQueueWork(e, name);
+            break;
+        }
+        case EVENT_TOUCH:
+            lorieQueueWork(e, NULL);
+            break;
+        case EVENT_STYLUS: {
+            static int buttons_prev = 0;
+            uint32_t released, pressed, diff;
+            DeviceIntPtr device = e->stylus.mouse ? lorieMouse : (e->stylus.eraser ? lorieEraser : loriePen);
+            if (!device) {
+                __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "got stylus event but device is not requested\n");
                 break;
             }
-            case EVENT_STYLUS_ENABLE: {
-                lorieSetStylusEnabled(e.stylusEnable.enable);
-                break;
+            __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "got stylus event %f %f %d %d %d %d %s\n", e->stylus.x, e->stylus.y, e->stylus.pressure, e->stylus.tilt_x, e->stylus.tilt_y, e->stylus.orientation,
+                                device == lorieMouse ? "lorieMouse" : (device == loriePen ? "loriePen" : "lorieEraser"));
+
+            valuator_mask_set_double(&mask, 0, max(min(e->stylus.x, pScreenPtr->width), 0));
+            valuator_mask_set_double(&mask, 1, max(min(e->stylus.y, pScreenPtr->height), 0));
+            if (device != lorieMouse) {
+                valuator_mask_set_double(&mask, 2, e->stylus.pressure);
+                valuator_mask_set_double(&mask, 3, e->stylus.tilt_x);
+                valuator_mask_set_double(&mask, 4, e->stylus.tilt_y);
+                valuator_mask_set_double(&mask, 5, e->stylus.orientation);
             }
-            case EVENT_MOUSE: {
-                int flags;
-                switch(e.mouse.detail) {
-                    case 0: // BUTTON_UNDEFINED
-                        flags = (e.mouse.relative) ? POINTER_RELATIVE | POINTER_ACCELERATE : POINTER_ABSOLUTE | POINTER_SCREEN | POINTER_NORAW;
-                        if (!e.mouse.relative) {
-                            e.mouse.x = max(0, min(e.mouse.x, pScreenPtr->width));
-                            e.mouse.y = max(0, min(e.mouse.y, pScreenPtr->height));
-                        }
-                        valuator_mask_set_double(&mask, 0, (double) e.mouse.x);
-                        valuator_mask_set_double(&mask, 1, (double) e.mouse.y);
-                        QueuePointerEvents(lorieMouse, MotionNotify, 0, flags, &mask);
-                        break;
-                    case 1: // BUTTON_LEFT
-                    case 2: // BUTTON_MIDDLE
-                    case 3: // BUTTON_RIGHT
-                        QueuePointerEvents(lorieMouse, e.mouse.down ? ButtonPress : ButtonRelease, e.mouse.detail, POINTER_RELATIVE, NULL);
-                        break;
-                    case 4: // BUTTON_SCROLL
-                        if (e.mouse.x) {
-                            valuator_mask_zero(&mask);
-                            valuator_mask_set_double(&mask, 2, (double) e.mouse.x / 120);
-                            QueuePointerEvents(lorieMouse, MotionNotify, 0, POINTER_RELATIVE, &mask);
-                        }
-                        if (e.mouse.y) {
-                            valuator_mask_zero(&mask);
-                            valuator_mask_set_double(&mask, 3, (double) e.mouse.y / 120);
-                            QueuePointerEvents(lorieMouse, MotionNotify, 0, POINTER_RELATIVE, &mask);
-                        }
-                        break;
+            lorieQueuePointerEvents(e->time, device, MotionNotify, 0, POINTER_ABSOLUTE | POINTER_DESKTOP | (device == lorieMouse ? POINTER_NORAW : 0), &mask);
+
+            diff = buttons_prev ^ e->stylus.buttons;
+            released = diff & ~e->stylus.buttons;
+            pressed = diff & e->stylus.buttons;
+
+            for (int i=0; i<3; i++) {
+                if (released & 0x1) {
+                    lorieQueuePointerEvents(e->time, device, ButtonRelease, i + 1, POINTER_RELATIVE, NULL);
+                    __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "sending %d press", i+1);
                 }
-                break;
+                if (pressed & 0x1) {
+                    lorieQueuePointerEvents(e->time, device, ButtonPress, i + 1, POINTER_RELATIVE, NULL);
+                    __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "sending %d release", i+1);
+                }
+                released >>= 1;
+                pressed >>= 1;
             }
-            case EVENT_KEY:
-                QueueKeyboardEvents(lorieKeyboard, e.key.state ? KeyPress : KeyRelease, e.key.key);
-                break;
-            case EVENT_UNICODE: {
-                int ks = ucs2keysym((long) e.unicode.code);
-                __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "Trying to input keysym %d\n", ks);
-                lorieKeysymKeyboardEvent(ks, TRUE);
-                lorieKeysymKeyboardEvent(ks, FALSE);
-                break;
+            buttons_prev = e->stylus.buttons;
+
+            break;
+        }
+        case EVENT_STYLUS_ENABLE: {
+            lorieSetStylusEnabled(e->stylusEnable.enable);
+            break;
+        }
+        case EVENT_MOUSE: {
+            int flags;
+            switch(e->mouse.detail) {
+                case 0: // BUTTON_UNDEFINED
+                    flags = (e->mouse.relative) ? POINTER_RELATIVE | POINTER_ACCELERATE : POINTER_ABSOLUTE | POINTER_SCREEN | POINTER_NORAW;
+                    if (!e->mouse.relative) {
+                        e->mouse.x = max(0, min(e->mouse.x, pScreenPtr->width));
+                        e->mouse.y = max(0, min(e->mouse.y, pScreenPtr->height));
+                    }
+                    valuator_mask_set_double(&mask, 0, (double) e->mouse.x);
+                    valuator_mask_set_double(&mask, 1, (double) e->mouse.y);
+                    lorieQueuePointerEvents(e->time, lorieMouse, MotionNotify, 0, flags, &mask);
+                    break;
+                case 1: // BUTTON_LEFT
+                case 2: // BUTTON_MIDDLE
+                case 3: // BUTTON_RIGHT
+                    lorieQueuePointerEvents(e->time, lorieMouse, e->mouse.down ? ButtonPress : ButtonRelease, e->mouse.detail, POINTER_RELATIVE, NULL);
+                    break;
+                case 4: // BUTTON_SCROLL
+                    // Both axes are smooth scroll valuators, one event carries fractional scrolling of both of them.
+                    if (e->mouse.x)
+                        valuator_mask_set_double(&mask, 2, (double) e->mouse.x / 120);
+                    if (e->mouse.y)
+                        valuator_mask_set_double(&mask, 3, (double) e->mouse.y / 120);
+                    if (valuator_mask_num_valuators(&mask))
+                        lorieQueuePointerEvents(e->time, lorieMouse, MotionNotify, 0, POINTER_RELATIVE, &mask);
+                    break;
             }
-            case EVENT_CLIPBOARD_ENABLE:
-                lorieEnableClipboardSync(e.clipboardEnable.enable);
+            break;
+        }
+        case EVENT_KEY:
+            // Keys must not overtake text which is still being typed.
+            if (lorieTypingPending())
+                lorieQueueTyping(e, NULL, 0);
+            else
+                lorieQueueKeyboardEvents(e->time, lorieKeyboard, e->key.state ? KeyPress : KeyRelease, e->key.key);
+            break;
+        case EVENT_GESTURE: {
+            static const uint16_t types[2][3] = {
+                    [LORIE_GESTURE_PINCH] = { XI_GesturePinchBegin, XI_GesturePinchUpdate, XI_GesturePinchEnd },
+                    [LORIE_GESTURE_SWIPE] = { XI_GestureSwipeBegin, XI_GestureSwipeUpdate, XI_GestureSwipeEnd },
+            };
+            uint8_t kind = e->gesture.kind, phase = e->gesture.phase;
+            uint32_t flags = 0;
+            if (kind > LORIE_GESTURE_SWIPE || phase > LORIE_GESTURE_CANCEL || !e->gesture.fingers)
                 break;
-            case EVENT_CLIPBOARD_ANNOUNCE:
-                QueueWorkProc(handleClipboardAnnounce, NULL, NULL);
-                lorieWakeServer();
+            if (phase == LORIE_GESTURE_CANCEL)
+                flags = kind == LORIE_GESTURE_PINCH ? XIGesturePinchEventCancelled : XIGestureSwipeEventCancelled;
+
+            input_lock();
+            lorieQueueEventList(lorieMouse, e->time, GetGestureEvents(InputEventList, lorieMouse, types[kind][min(phase, LORIE_GESTURE_END)],
+                    e->gesture.fingers, flags, e->gesture.dx, e->gesture.dy, e->gesture.dx, e->gesture.dy, e->gesture.scale, e->gesture.angle));
+            input_unlock();
+            break;
+        }
+        case EVENT_TEXT:
+            // Text never comes through input ring, its payload follows it in socket.
+            if (!payload && e->text.length)
                 break;
-            case EVENT_CLIPBOARD_SEND: {
-                char *data = calloc(1, e.clipboardSend.count + 1);
-                read(conn_fd, data, e.clipboardSend.count);
-                data[e.clipboardSend.count] = 0;
-                QueueWorkProc(handleClipboardData, NULL, data);
-                lorieWakeServer();
-            }
+
+            __android_log_print(ANDROID_LOG_DEBUG, "LorieNative", "Trying to input text: %.*s\n", (int) e->text.length, payload);
+            lorieDrainInputRingUntil(e->text.ringHead);
+            lorieLatencyQueued(LORIE_LATENCY_KEY, e->time);
+            lorieQueueTyping(e, payload, e->text.length);
+            break;
+        case EVENT_UNICODE:
+            // Activities speaking protocol version 0 send text as EVENT_UNICODE per character.
+            lorieQueueTyping(e, NULL, 0);
+            break;
+        case EVENT_RING_SYNC:
+            lorieDrainInputRingUntil(e->ringSync.ringHead);
+            break;
+        case EVENT_CLIPBOARD_ENABLE:
+            lorieEnableClipboardSync(e->clipboardEnable.enable);
+            break;
+        case EVENT_CLIPBOARD_ANNOUNCE:
+            lorieQueueWork(e, NULL);
+            break;
+        case EVENT_CLIPBOARD_SEND: {
+            char *data = calloc(1, e->clipboardSend.count + 1);
+            if (!data)
+                break;
+            if (payload)
+                memcpy(data, payload, e->clipboardSend.count);
+            lorieQueueWork(e, data);
         }
+    }
+}
+
+static struct {
+    Bool enabled;
+    int fd, eventFd;
+    struct lorie_input_ring* ring;
+} inputRing = { .fd = -1, .eventFd = -1 };
+
+void lorieSetInputRingEnabled(Bool enabled) {
+    inputRing.enabled = enabled;
+}
+
+static void handleLorieRingRecord(const void* record, __unused void* data) {
+    lorieEvent e;
+    memcpy(&e, record, sizeof(e));
+    handleLorieEvent(&e, NULL);
+}
+
+static void lorieDrainInputRingUntil(uint32_t head) {
+    if (inputRing.ring)
+        lorieRingDrainUntil(inputRing.ring, head, handleLorieRingRecord, NULL);
+}
+
+void handleLorieEvents(int fd, int ready, void *ignored);
+
+static void handleLorieSocketBeforeRing(__unused void* data) {
+    struct pollfd pfd = { .fd = conn_fd, .events = POLLIN };
+    if (conn_fd != -1 && poll(&pfd, 1, 0) == 1 && pfd.revents == POLLIN)
+        handleLorieEvents(conn_fd, X_NOTIFY_READ, NULL);
+}
+
+static void handleLorieRing(int fd, __unused int ready, __unused void *ignored) {
+    eventfd_t dummy;
+    eventfd_read(fd, &dummy);
+
+    // Some messages (i.e. text or events which did not fit the ring) are sent through socket,
+    // they must be handled before events pushed to ring after them.
+    lorieRingDrainAfter(inputRing.ring, handleLorieSocketBeforeRing, handleLorieRingRecord, NULL);
+}
+
+// Input thread and X server thread both write conn_fd, so messages must not interleave
+// and must be framed with the version announced to activity last.
+static pthread_mutex_t sendLock = PTHREAD_MUTEX_INITIALIZER;
+static struct lorie_protocol protocol = {0};
+
+// Must be called with sendLock held.
+static void lorieSendLocked(const lorieEvent* e, const void* payload, size_t size) {
+    uint8_t message[LORIE_MESSAGE_MAX];
+    write(conn_fd, message, lorieEventEncode(e, protocol.out, message));
+    if (size)
+        write(conn_fd, payload, size);
+}
+
+static void lorieSend(const lorieEvent* e, const void* payload, size_t size) {
+    pthread_mutex_lock(&sendLock);
+    lorieSendLocked(e, payload, size);
+    pthread_mutex_unlock(&sendLock);
+}
+
+static void lorieSendInputRing(void);
+
+static void handleLorieProtocol(lorieEvent* e) {
+    pthread_mutex_lock(&sendLock);
+    int version = lorieProtocolReceived(&protocol, e);
+    if (version >= 0) {
+        lorieEvent reply = { .protocol = { .t = EVENT_PROTOCOL, .version = version, .max = LORIE_PROTOCOL_VERSION } };
+        lorieSendLocked(&reply, NULL, 0);
+        protocol.out = version;
+    }
+    pthread_mutex_unlock(&sendLock);
+    log(DEBUG, "Activity uses protocol version %d, X server uses %d", protocol.in, protocol.out);
+
+    // Activities which speak only version 0 do not know the ring, it is offered once we switched to version 1.
+    if (version >= 1)
+        lorieSendInputRing();
+}
+
+static void handleLorieMessage(lorieEvent* e, const uint8_t* payload, __unused void* data) {
+    if (e->type == EVENT_PROTOCOL)
+        handleLorieProtocol(e);
+    else
+        handleLorieEvent(e, payload);
+}
 
-        int n;
-        if (ioctl(fd, FIONREAD, &n) >= 0 && n > sizeof(e))
-            goto again;
+// Only input thread reads conn_fd. Activity sends no file descriptors, so it is read in bulk.
+static struct lorie_receiver receiver;
+
+void handleLorieEvents(int fd, __unused int ready, __unused void *ignored) {
+    if (ready & X_NOTIFY_ERROR) {
+        LorieBuffer* buf;
+        InputThreadUnregisterDev(fd);
+        close(fd);
+        conn_fd = -1;
+        lorieEnableClipboardSync(FALSE);
+        while ((buf = LorieBufferList_first(&registeredBuffers)))
+            LorieBuffer_removeFromList(buf);
+        return;
     }
+
+    // Closed connection is handled when X_NOTIFY_ERROR comes.
+    lorieReceive(&receiver, fd, &protocol, false, handleLorieMessage, NULL);
 }
 
 void lorieSendClipboardData(const char* data) {
     if (data && conn_fd != -1) {
         size_t len = strlen(data);
         lorieEvent e = { .clipboardSend = { .t = EVENT_CLIPBOARD_SEND, .count = len } };
-        write(conn_fd, &e, sizeof(e));
-        write(conn_fd, data, len);
+        lorieSend(&e, data, len);
     }
 }
 
 void lorieRequestClipboard(void) {
     if (conn_fd != -1) {
         lorieEvent e = { .type = EVENT_CLIPBOARD_REQUEST };
-        write(conn_fd, &e, sizeof(e));
+        lorieSend(&e, NULL, 0);
     }
 }
 
@@ -434,7 +773,42 @@ bool lorieConnectionAlive(void) {
     return !(poll(&p, 1, 0) == 1 && (p.revents & (POLLERR | POLLNVAL | POLLRDHUP | POLLHUP)));
 }
 
+static void lorieSendInputRing(void) {
+    if (!inputRing.enabled || conn_fd == -1)
+        return;
+
+    if (inputRing.fd == -1) {
+        // Ring is created only once and reused by all subsequent activity connections.
+        inputRing.fd = LorieBuffer_createRegion("xserver-input", sizeof(*inputRing.ring));
+        inputRing.ring = inputRing.fd < 0 ? MAP_FAILED : mmap(NULL, sizeof(*inputRing.ring), PROT_READ|PROT_WRITE, MAP_SHARED, inputRing.fd, 0);
+        inputRing.eventFd = inputRing.ring == MAP_FAILED ? -1 : eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+        if (inputRing.eventFd < 0) {
+            log(ERROR, "Failed to create input ring, falling back to socket: %s", strerror(errno));
+            if (inputRing.ring != MAP_FAILED)
+                munmap(inputRing.ring, sizeof(*inputRing.ring));
+            if (inputRing.fd >= 0)
+                close(inputRing.fd);
+            inputRing.fd = -1;
+            inputRing.ring = NULL;
+            inputRing.enabled = FALSE;
+            return;
+        }
+
+        InputThreadRegisterDev(inputRing.eventFd, handleLorieRing, NULL);
+    }
+
+    lorieEvent e = { .type = EVENT_INPUT_RING };
+    pthread_mutex_lock(&sendLock);
+    lorieSendLocked(&e, NULL, 0);
+    ancil_send_fd(conn_fd, inputRing.fd);
+    ancil_send_fd(conn_fd, inputRing.eventFd);
+    pthread_mutex_unlock(&sendLock);
+}
+
 static Bool addFd(__unused ClientPtr pClient, void *closure) {
+    // Activity announces its protocol version first, until then whole lorieEvents are used.
+    protocol = (struct lorie_protocol) {0};
+    lorieReceiverReset(&receiver);
     InputThreadRegisterDev((int) (int64_t) closure, handleLorieEvents, NULL);
     conn_fd = (int) (int64_t) closure;
     lorieActivityConnected();
@@ -444,8 +818,10 @@ static Bool addFd(__unused ClientPtr pClient, void *closure) {
 void lorieSendSharedServerState(int memfd) {
     if (conn_fd != -1) {
         lorieEvent e = { .type = EVENT_SHARED_SERVER_STATE };
-        write(conn_fd, &e, sizeof(e));
+        pthread_mutex_lock(&sendLock);
+        lorieSendLocked(&e, NULL, 0);
         ancil_send_fd(conn_fd, memfd);
+        pthread_mutex_unlock(&sendLock);
     }
 }
 
@@ -456,8 +832,10 @@ void lorieRegisterBuffer(LorieBuffer* buffer) {
 
     if (conn_fd != -1 && buffer) {
         lorieEvent e = { .type = EVENT_ADD_BUFFER };
-        write(conn_fd, &e, sizeof(e));
+        pthread_mutex_lock(&sendLock);
+        lorieSendLocked(&e, NULL, 0);
         LorieBuffer_sendHandleToUnixSocket(buffer, conn_fd);
+        pthread_mutex_unlock(&sendLock);
         LorieBuffer_addToList(buffer, &registeredBuffers);
         const LorieBuffer_Desc* desc = LorieBuffer_description(buffer);
         log(INFO, "Sent shared buffer width %d stride %d height %d format %d type %d id %llu", desc->width, desc->stride, desc->height, desc->format, desc->type, desc->id);
@@ -471,7 +849,7 @@ void lorieUnregisterBuffer(LorieBuffer* buffer) {
 
     if (conn_fd != -1 && buffer) {
         lorieEvent e = { .removeBuffer = { .t = EVENT_REMOVE_BUFFER, .id = id } };
-        write(conn_fd, &e, sizeof(e));
+        lorieSend(&e, NULL, 0);
         LorieBuffer_removeFromList(buffer);
     }
 }
@@ -479,7 +857,7 @@ void lorieUnregisterBuffer(LorieBuffer* buffer) {
 void DDXNotifyFocusChanged(void) {
     if (conn_fd != -1) {
         lorieEvent e = { .type = EVENT_WINDOW_FOCUS_CHANGED };
-        write(conn_fd, &e, sizeof(e));
+        lorieSend(&e, NULL, 0);
     }
 }
 
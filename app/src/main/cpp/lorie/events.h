@@ -0,0 +1,562 @@
+#pragma once
+#include <errno.h>
+#include <stdbool.h>
+#include <stddef.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/socket.h>
+#include "ring.h"
+
+/*
+ * Messages activity and X server exchange through conn_fd (and the input ring).
+ * Some messages are followed by payload: EVENT_SCREEN_SIZE by `name_size` bytes of name,
+ * EVENT_TEXT by `length` bytes of UTF-8 text and EVENT_CLIPBOARD_SEND by `count` bytes of clipboard content.
+ *
+ * Messages are framed according to protocol version:
+ *   0 -- every message is the first LORIE_EVENT_V0_SIZE bytes of lorieEvent. Members of the union keep
+ *        the layout older activities and servers use and time is not sent, so they read these messages
+ *        like their own ones. Messages of types they do not know (EVENT_PROTOCOL and EVENT_GESTURE) are
+ *        skipped by them. Text is sent as EVENT_UNICODE per character, they do not know EVENT_TEXT.
+ *   1 -- every message is a type byte, a length byte and `length` bytes of fields packed without
+ *        padding (see lorieEventEncode), so input events take 13-29 bytes instead of 24.
+ * Both sides start with version 0. Activity sends EVENT_PROTOCOL right after it gets conn_fd.
+ * The side receiving EVENT_PROTOCOL which can use a newer version answers with its own one.
+ * The `version` field of EVENT_PROTOCOL is the framing the sender uses for every message after
+ * this one, so each direction switches at a well-defined point of the stream.
+ * Input ring is offered only to activities which announced version 1, it always carries whole lorieEvents.
+ * Input events which do not fit the ring go through conn_fd, EVENT_RING_SYNC goes before them so
+ * X server handles events pushed to the ring earlier first.
+ *
+ * Input events are also written by LorieEventEncoder in Java, so their layout must be the same
+ * on every ABI and match offsets asserted below.
+ *
+ * This header must not depend on Android or X server headers, it is used by host tools too.
+ */
+
+// Activity asks X server to send it conn_fd by connecting to this TCP port on localhost and writing MAGIC.
+#define PORT 7892
+#define MAGIC "0xDEADBEEF"
+
+#ifndef __unused
+#define __unused __attribute__((__unused__))
+#endif
+
+// CLOCK_MONOTONIC, nanoseconds. 32-bit x86 aligns uint64_t to 4 bytes, so alignment is explicit.
+typedef uint64_t lorieTime __attribute__((aligned(8)));
+
+typedef enum {
+    EVENT_UNKNOWN __unused = 0,
+    EVENT_SHARED_SERVER_STATE,
+    EVENT_ADD_BUFFER,
+    EVENT_REMOVE_BUFFER,
+    EVENT_SCREEN_SIZE,
+    EVENT_TOUCH,
+    EVENT_MOUSE,
+    EVENT_KEY,
+    EVENT_STYLUS,
+    EVENT_STYLUS_ENABLE,
+    EVENT_UNICODE,
+    EVENT_CLIPBOARD_ENABLE,
+    EVENT_CLIPBOARD_ANNOUNCE,
+    EVENT_CLIPBOARD_REQUEST,
+    EVENT_CLIPBOARD_SEND,
+    EVENT_WINDOW_FOCUS_CHANGED,
+    EVENT_INPUT_RING,
+    EVENT_PROTOCOL,
+    EVENT_GESTURE,
+    EVENT_RING_SYNC,
+    EVENT_TEXT,
+} eventType;
+
+// Gestures forwarded as XI 2.4 gesture events, `kind` and `phase` of EVENT_GESTURE.
+enum {
+    LORIE_GESTURE_PINCH,
+    LORIE_GESTURE_SWIPE,
+};
+
+enum {
+    LORIE_GESTURE_BEGIN,
+    LORIE_GESTURE_UPDATE,
+    LORIE_GESTURE_END,
+    LORIE_GESTURE_CANCEL, // ends the gesture as cancelled
+};
+
+// Members of the union keep the layout they had before timestamps were added, time follows the union,
+// so the first LORIE_EVENT_V0_SIZE bytes are the message of version 0.
+typedef struct {
+    union {
+        uint8_t type;
+        struct {
+            uint8_t t;
+            uint16_t width, height, framerate;
+            size_t name_size;
+            char *name;
+        } screenSize;
+        struct {
+            uint8_t t;
+            unsigned long id;
+        } removeBuffer;
+        struct {
+            uint8_t t;
+            uint16_t type, id, x, y;
+        } touch;
+        struct {
+            uint8_t t;
+            float x, y;
+            uint8_t detail, down, relative;
+        } mouse;
+        struct {
+            uint8_t t;
+            uint16_t key;
+            uint8_t state;
+        } key;
+        struct {
+            uint8_t t;
+            float x, y;
+            uint16_t pressure;
+            int8_t tilt_x, tilt_y;
+            int16_t orientation;
+            uint8_t buttons, eraser, mouse;
+        } stylus;
+        struct {
+            uint8_t t, enable;
+        } stylusEnable;
+        struct {
+            uint8_t t;
+            uint32_t code;
+        } unicode;
+        struct {
+            uint8_t t;
+            uint32_t length; // followed by `length` bytes of UTF-8 text
+            uint32_t ringHead; // head of input ring at the moment text was sent, events pushed before must be handled first
+        } text;
+        struct {
+            uint8_t t;
+            uint8_t enable;
+        } clipboardEnable;
+        struct {
+            uint8_t t;
+            uint32_t count;
+        } clipboardSend;
+        struct {
+            uint8_t t;
+            uint8_t version; // framing of messages sent after this one
+            uint8_t max; // the newest version sender understands
+        } protocol;
+        struct {
+            uint8_t t;
+            uint8_t kind, phase, fingers;
+            float dx, dy; // motion of the center of fingers since the previous event of the gesture
+            float scale; // distance between fingers relative to the beginning of pinch
+            float angle; // rotation since the previous event of pinch, in degrees
+        } gesture;
+        struct {
+            uint8_t t;
+            uint32_t ringHead; // head of input ring when the messages following this one were sent, events pushed before must be handled first
+        } ringSync;
+    };
+    lorieTime time; // when input event happened, 0 if it is unknown
+} lorieEvent;
+
+// Older activities and servers read and write messages of this size on every ABI.
+#define LORIE_EVENT_V0_SIZE offsetof(lorieEvent, time)
+
+_Static_assert(sizeof(lorieEvent) <= LORIE_RING_SLOT_SIZE, "lorieEvent does not fit input ring slot");
+
+// These must be kept in sync with LorieEventEncoder.java.
+_Static_assert(sizeof(lorieEvent) == 32 && LORIE_EVENT_V0_SIZE == 24, "lorieEvent size changed");
+_Static_assert(offsetof(lorieEvent, touch.type) == 2 && offsetof(lorieEvent, touch.id) == 4
+        && offsetof(lorieEvent, touch.x) == 6 && offsetof(lorieEvent, touch.y) == 8, "touch event layout changed");
+_Static_assert(offsetof(lorieEvent, mouse.x) == 4 && offsetof(lorieEvent, mouse.y) == 8
+        && offsetof(lorieEvent, mouse.detail) == 12 && offsetof(lorieEvent, mouse.down) == 13 && offsetof(lorieEvent, mouse.relative) == 14, "mouse event layout changed");
+_Static_assert(offsetof(lorieEvent, key.key) == 2 && offsetof(lorieEvent, key.state) == 4, "key event layout changed");
+_Static_assert(offsetof(lorieEvent, stylus.x) == 4 && offsetof(lorieEvent, stylus.y) == 8
+        && offsetof(lorieEvent, stylus.pressure) == 12 && offsetof(lorieEvent, stylus.tilt_x) == 14 && offsetof(lorieEvent, stylus.tilt_y) == 15
+        && offsetof(lorieEvent, stylus.orientation) == 16 && offsetof(lorieEvent, stylus.buttons) == 18 && offsetof(lorieEvent, stylus.eraser) == 19
+        && offsetof(lorieEvent, stylus.mouse) == 20, "stylus event layout changed");
+_Static_assert(offsetof(lorieEvent, unicode.code) == 4, "unicode event layout changed");
+_Static_assert(offsetof(lorieEvent, text.length) == 4 && offsetof(lorieEvent, text.ringHead) == 8, "text event layout changed");
+_Static_assert(offsetof(lorieEvent, gesture.kind) == 1 && offsetof(lorieEvent, gesture.phase) == 2 && offsetof(lorieEvent, gesture.fingers) == 3
+        && offsetof(lorieEvent, gesture.dx) == 4 && offsetof(lorieEvent, gesture.dy) == 8
+        && offsetof(lorieEvent, gesture.scale) == 12 && offsetof(lorieEvent, gesture.angle) == 16, "gesture event layout changed");
+
+#define LORIE_PROTOCOL_VERSION 1
+#define LORIE_MESSAGE_MAX (sizeof(lorieEvent) > 2 + UINT8_MAX ? sizeof(lorieEvent) : 2 + UINT8_MAX)
+
+struct lorie_protocol {
+    uint8_t in, out; // versions of framing of received and sent messages
+};
+
+/**
+ * Handles EVENT_PROTOCOL received from the other side.
+ *
+ * @return version the caller should announce with EVENT_PROTOCOL and switch its outgoing messages to,
+ *         or -1 if nothing should be sent.
+ */
+static inline int lorieProtocolReceived(struct lorie_protocol* protocol, const lorieEvent* e) {
+    int version = e->protocol.max < LORIE_PROTOCOL_VERSION ? e->protocol.max : LORIE_PROTOCOL_VERSION;
+    protocol->in = e->protocol.version <= LORIE_PROTOCOL_VERSION ? e->protocol.version : protocol->in;
+    return version > protocol->out ? version : -1;
+}
+
+#define loriePut(p, v) (memcpy((p), &(v), sizeof(v)), (p) += sizeof(v))
+#define lorieGet(p, v) (memcpy(&(v), (p), sizeof(v)), (p) += sizeof(v))
+
+/**
+ * Writes message with the given framing, payload following the message is not written.
+ *
+ * @param out buffer of at least LORIE_MESSAGE_MAX bytes.
+ * @return number of bytes written.
+ */
+static inline size_t lorieEventEncode(const lorieEvent* e, uint8_t version, uint8_t* out) {
+    uint8_t* p = out + 2;
+    if (!version) {
+        memcpy(out, e, LORIE_EVENT_V0_SIZE);
+        return LORIE_EVENT_V0_SIZE;
+    }
+
+    switch (e->type) {
+        case EVENT_SCREEN_SIZE: {
+            uint32_t nameSize = e->screenSize.name_size;
+            loriePut(p, e->screenSize.width), loriePut(p, e->screenSize.height), loriePut(p, e->screenSize.framerate), loriePut(p, nameSize);
+            break;
+        }
+        case EVENT_REMOVE_BUFFER: {
+            uint64_t id = e->removeBuffer.id;
+            loriePut(p, id);
+            break;
+        }
+        case EVENT_TOUCH: {
+            uint8_t type = e->touch.type, id = e->touch.id;
+            loriePut(p, e->time), loriePut(p, type), loriePut(p, id), loriePut(p, e->touch.x), loriePut(p, e->touch.y);
+            break;
+        }
+        case EVENT_MOUSE: {
+            uint8_t flags = (e->mouse.down ? 1 : 0) | (e->mouse.relative ? 2 : 0);
+            loriePut(p, e->time), loriePut(p, e->mouse.x), loriePut(p, e->mouse.y), loriePut(p, e->mouse.detail), loriePut(p, flags);
+            break;
+        }
+        case EVENT_KEY:
+            loriePut(p, e->time), loriePut(p, e->key.key), loriePut(p, e->key.state);
+            break;
+        case EVENT_STYLUS: {
+            uint8_t flags = (e->stylus.eraser ? 1 : 0) | (e->stylus.mouse ? 2 : 0);
+            loriePut(p, e->time), loriePut(p, e->stylus.x), loriePut(p, e->stylus.y), loriePut(p, e->stylus.pressure),
+                    loriePut(p, e->stylus.tilt_x), loriePut(p, e->stylus.tilt_y), loriePut(p, e->stylus.orientation),
+                    loriePut(p, e->stylus.buttons), loriePut(p, flags);
+            break;
+        }
+        case EVENT_STYLUS_ENABLE:
+            loriePut(p, e->stylusEnable.enable);
+            break;
+        case EVENT_UNICODE:
+            loriePut(p, e->unicode.code);
+            break;
+        case EVENT_TEXT:
+            loriePut(p, e->time), loriePut(p, e->text.length), loriePut(p, e->text.ringHead);
+            break;
+        case EVENT_CLIPBOARD_ENABLE:
+            loriePut(p, e->clipboardEnable.enable);
+            break;
+        case EVENT_CLIPBOARD_SEND:
+            loriePut(p, e->clipboardSend.count);
+            break;
+        case EVENT_PROTOCOL:
+            loriePut(p, e->protocol.version), loriePut(p, e->protocol.max);
+            break;
+        case EVENT_GESTURE:
+            loriePut(p, e->time), loriePut(p, e->gesture.kind), loriePut(p, e->gesture.phase), loriePut(p, e->gesture.fingers),
+                    loriePut(p, e->gesture.dx), loriePut(p, e->gesture.dy), loriePut(p, e->gesture.scale), loriePut(p, e->gesture.angle);
+            break;
+        case EVENT_RING_SYNC:
+            loriePut(p, e->ringSync.ringHead);
+            break;
+    }
+
+    out[0] = e->type;
+    out[1] = p - out - 2;
+    return p - out;
+}
+
+/**
+ * Decodes message framed with version 1.
+ * Fields unknown to this side (appended by newer versions) are skipped, messages of unknown types
+ * are decoded with type only, so they are ignored.
+ *
+ * @param type type byte of the message.
+ * @param data `length` bytes following the length byte.
+ * @return false if message is shorter than its type requires.
+ */
+static inline bool lorieEventDecode(uint8_t type, const uint8_t* data, uint8_t length, lorieEvent* e) {
+    const uint8_t* p = data;
+    size_t need = 0;
+    memset(e, 0, sizeof(*e));
+    e->type = type;
+
+    switch (type) {
+        case EVENT_SCREEN_SIZE: need = 10; break;
+        case EVENT_REMOVE_BUFFER: need = 8; break;
+        case EVENT_TOUCH: need = 14; break;
+        case EVENT_MOUSE: need = 18; break;
+        case EVENT_KEY: need = 11; break;
+        case EVENT_STYLUS: need = 24; break;
+        case EVENT_STYLUS_ENABLE: case EVENT_CLIPBOARD_ENABLE: need = 1; break;
+        case EVENT_TEXT: need = 16; break;
+        case EVENT_UNICODE: case EVENT_CLIPBOARD_SEND: case EVENT_RING_SYNC: need = 4; break;
+        case EVENT_PROTOCOL: need = 2; break;
+        case EVENT_GESTURE: need = 27; break;
+    }
+
+    if (length < need)
+        return false;
+
+    switch (type) {
+        case EVENT_SCREEN_SIZE: {
+            uint32_t nameSize;
+            lorieGet(p, e->screenSize.width), lorieGet(p, e->screenSize.height), lorieGet(p, e->screenSize.framerate), lorieGet(p, nameSize);
+            e->screenSize.name_size = nameSize;
+            break;
+        }
+        case EVENT_REMOVE_BUFFER: {
+            uint64_t id;
+            lorieGet(p, id);
+            e->removeBuffer.id = id;
+            break;
+        }
+        case EVENT_TOUCH: {
+            uint8_t touchType, id;
+            lorieGet(p, e->time), lorieGet(p, touchType), lorieGet(p, id), lorieGet(p, e->touch.x), lorieGet(p, e->touch.y);
+            e->touch.type = touchType, e->touch.id = id;
+            break;
+        }
+        case EVENT_MOUSE: {
+            uint8_t flags;
+            lorieGet(p, e->time), lorieGet(p, e->mouse.x), lorieGet(p, e->mouse.y), lorieGet(p, e->mouse.detail), lorieGet(p, flags);
+            e->mouse.down = flags & 1, e->mouse.relative = (flags >> 1) & 1;
+            break;
+        }
+        case EVENT_KEY:
+            lorieGet(p, e->time), lorieGet(p, e->key.key), lorieGet(p, e->key.state);
+            break;
+        case EVENT_STYLUS: {
+            uint8_t flags;
+            lorieGet(p, e->time), lorieGet(p, e->stylus.x), lorieGet(p, e->stylus.y), lorieGet(p, e->stylus.pressure),
+                    lorieGet(p, e->stylus.tilt_x), lorieGet(p, e->stylus.tilt_y), lorieGet(p, e->stylus.orientation),
+                    lorieGet(p, e->stylus.buttons), lorieGet(p, flags);
+            e->stylus.eraser = flags & 1, e->stylus.mouse = (flags >> 1) & 1;
+            break;
+        }
+        case EVENT_STYLUS_ENABLE:
+            lorieGet(p, e->stylusEnable.enable);
+            break;
+        case EVENT_UNICODE:
+            lorieGet(p, e->unicode.code);
+            break;
+        case EVENT_TEXT:
+            lorieGet(p, e->time), lorieGet(p, e->text.length), lorieGet(p, e->text.ringHead);
+            break;
+        case EVENT_CLIPBOARD_ENABLE:
+            lorieGet(p, e->clipboardEnable.enable);
+            break;
+        case EVENT_CLIPBOARD_SEND:
+            lorieGet(p, e->clipboardSend.count);
+            break;
+        case EVENT_PROTOCOL:
+            lorieGet(p, e->protocol.version), lorieGet(p, e->protocol.max);
+            break;
+        case EVENT_GESTURE:
+            lorieGet(p, e->time), lorieGet(p, e->gesture.kind), lorieGet(p, e->gesture.phase), lorieGet(p, e->gesture.fingers),
+                    lorieGet(p, e->gesture.dx), lorieGet(p, e->gesture.dy), lorieGet(p, e->gesture.scale), lorieGet(p, e->gesture.angle);
+            break;
+        case EVENT_RING_SYNC:
+            lorieGet(p, e->ringSync.ringHead);
+            break;
+    }
+
+    return true;
+}
+
+#undef loriePut
+#undef lorieGet
+
+// Returns next codepoint of UTF-8 string or -1 if the sequence is malformed.
+static inline long lorieNextCodepoint(const uint8_t* str, size_t length, size_t* position) {
+    uint8_t c = str[(*position)++];
+    int extra = c < 0x80 ? 0 : (c & 0xE0) == 0xC0 ? 1 : (c & 0xF0) == 0xE0 ? 2 : (c & 0xF8) == 0xF0 ? 3 : -1;
+    long code;
+    if (extra < 0)
+        return -1;
+
+    code = extra ? c & (0x3F >> extra) : c;
+
+    while (extra--) {
+        if (*position >= length || (str[*position] & 0xC0) != 0x80)
+            return -1;
+        code = (code << 6) | (str[(*position)++] & 0x3F);
+    }
+
+    return code;
+}
+
+static inline bool lorieReadFully(int fd, void* data, size_t size) {
+    for (size_t got = 0; got < size;) {
+        ssize_t ret = read(fd, (uint8_t*) data + got, size - got);
+        if (ret < 0 && errno == EINTR)
+            continue;
+        if (ret <= 0)
+            return false;
+        got += ret;
+    }
+    return true;
+}
+
+// Number of bytes following the message in the stream.
+static inline size_t lorieEventPayloadSize(const lorieEvent* e) {
+    switch (e->type) {
+        case EVENT_SCREEN_SIZE: return e->screenSize.name_size;
+        case EVENT_TEXT: return e->text.length;
+        case EVENT_CLIPBOARD_SEND: return e->clipboardSend.count;
+        default: return 0;
+    }
+}
+
+// Messages followed by file descriptors or buffer handles, whatever follows them must be read from socket directly.
+static inline bool lorieEventCarriesFds(uint8_t type) {
+    return type == EVENT_SHARED_SERVER_STATE || type == EVENT_ADD_BUFFER || type == EVENT_INPUT_RING;
+}
+
+/**
+ * Parses one message framed with the given version from the start of data, payload is not parsed.
+ * Malformed messages are returned as EVENT_UNKNOWN.
+ *
+ * @return size of message or 0 if data does not contain the whole message yet.
+ */
+static inline size_t lorieEventParse(const uint8_t* data, size_t size, uint8_t version, lorieEvent* e) {
+    if (!version) {
+        if (size < LORIE_EVENT_V0_SIZE)
+            return 0;
+        memset(e, 0, sizeof(*e));
+        memcpy(e, data, LORIE_EVENT_V0_SIZE);
+        return LORIE_EVENT_V0_SIZE;
+    }
+
+    if (size < 2 || size < 2u + data[1])
+        return 0;
+    if (!lorieEventDecode(data[0], data + 2, data[1], e))
+        e->type = EVENT_UNKNOWN;
+    return 2u + data[1];
+}
+
+#define LORIE_RECEIVE_BUFFER_SIZE 65536
+
+/*
+ * Receive buffer of conn_fd. Every wakeup reads as much as fits the buffer with a single syscall
+ * and parses every complete message in it, the incomplete tail is kept for the next wakeup.
+ * Payload which is not received completely is collected to a separate allocation, so it may be
+ * larger than the buffer.
+ */
+struct lorie_receiver {
+    size_t start, end; // Bytes not parsed yet.
+    lorieEvent pending; // Message which payload is being collected.
+    uint8_t* payload;
+    size_t payloadSize, payloadUsed;
+    bool collecting;
+    uint8_t data[LORIE_RECEIVE_BUFFER_SIZE];
+};
+
+// Called for every complete message, payload is valid only during the call.
+typedef void (*lorieMessageHandler)(lorieEvent* e, const uint8_t* payload, void* data);
+
+// Drops everything received so far, must be called when a new connection starts.
+static inline void lorieReceiverReset(struct lorie_receiver* r) {
+    free(r->payload);
+    r->payload = NULL;
+    r->collecting = false;
+    r->start = r->end = 0;
+}
+
+/**
+ * Receives whatever is available in socket and passes every complete message to handler.
+ * Messages are parsed with protocol->in, so handler of EVENT_PROTOCOL switches framing of messages after it.
+ *
+ * Socket reads discard file descriptors, so a side which receives them must use peek mode:
+ * data is peeked and only bytes of parsed messages are consumed. Parsing stops at a message
+ * carrying file descriptors, it is consumed and its handler is called with the socket positioned
+ * right after it. Bytes peeked after it are left in socket for the next call.
+ *
+ * @return number of bytes received, 0 if there was nothing to receive, -1 if connection was closed or failed.
+ */
+static inline ssize_t lorieReceive(struct lorie_receiver* r, int fd, const struct lorie_protocol* protocol, bool peek, lorieMessageHandler handler, void* data) {
+    size_t from;
+    ssize_t got;
+
+    // Only an incomplete message (at most LORIE_MESSAGE_MAX bytes) is left from the previous call.
+    if (r->start) {
+        memmove(r->data, r->data + r->start, r->end - r->start);
+        r->end -= r->start;
+        r->start = 0;
+    }
+
+    from = r->end;
+    do got = recv(fd, r->data + r->end, sizeof(r->data) - r->end, MSG_DONTWAIT | (peek ? MSG_PEEK : 0));
+    while (got < 0 && errno == EINTR);
+    if (got < 0 && (errno == EAGAIN || errno == EWOULDBLOCK))
+        return 0;
+    if (got <= 0)
+        return -1;
+    r->end += got;
+
+    while (r->start < r->end) {
+        lorieEvent e;
+        size_t size, payload, available = r->end - r->start;
+
+        if (r->collecting) {
+            size = r->payloadSize - r->payloadUsed < available ? r->payloadSize - r->payloadUsed : available;
+            if (r->payload)
+                memcpy(r->payload + r->payloadUsed, r->data + r->start, size);
+            r->payloadUsed += size;
+            r->start += size;
+            if (r->payloadUsed == r->payloadSize) {
+                r->collecting = false;
+                // Payload which could not be allocated is skipped, handler gets NULL.
+                handler(&r->pending, r->payload, data);
+                free(r->payload);
+                r->payload = NULL;
+            }
+            continue;
+        }
+
+        if (!(size = lorieEventParse(r->data + r->start, available, protocol->in, &e)))
+            break;
+
+        if (peek && lorieEventCarriesFds(e.type)) {
+            // Peeked bytes are consumed into the place they were peeked to.
+            r->start += size;
+            if (!lorieReadFully(fd, r->data + from, r->start - from))
+                return -1;
+            r->start = r->end = 0;
+            handler(&e, NULL, data);
+            return got;
+        }
+
+        payload = lorieEventPayloadSize(&e);
+        if (available - size >= payload) {
+            r->start += size + payload;
+            handler(&e, payload ? r->data + r->start - payload : NULL, data);
+            continue;
+        }
+
+        r->start += size;
+        r->pending = e;
+        r->payload = malloc(payload);
+        r->payloadSize = payload;
+        r->payloadUsed = 0;
+        r->collecting = true;
+    }
+
+    if (peek && !lorieReadFully(fd, r->data + from, r->end - from))
+        return -1;
+    return got;
+}
@@ -0,0 +1,145 @@
+#pragma once
+#include <stdatomic.h>
+#include <stddef.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <string.h>
+#include <time.h>
+
+/*
+ * Input latency instrumentation.
+ * Every input event carries the CLOCK_MONOTONIC time of the Android event it was produced from.
+ * Activity, X server and renderer compare it with current time at different stages and put the
+ * difference into fixed-bucket histograms living in the shared server state, so recording is
+ * a couple of relaxed atomic increments, it does not allocate and does not take locks.
+ *
+ * Stages are:
+ *   send    -- event was passed to the socket (or input ring) by activity,
+ *   queue   -- event was queued to X server's event queue,
+ *   present -- the first frame requested after X server processed the event was submitted by renderer.
+ *
+ * This header must not depend on Android or X server headers, it is used by host tools too.
+ */
+
+enum {
+    LORIE_LATENCY_TOUCH,
+    LORIE_LATENCY_STYLUS,
+    LORIE_LATENCY_MOUSE,
+    LORIE_LATENCY_KEY,
+    LORIE_LATENCY_TYPES,
+};
+
+enum {
+    LORIE_LATENCY_SEND,
+    LORIE_LATENCY_QUEUE,
+    LORIE_LATENCY_PRESENT,
+    LORIE_LATENCY_STAGES,
+};
+
+// Buckets are log-linear: values below 8 microseconds have their own buckets,
+// every next power of 2 is split into 8 buckets, so the error is less than 12.5%.
+// The last bucket (~3.9 seconds) collects everything that is slower.
+#define LORIE_LATENCY_SUB_BUCKET_BITS 3
+#define LORIE_LATENCY_BUCKETS 160
+
+// Input that was not followed by a frame during this time is not counted as presented.
+#define LORIE_LATENCY_PRESENT_TIMEOUT 1000000000ULL
+
+struct lorie_latency_stats {
+    _Atomic uint32_t buckets[LORIE_LATENCY_STAGES][LORIE_LATENCY_TYPES][LORIE_LATENCY_BUCKETS];
+
+    // Time of the oldest input event processed before X server requested a frame,
+    // renderer takes it after it submits that frame. 0 if there is nothing to measure.
+    _Atomic uint64_t pending[LORIE_LATENCY_TYPES];
+};
+
+static inline uint64_t lorieLatencyNow(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+static inline uint32_t lorieLatencyBucket(uint64_t us) {
+    uint32_t exp, bucket;
+    if (us < (1 << LORIE_LATENCY_SUB_BUCKET_BITS))
+        return us;
+
+    exp = 63 - __builtin_clzll(us);
+    bucket = ((exp - LORIE_LATENCY_SUB_BUCKET_BITS + 1) << LORIE_LATENCY_SUB_BUCKET_BITS)
+            | ((us >> (exp - LORIE_LATENCY_SUB_BUCKET_BITS)) & ((1 << LORIE_LATENCY_SUB_BUCKET_BITS) - 1));
+    return bucket < LORIE_LATENCY_BUCKETS ? bucket : LORIE_LATENCY_BUCKETS - 1;
+}
+
+// The lowest value (in microseconds) which goes to the given bucket.
+static inline uint64_t lorieLatencyBucketStart(uint32_t bucket) {
+    uint32_t sub = bucket & ((1 << LORIE_LATENCY_SUB_BUCKET_BITS) - 1);
+    if (bucket < (1 << LORIE_LATENCY_SUB_BUCKET_BITS))
+        return bucket;
+
+    return (uint64_t) ((1 << LORIE_LATENCY_SUB_BUCKET_BITS) | sub) << ((bucket >> LORIE_LATENCY_SUB_BUCKET_BITS) - 1);
+}
+
+/**
+ * Records latency of event with given time.
+ *
+ * @param stats statistics to be updated, may be NULL.
+ * @param stage one of LORIE_LATENCY_SEND, LORIE_LATENCY_QUEUE, LORIE_LATENCY_PRESENT.
+ * @param type one of LORIE_LATENCY_TOUCH, LORIE_LATENCY_STYLUS, LORIE_LATENCY_MOUSE, LORIE_LATENCY_KEY.
+ * @param time CLOCK_MONOTONIC time of event in nanoseconds, events with no time are ignored.
+ * @param now current CLOCK_MONOTONIC time in nanoseconds.
+ */
+static inline __attribute__((always_inline)) void lorieLatencyRecord(struct lorie_latency_stats* stats, int stage, int type, uint64_t time, uint64_t now) {
+    if (!stats || !time || now < time)
+        return;
+
+    atomic_fetch_add_explicit(&stats->buckets[stage][type][lorieLatencyBucket((now - time) / 1000)], 1, memory_order_relaxed);
+}
+
+/**
+ * Records latency of events X server was waiting for to be presented. Must be called by renderer after frame is submitted.
+ */
+static inline void lorieLatencyFramePresented(struct lorie_latency_stats* stats, uint64_t now) {
+    for (int type = 0; type < LORIE_LATENCY_TYPES; type++)
+        if (atomic_load_explicit(&stats->pending[type], memory_order_relaxed))
+            lorieLatencyRecord(stats, LORIE_LATENCY_PRESENT, type, atomic_exchange_explicit(&stats->pending[type], 0, memory_order_relaxed), now);
+}
+
+/**
+ * Writes a table with count and p50/p95/p99 of every stage and event type having samples.
+ * Percentiles are upper bounds of the buckets they fall into, in milliseconds.
+ *
+ * @return number of bytes written (not counting terminating null byte).
+ */
+static inline size_t lorieLatencyFormat(struct lorie_latency_stats* stats, char* out, size_t size) {
+    static const char* types[] = { "touch", "stylus", "mouse", "key" };
+    static const char* stages[] = { "send", "queue", "present" };
+    static const int percents[] = { 50, 95, 99 };
+    uint32_t snapshot[LORIE_LATENCY_BUCKETS];
+    size_t used = 0;
+
+#define lorieLatencyPrintf(...) used += snprintf(out + used, used < size ? size - used : 0, __VA_ARGS__)
+    if (size)
+        out[0] = 0;
+    lorieLatencyPrintf("%-8s%-9s%10s%10s%10s%10s\n", "type", "stage", "count", "p50 ms", "p95 ms", "p99 ms");
+    for (int type = 0; type < LORIE_LATENCY_TYPES; type++) {
+        for (int stage = 0; stage < LORIE_LATENCY_STAGES; stage++) {
+            uint64_t count = 0, seen = 0;
+            uint32_t bucket = 0;
+            for (int i = 0; i < LORIE_LATENCY_BUCKETS; i++)
+                count += snapshot[i] = atomic_load_explicit(&stats->buckets[stage][type][i], memory_order_relaxed);
+            if (!count)
+                continue;
+
+            lorieLatencyPrintf("%-8s%-9s%10llu", types[type], stages[stage], (unsigned long long) count);
+            for (size_t i = 0; i < sizeof(percents) / sizeof(percents[0]); i++) {
+                while (bucket < LORIE_LATENCY_BUCKETS - 1 && (seen + snapshot[bucket]) * 100 < count * percents[i])
+                    seen += snapshot[bucket++];
+                lorieLatencyPrintf("%10.2f", (float) lorieLatencyBucketStart(bucket + 1) / 1000.f);
+            }
+            lorieLatencyPrintf("\n");
+        }
+    }
+#undef lorieLatencyPrintf
+
+    return used < size ? used : (size ? size - 1 : 0);
+}
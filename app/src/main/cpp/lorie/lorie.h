@@ -14,9 +14,9 @@
 #include <sys/socket.h>
 #include "linux/input-event-codes.h"
 #include "buffer.h"
-
-#define PORT 7892
-#define MAGIC "0xDEADBEEF"
+#include "ring.h"
+#include "latency.h"
+#include "events.h"
 
 struct lorie_shared_server_state;
 
@@ -32,6 +32,9 @@ void lorieWakeServer(void);
 void lorieChoreographerFrameCallback(__unused long t, AChoreographer* d);
 void lorieActivityConnected(void);
 void lorieSendSharedServerState(int memfd);
+void lorieSetInputRingEnabled(Bool enabled);
+void lorieLatencyQueued(int type, uint64_t time);
+void lorieLatencyInputProcessed(void);
 void lorieRegisterBuffer(LorieBuffer* buffer);
 void lorieUnregisterBuffer(LorieBuffer* buffer);
 bool lorieConnectionAlive(void);
@@ -43,6 +46,7 @@ __unused void rendererSetSharedState(struct lorie_shared_server_state* newState)
 __unused void rendererAddBuffer(LorieBuffer* buf);
 __unused void rendererRemoveBuffer(uint64_t id);
 __unused void rendererRemoveAllBuffers(void);
+__unused void rendererSetViewport(float zoom, float x, float y);
 
 static inline __always_inline void lorie_mutex_lock(pthread_mutex_t* mutex, pid_t* lockingPid) {
     // Unfortunately there is no robust mutexes in bionic.
@@ -86,76 +90,6 @@ static inline __always_inline void lorie_mutex_unlock(pthread_mutex_t* mutex, pi
     pthread_mutex_unlock(mutex);
 }
 
-typedef enum {
-    EVENT_UNKNOWN __unused = 0,
-    EVENT_SHARED_SERVER_STATE,
-    EVENT_ADD_BUFFER,
-    EVENT_REMOVE_BUFFER,
-    EVENT_SCREEN_SIZE,
-    EVENT_TOUCH,
-    EVENT_MOUSE,
-    EVENT_KEY,
-    EVENT_STYLUS,
-    EVENT_STYLUS_ENABLE,
-    EVENT_UNICODE,
-    EVENT_CLIPBOARD_ENABLE,
-    EVENT_CLIPBOARD_ANNOUNCE,
-    EVENT_CLIPBOARD_REQUEST,
-    EVENT_CLIPBOARD_SEND,
-    EVENT_WINDOW_FOCUS_CHANGED,
-} eventType;
-
-typedef union {
-    uint8_t type;
-    struct {
-        uint8_t t;
-        uint16_t width, height, framerate;
-        size_t name_size;
-        char *name;
-    } screenSize;
-    struct {
-        uint8_t t;
-        unsigned long id;
-    } removeBuffer;
-    struct {
-        uint8_t t;
-        uint16_t type, id, x, y;
-    } touch;
-    struct {
-        uint8_t t;
-        float x, y;
-        uint8_t detail, down, relative;
-    } mouse;
-    struct {
-        uint8_t t;
-        uint16_t key;
-        uint8_t state;
-    } key;
-    struct {
-        uint8_t t;
-        float x, y;
-        uint16_t pressure;
-        int8_t tilt_x, tilt_y;
-        int16_t orientation;
-        uint8_t buttons, eraser, mouse;
-    } stylus;
-    struct {
-        uint8_t t, enable;
-    } stylusEnable;
-    struct {
-        uint8_t t;
-        uint32_t code;
-    } unicode;
-    struct {
-        uint8_t t;
-        uint8_t enable;
-    } clipboardEnable;
-    struct {
-        uint8_t t;
-        uint32_t count;
-    } clipboardSend;
-} lorieEvent;
-
 struct lorie_shared_server_state {
     /*
      * Renderer and X server are separated into 2 different processes.
@@ -209,6 +143,9 @@ struct lorie_shared_server_state {
         // Signals to renderer to update cursor's texture or its coordinates
         volatile uint8_t updated, moved;
     } cursor;
+
+    /* Input latency histograms, written by all processes, see latency.h */
+    struct lorie_latency_stats latency;
 };
 
 static int android_to_linux_keycode[304] = {
@@ -88,13 +88,15 @@ static void checkGlError(int line) {
 
 #define checkGlError() checkGlError(__LINE__)
 
+// Viewport transform is applied here, so zooming and panning costs one uniform update and no X screen resize.
 static const char vertexShaderSrc[] =
     "attribute vec4 position;\n"
     "attribute vec2 texCoords;"
+    "uniform vec4 transform;\n" // scale in xy, offset in zw
     "varying vec2 outTexCoords;\n"
     "void main(void) {\n"
     "   outTexCoords = texCoords;\n"
-    "   gl_Position = position;\n"
+    "   gl_Position = vec4(position.xy * transform.xy + transform.zw, 0.0, 1.0);\n"
     "}\n";
 
 #define FRAGMENT_SHADER(texture) \
@@ -116,7 +118,7 @@ static ANativeWindow *defaultWin = NULL, *win = NULL;
 static volatile struct xorg_list addedBuffers, buffers, removedBuffers;
 
 static JNIEnv* renderEnv = NULL;
-static volatile bool stateChanged = false, windowChanged = false;
+static volatile bool stateChanged = false, windowChanged = false, viewportChanged = false;
 static volatile struct lorie_shared_server_state* pendingState = NULL;
 static volatile ANativeWindow* pendingWin = NULL;
 
@@ -130,8 +132,14 @@ static struct {
     bool cursorChanged;
 } cursor;
 
+// Transform of the quad in normalized device coordinates, pending one is protected by stateLock.
+static struct {
+    float scaleX, scaleY, x, y;
+} viewport = { 1.f, 1.f, 0.f, 0.f }, pendingViewport = { 1.f, 1.f, 0.f, 0.f };
+
 GLuint g_texture_program = 0, gv_pos = 0, gv_coords = 0;
 GLuint g_texture_program_bgra = 0, gv_pos_bgra = 0, gv_coords_bgra = 0;
+GLint gu_transform = -1, gu_transform_bgra = -1;
 
 static void* rendererThread(void);
 
@@ -232,6 +240,9 @@ int rendererInitThread(JavaVM *vm) {
     gv_pos_bgra = (GLuint) glGetAttribLocation(g_texture_program_bgra, "position");
     gv_coords_bgra = (GLuint) glGetAttribLocation(g_texture_program_bgra, "texCoords");
 
+    gu_transform = glGetUniformLocation(g_texture_program, "transform");
+    gu_transform_bgra = glGetUniformLocation(g_texture_program_bgra, "transform");
+
     glActiveTexture(GL_TEXTURE0);
     glGenTextures(1, &cursor.id);
 
@@ -380,6 +391,18 @@ __unused void rendererSetSharedState(struct lorie_shared_server_state* newState)
     pthread_mutex_unlock(&stateLock);
 }
 
+void rendererSetViewport(float zoom, float x, float y) {
+    // x and y are position of the top left corner of the viewport as fractions of the image size.
+    // The image point at that position should land at the top left corner of the surface.
+    pthread_mutex_lock(&stateLock);
+    pendingViewport.scaleX = pendingViewport.scaleY = zoom;
+    pendingViewport.x = zoom - 1.f - 2.f * zoom * x;
+    pendingViewport.y = 1.f - zoom + 2.f * zoom * y;
+    viewportChanged = true;
+    pthread_cond_signal(&stateCond);
+    pthread_mutex_unlock(&stateLock);
+}
+
 void rendererAddBuffer(LorieBuffer* buf) {
     pthread_spin_lock(&bufferLock);
     LorieBuffer_addToList(buf, &addedBuffers);
@@ -563,6 +586,8 @@ void rendererRedrawLocked(bool* waitingForBuffers) {
 
     if (eglSwapBuffers(egl_display, sfc) != EGL_TRUE)
         printEglError("Failed to swap buffers", __LINE__);
+    else
+        lorieLatencyFramePresented(&state->latency, lorieLatencyNow());
 
     // Perform a little drawing operation to make sure the next buffer is ready on the next invocation of drawing
     glEnable(GL_SCISSOR_TEST);
@@ -583,7 +608,7 @@ static inline __always_inline bool rendererShouldWait(bool *waitingForBuffers) {
     pthread_spin_lock(&bufferLock);
     buffersChanged = !xorg_list_is_empty(&addedBuffers) || !xorg_list_is_empty(&removedBuffers);
     pthread_spin_unlock(&bufferLock);
-    if (stateChanged || windowChanged || buffersChanged)
+    if (stateChanged || windowChanged || buffersChanged || viewportChanged)
         // If there are pending changes we should process them immediately.
         return false;
 
@@ -639,6 +664,14 @@ __noreturn static void* rendererThread(void) {
         if (windowChanged)
             rendererRefreshContext();
 
+        if (viewportChanged) {
+            viewport = pendingViewport;
+            viewportChanged = false;
+            // Image content did not change, but it should be drawn with the new transform.
+            if (state)
+                state->drawRequested = true;
+        }
+
         // Attach all pending buffers to GL.
         pthread_spin_lock(&bufferLock);
         while((buf = LorieBufferList_first(&addedBuffers))) {
@@ -729,6 +762,7 @@ static void draw(GLuint id, float x0, float y0, float x1, float y1, float xfacto
 
     glActiveTexture(GL_TEXTURE0);
     glUseProgram(flip ? g_texture_program_bgra : g_texture_program);
+    glUniform4f(flip ? gu_transform_bgra : gu_transform, viewport.scaleX, viewport.scaleY, viewport.x, viewport.y);
     if (id)
         glBindTexture(GL_TEXTURE_2D, id);
 
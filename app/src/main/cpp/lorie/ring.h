@@ -0,0 +1,130 @@
+#pragma once
+#include <stdatomic.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <string.h>
+
+/*
+ * Single producer single consumer ring of fixed-size records living in shared memory.
+ * Activity (producer) and X server (consumer) map the same memory fragment so input events
+ * can be passed without any syscalls. Consumer sleeps on eventfd, and producer writes it only
+ * in the case if consumer has drained the ring, so the only syscall left per burst of events is
+ * a single eventfd write.
+ *
+ * This header must not depend on Android or X server headers, it is used by host tools too.
+ */
+
+#define LORIE_RING_SLOTS 4096 // must be a power of 2
+#define LORIE_RING_SLOT_SIZE 32
+
+struct lorie_input_ring {
+    // Both indices grow monotonically and wrap around at UINT32_MAX, slot is index & (LORIE_RING_SLOTS - 1).
+    // They are placed in different cache lines to avoid false sharing between producer and consumer.
+    _Atomic uint32_t head; // written only by producer
+    uint8_t __pad0[64 - sizeof(uint32_t)];
+    _Atomic uint32_t tail; // written only by consumer
+    uint8_t __pad1[64 - sizeof(uint32_t)];
+    uint8_t slots[LORIE_RING_SLOTS][LORIE_RING_SLOT_SIZE];
+};
+
+enum {
+    LORIE_RING_FULL = -1,
+    LORIE_RING_PUSHED = 0,
+    LORIE_RING_PUSHED_WAKE = 1,
+};
+
+/**
+ * Appends record to the ring. Must be called only by one thread at a time.
+ *
+ * @param ring ring to be written.
+ * @param record data to be copied to the slot.
+ * @param size size of data, must not exceed LORIE_RING_SLOT_SIZE.
+ * @return LORIE_RING_FULL if record was not written,
+ *         LORIE_RING_PUSHED_WAKE if record was written and consumer must be woken up,
+ *         LORIE_RING_PUSHED otherwise.
+ */
+static inline __attribute__((always_inline)) int lorieRingPush(struct lorie_input_ring* ring, const void* record, size_t size) {
+    uint32_t head = atomic_load_explicit(&ring->head, memory_order_relaxed);
+    if (size > LORIE_RING_SLOT_SIZE || head - atomic_load_explicit(&ring->tail, memory_order_acquire) >= LORIE_RING_SLOTS)
+        return LORIE_RING_FULL;
+
+    memcpy(ring->slots[head & (LORIE_RING_SLOTS - 1)], record, size);
+    atomic_store_explicit(&ring->head, head + 1, memory_order_seq_cst);
+
+    // Consumer publishes tail and rechecks head before going to sleep (see lorieRingDrain),
+    // so if it did not see our record the tail we read here equals to our previous head.
+    return atomic_load_explicit(&ring->tail, memory_order_seq_cst) == head ? LORIE_RING_PUSHED_WAKE : LORIE_RING_PUSHED;
+}
+
+/**
+ * Passes all available records to the handler. Must be called only by one thread at a time.
+ * Consumer is expected to clear the wakeup eventfd before calling this function.
+ *
+ * @param ring ring to be read.
+ * @param handler function to be called for every record, in the order they were pushed.
+ * @param data argument to be passed to handler.
+ * @return number of processed records.
+ */
+static inline uint32_t lorieRingDrain(struct lorie_input_ring* ring, void (*handler)(const void* record, void* data), void* data) {
+    uint32_t tail = atomic_load_explicit(&ring->tail, memory_order_relaxed), head, count = 0;
+    while ((head = atomic_load_explicit(&ring->head, memory_order_seq_cst)) != tail) {
+        for (; tail != head; tail++, count++) {
+            handler(ring->slots[tail & (LORIE_RING_SLOTS - 1)], data);
+            atomic_store_explicit(&ring->tail, tail + 1, memory_order_release);
+        }
+        // Make our progress visible before checking head again. Producer reads tail after
+        // publishing head so at least one of us will notice the other.
+        atomic_store_explicit(&ring->tail, tail, memory_order_seq_cst);
+    }
+
+    return count;
+}
+
+/**
+ * Like lorieRingDrain, but calls `before` ahead of every batch of records. Producer sends messages
+ * through other channels before pushing records which follow them, and the batch is taken before
+ * `before` is called, so everything `before` sees precedes records of the batch.
+ * `before` may drain records itself with lorieRingDrainUntil.
+ *
+ * @param ring ring to be read.
+ * @param before function handling messages of other channels, called with data.
+ * @param handler function to be called for every record, in the order they were pushed.
+ * @param data argument to be passed to both functions.
+ * @return number of records processed by handler, not counting ones drained by `before`.
+ */
+static inline uint32_t lorieRingDrainAfter(struct lorie_input_ring* ring, void (*before)(void* data), void (*handler)(const void* record, void* data), void* data) {
+    uint32_t tail, head, count = 0;
+    while ((head = atomic_load_explicit(&ring->head, memory_order_seq_cst)) != (tail = atomic_load_explicit(&ring->tail, memory_order_relaxed))) {
+        before(data);
+        for (tail = atomic_load_explicit(&ring->tail, memory_order_relaxed); (int32_t) (head - tail) > 0; tail++, count++) {
+            handler(ring->slots[tail & (LORIE_RING_SLOTS - 1)], data);
+            atomic_store_explicit(&ring->tail, tail + 1, memory_order_release);
+        }
+        // See lorieRingDrain.
+        atomic_store_explicit(&ring->tail, tail, memory_order_seq_cst);
+    }
+
+    return count;
+}
+
+/**
+ * Passes records pushed before producer's head reached given value to the handler.
+ * Must be called only by one thread at a time, the same one which calls lorieRingDrain.
+ * Used to keep the order of records relatively to messages producer sends using other channels.
+ *
+ * @param ring ring to be read.
+ * @param head value of producer's head the records were pushed before.
+ * @param handler function to be called for every record, in the order they were pushed.
+ * @param data argument to be passed to handler.
+ * @return number of processed records.
+ */
+static inline uint32_t lorieRingDrainUntil(struct lorie_input_ring* ring, uint32_t head, void (*handler)(const void* record, void* data), void* data) {
+    uint32_t tail = atomic_load_explicit(&ring->tail, memory_order_relaxed), count = 0;
+    if ((int32_t) (atomic_load_explicit(&ring->head, memory_order_acquire) - head) >= 0) // do not trust values ahead of producer
+        for (; (int32_t) (head - tail) > 0; tail++, count++) {
+            handler(ring->slots[tail & (LORIE_RING_SLOTS - 1)], data);
+            atomic_store_explicit(&ring->tail, tail + 1, memory_order_release);
+        }
+
+    return count;
+}
@@ -0,0 +1,425 @@
+/*
+ * Headless stand-in for X server side of conn_fd.
+ * Does not depend on Android or X server, can be built and run on any Linux host:
+ *
+ *     cc -O2 -o lorie-sink app/src/main/cpp/lorie/tools/lorie-sink.c && ./lorie-sink [options]
+ *
+ * It receives messages the same way handleLorieEvents does (lorieReceive reads up to 64 KB per
+ * wakeup and parses every complete message, payload of EVENT_TEXT, EVENT_CLIPBOARD_SEND and
+ * EVENT_SCREEN_SIZE included) and reports throughput, ordering errors and latency of every event
+ * type, measured from the time stamped by activity.
+ *
+ *     -n count   number of events sent by the built-in producer (default 1000000)
+ *     -b batch   number of events the producer writes with a single writev(), like activity does
+ *                inside beginBatch/flushBatch (default 1, every event is written separately)
+ *     -r rate    events per second sent by the producer, 0 sends as fast as possible (default 0)
+ *     -p version protocol version used by the producer (default LORIE_PROTOCOL_VERSION), the sink
+ *                follows EVENT_PROTOCOL messages like X server does
+ *     -f fd      do not start producer, decode events from the given inherited fd until it is closed
+ *     -l         do not start producer, answer activity's TCP handshake on PORT and log clients
+ *
+ * The built-in producer runs in a separate process connected with socketpair, the same way
+ * activity and X server are connected by CmdEntryPoint.getXConnection(). It sends touch, mouse,
+ * key, stylus, text and clipboard messages and puts sequence number of every message into it,
+ * so the consumer can check that nothing is lost or reordered. Some clipboard messages are larger
+ * than the receive buffer, so reassembling payload across reads is checked too.
+ */
+#define _GNU_SOURCE
+#include <stdio.h>
+#include <stdarg.h>
+#include <stdlib.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <unistd.h>
+#include <poll.h>
+#include <time.h>
+#include <errno.h>
+#include <string.h>
+#include <signal.h>
+#include <arpa/inet.h>
+#include <netinet/in.h>
+#include <sys/socket.h>
+#include <sys/uio.h>
+#include <sys/wait.h>
+#include "../events.h"
+#include "../latency.h"
+
+#define PAYLOAD_MAX (LORIE_RECEIVE_BUFFER_SIZE + LORIE_RECEIVE_BUFFER_SIZE / 2)
+
+struct sink {
+    bool check; // events come from built-in producer and carry sequence numbers
+    int fd;
+    struct lorie_protocol protocol;
+    uint64_t seq, events, bytes, reads, wakeups, errors, lastTime;
+    uint64_t counts[EVENT_TEXT + 1];
+    struct lorie_latency_stats latency;
+    struct lorie_receiver receiver;
+    char expected[PAYLOAD_MAX];
+};
+
+static double now(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (double) ts.tv_sec + (double) ts.tv_nsec / 1e9;
+}
+
+static uint8_t seqType(uint64_t seq) {
+    // Mostly pointer events with a text message now and then and a rare clipboard update.
+    static const uint8_t types[] = { EVENT_TOUCH, EVENT_MOUSE, EVENT_TOUCH, EVENT_STYLUS, EVENT_TOUCH, EVENT_KEY, EVENT_STYLUS, EVENT_MOUSE };
+    if (seq % 1024 == 1023)
+        return EVENT_CLIPBOARD_SEND;
+    if (seq % 64 == 63)
+        return EVENT_TEXT;
+    return types[seq % (sizeof(types) / sizeof(types[0]))];
+}
+
+static uint32_t seqPayloadLength(uint64_t seq) {
+    if (seqType(seq) == EVENT_CLIPBOARD_SEND)
+        return seq % 16384 == 16383 ? PAYLOAD_MAX : 1 + seq % 4096;
+    return 1 + seq % 16;
+}
+
+static void fillPayload(char* data, uint32_t length, uint64_t seq) {
+    for (uint32_t i = 0; i < length; i++)
+        data[i] = (char) ('a' + (seq + i) % 26);
+}
+
+static void error(struct sink* s, const char* fmt, ...) __attribute__((format(printf, 2, 3)));
+static void error(struct sink* s, const char* fmt, ...) {
+    va_list args;
+    if (s->errors++ >= 10)
+        return;
+
+    va_start(args, fmt);
+    fprintf(stderr, "sink: event %llu: ", (unsigned long long) s->events);
+    vfprintf(stderr, fmt, args);
+    fprintf(stderr, "\n");
+    va_end(args);
+}
+
+static void checkPayload(struct sink* s, const uint8_t* payload, uint32_t length) {
+    if (length != seqPayloadLength(s->seq)) {
+        error(s, "expected %u bytes of payload, got %u", seqPayloadLength(s->seq), length);
+        return;
+    }
+
+    fillPayload(s->expected, length, s->seq);
+    if (!payload || memcmp(s->expected, payload, length))
+        error(s, "payload is corrupted");
+}
+
+static void handleEvent(struct sink* s, lorieEvent* e, const uint8_t* payload) {
+    int type = -1;
+    uint64_t time = 0, seq = 0;
+    uint32_t length = 0;
+
+    switch (e->type) {
+        case EVENT_TOUCH:
+            type = LORIE_LATENCY_TOUCH, time = e->time, seq = e->touch.x;
+            break;
+        case EVENT_MOUSE:
+            type = LORIE_LATENCY_MOUSE, time = e->time, seq = (uint16_t) e->mouse.x;
+            break;
+        case EVENT_KEY:
+            type = LORIE_LATENCY_KEY, time = e->time, seq = e->key.key;
+            break;
+        case EVENT_STYLUS:
+            type = e->stylus.mouse ? LORIE_LATENCY_MOUSE : LORIE_LATENCY_STYLUS, time = e->time, seq = e->stylus.pressure;
+            break;
+        case EVENT_TEXT:
+            type = LORIE_LATENCY_KEY, time = e->time, length = e->text.length;
+            break;
+        case EVENT_CLIPBOARD_SEND:
+            length = e->clipboardSend.count;
+            break;
+        case EVENT_SCREEN_SIZE:
+            length = e->screenSize.name_size;
+            break;
+        case EVENT_STYLUS_ENABLE:
+        case EVENT_CLIPBOARD_ENABLE:
+        case EVENT_CLIPBOARD_ANNOUNCE:
+        case EVENT_CLIPBOARD_REQUEST:
+        case EVENT_WINDOW_FOCUS_CHANGED:
+            break;
+        default:
+            error(s, "unknown event type %u", e->type);
+            return;
+    }
+
+    if (type != -1)
+        lorieLatencyRecord(&s->latency, LORIE_LATENCY_QUEUE, type, time, lorieLatencyNow());
+
+    if (time && time < s->lastTime)
+        error(s, "event time went back by %llu ns", (unsigned long long) (s->lastTime - time));
+    s->lastTime = time ?: s->lastTime;
+
+    if (s->check) {
+        if (e->type != seqType(s->seq))
+            error(s, "expected event of type %u, got %u", seqType(s->seq), e->type);
+        else if (length)
+            checkPayload(s, payload, length);
+        else if (seq != (uint16_t) s->seq)
+            error(s, "expected sequence number %u, got %llu", (uint16_t) s->seq, (unsigned long long) seq);
+        s->seq++;
+    }
+
+    if (e->type < sizeof(s->counts) / sizeof(s->counts[0]))
+        s->counts[e->type]++;
+    s->events++;
+}
+
+// Mirrors handleLorieProtocol: answers with the newest version both sides understand.
+static void handleProtocol(struct sink* s, int fd, lorieEvent* e) {
+    uint8_t message[LORIE_MESSAGE_MAX];
+    int version = lorieProtocolReceived(&s->protocol, e);
+    if (version >= 0) {
+        lorieEvent reply = { .protocol = { .t = EVENT_PROTOCOL, .version = version, .max = LORIE_PROTOCOL_VERSION } };
+        if (write(fd, message, lorieEventEncode(&reply, s->protocol.out, message)) < 0)
+            fprintf(stderr, "sink: failed to answer EVENT_PROTOCOL: %s\n", strerror(errno));
+        s->protocol.out = version;
+    }
+    printf("sink: producer uses protocol version %d\n", s->protocol.in);
+}
+
+static void handleMessage(lorieEvent* e, const uint8_t* payload, void* data) {
+    struct sink* s = data;
+    if (e->type == EVENT_PROTOCOL)
+        handleProtocol(s, s->fd, e);
+    else
+        handleEvent(s, e, payload);
+}
+
+// Mirrors handleLorieEvents: called when fd is readable, receives everything that fits the buffer with one read.
+static bool handleEvents(struct sink* s, int fd) {
+    ssize_t got = lorieReceive(&s->receiver, fd, &s->protocol, false, handleMessage, s);
+    s->wakeups++;
+    if (got > 0) {
+        s->reads++;
+        s->bytes += got;
+    }
+    return got >= 0;
+}
+
+static void report(struct sink* s, double elapsed) {
+    static const char* names[] = {
+        [EVENT_SCREEN_SIZE] = "screen size", [EVENT_TOUCH] = "touch", [EVENT_MOUSE] = "mouse",
+        [EVENT_KEY] = "key", [EVENT_STYLUS] = "stylus", [EVENT_STYLUS_ENABLE] = "stylus enable",
+        [EVENT_UNICODE] = "unicode", [EVENT_TEXT] = "text", [EVENT_CLIPBOARD_ENABLE] = "clipboard enable",
+        [EVENT_CLIPBOARD_ANNOUNCE] = "clipboard announce", [EVENT_CLIPBOARD_REQUEST] = "clipboard request",
+        [EVENT_CLIPBOARD_SEND] = "clipboard", [EVENT_WINDOW_FOCUS_CHANGED] = "focus change", [EVENT_GESTURE] = "gesture",
+        [EVENT_RING_SYNC] = "ring sync",
+    };
+    char latency[2048];
+
+    printf("sink: %llu events, %.1f MB in %.3f s (%.2f M events/s, %.1f MB/s)\n",
+           (unsigned long long) s->events, (double) s->bytes / 1e6, elapsed,
+           (double) s->events / elapsed / 1e6, (double) s->bytes / elapsed / 1e6);
+    printf("sink: %llu reads (%.2f per event), %llu wakeups (%.2f events per wakeup), %llu errors\n",
+           (unsigned long long) s->reads, (double) s->reads / (double) (s->events ?: 1),
+           (unsigned long long) s->wakeups, (double) s->events / (double) (s->wakeups ?: 1),
+           (unsigned long long) s->errors);
+    for (size_t i = 0; i < sizeof(names) / sizeof(names[0]); i++)
+        if (s->counts[i])
+            printf("    %-20s%10llu\n", names[i], (unsigned long long) s->counts[i]);
+
+    lorieLatencyFormat(&s->latency, latency, sizeof(latency));
+    printf("%s", latency);
+}
+
+static int sink(int fd, bool check, uint64_t count) {
+    struct sink* s = calloc(1, sizeof(*s));
+    struct pollfd p = { .fd = fd, .events = POLLIN };
+    double start = 0;
+    int ret;
+
+    s->check = check;
+    s->fd = fd;
+    while (!check || s->events < count) {
+        if (poll(&p, 1, -1) < 0) {
+            if (errno == EINTR)
+                continue;
+            fprintf(stderr, "sink: poll: %s\n", strerror(errno));
+            break;
+        }
+
+        if (!start)
+            start = now();
+        if (!handleEvents(s, fd))
+            break;
+    }
+
+    if (check && s->events != count)
+        error(s, "expected %llu events, got %llu", (unsigned long long) count, (unsigned long long) s->events);
+
+    report(s, now() - start);
+    ret = s->errors != 0;
+    free(s);
+    return ret;
+}
+
+// Writes events the way activity's sendData does, `batch` events per writev().
+// Producer does not wait for the answer to EVENT_PROTOCOL, as if sink has already offered the version.
+static int produce(int fd, uint64_t count, uint32_t batch, uint64_t rate, uint8_t version) {
+    struct iovec* iov = calloc(batch * 2, sizeof(*iov));
+    uint8_t (*messages)[LORIE_MESSAGE_MAX] = calloc(batch, sizeof(*messages));
+    lorieEvent protocol = { .protocol = { .t = EVENT_PROTOCOL, .version = version, .max = version } };
+    char* data = calloc(batch, PAYLOAD_MAX);
+    double start = now();
+    // EVENT_PROTOCOL itself is framed with version 0.
+    size_t size = lorieEventEncode(&protocol, 0, messages[0]);
+
+    if (version && write(fd, messages[0], size) != (ssize_t) size) {
+        fprintf(stderr, "producer: write: %s\n", strerror(errno));
+        return 1;
+    }
+
+    for (uint64_t seq = 0; seq < count;) {
+        int used = 0;
+        for (uint32_t i = 0; i < batch && seq < count; i++, seq++) {
+            uint16_t n = (uint16_t) seq;
+            uint64_t time = lorieLatencyNow();
+            lorieEvent event = {0}, *e = &event;
+            uint32_t length = 0;
+
+            switch (seqType(seq)) {
+                case EVENT_TOUCH:
+                    *e = (lorieEvent) { .touch = { .t = EVENT_TOUCH, .type = 19 /* XI_TouchUpdate */, .id = seq % 10, .x = n, .y = n }, .time = time };
+                    break;
+                case EVENT_MOUSE:
+                    *e = (lorieEvent) { .mouse = { .t = EVENT_MOUSE, .x = n, .y = n }, .time = time };
+                    break;
+                case EVENT_KEY:
+                    *e = (lorieEvent) { .key = { .t = EVENT_KEY, .key = n, .state = seq & 1 }, .time = time };
+                    break;
+                case EVENT_STYLUS:
+                    *e = (lorieEvent) { .stylus = { .t = EVENT_STYLUS, .x = n, .y = n, .pressure = n, .buttons = seq & 1 }, .time = time };
+                    break;
+                case EVENT_TEXT:
+                    length = seqPayloadLength(seq);
+                    *e = (lorieEvent) { .text = { .t = EVENT_TEXT, .length = length }, .time = time };
+                    break;
+                case EVENT_CLIPBOARD_SEND:
+                    length = seqPayloadLength(seq);
+                    *e = (lorieEvent) { .clipboardSend = { .t = EVENT_CLIPBOARD_SEND, .count = length } };
+                    break;
+            }
+
+            iov[used++] = (struct iovec) { .iov_base = messages[i], .iov_len = lorieEventEncode(e, version, messages[i]) };
+            if (length) {
+                fillPayload(data + i * PAYLOAD_MAX, length, seq);
+                iov[used++] = (struct iovec) { .iov_base = data + i * PAYLOAD_MAX, .iov_len = length };
+            }
+        }
+
+        for (int first = 0; first < used;) {
+            ssize_t written = writev(fd, iov + first, used - first);
+            if (written < 0 && errno == EINTR)
+                continue;
+            if (written <= 0) {
+                fprintf(stderr, "producer: writev: %s\n", strerror(errno));
+                return 1;
+            }
+            while (first < used && (size_t) written >= iov[first].iov_len)
+                written -= (ssize_t) iov[first++].iov_len;
+            if (first < used) {
+                iov[first].iov_base = (char*) iov[first].iov_base + written;
+                iov[first].iov_len -= written;
+            }
+        }
+
+        if (rate) {
+            double due = start + (double) seq / (double) rate, left = due - now();
+            if (left > 0)
+                nanosleep(&(struct timespec) { .tv_sec = (time_t) left, .tv_nsec = (long) ((left - (double) (time_t) left) * 1e9) }, NULL);
+        }
+    }
+
+    free(iov);
+    free(messages);
+    free(data);
+    return 0;
+}
+
+// Mirrors CmdEntryPoint.listenForConnections: activity connects to PORT and writes MAGIC when it wants conn_fd.
+static int listenForConnections(void) {
+    struct sockaddr_in address = { .sin_family = AF_INET, .sin_addr = { .s_addr = INADDR_ANY }, .sin_port = htons(PORT) };
+    socklen_t addrlen = sizeof(address);
+    uint8_t buffer[512];
+    int server, client;
+    ssize_t count;
+
+    if ((server = socket(AF_INET, SOCK_STREAM, 0)) < 0
+            || setsockopt(server, SOL_SOCKET, SO_REUSEADDR, &(int){1}, sizeof(int)) < 0
+            || bind(server, (struct sockaddr*) &address, sizeof(address)) < 0
+            || listen(server, 5) < 0) {
+        fprintf(stderr, "listen: failed to listen on port %d: %s\n", PORT, strerror(errno));
+        return 1;
+    }
+
+    setvbuf(stdout, NULL, _IOLBF, 0);
+    printf("listen: waiting for connections on port %d\n", PORT);
+    while (1) {
+        double start;
+        if ((client = accept(server, (struct sockaddr*) &address, &addrlen)) < 0) {
+            fprintf(stderr, "listen: accept: %s\n", strerror(errno));
+            continue;
+        }
+
+        start = now();
+        if ((count = read(client, buffer, sizeof(buffer))) > 0)
+            printf("listen: %s from %s in %.3f ms\n",
+                   !memcmp(buffer, MAGIC, (size_t) count < sizeof(MAGIC) ? (size_t) count : sizeof(MAGIC)) ? "handshake" : "garbage",
+                   inet_ntoa(address.sin_addr), (now() - start) * 1e3);
+        close(client);
+    }
+}
+
+int main(int argc, char** argv) {
+    uint64_t count = 1000000, rate = 0;
+    uint32_t batch = 1, version = LORIE_PROTOCOL_VERSION;
+    int opt, fd = -1, sv[2], status, ret;
+    pid_t pid;
+
+    while ((opt = getopt(argc, argv, "n:b:r:p:f:l")) != -1) {
+        switch (opt) {
+            case 'n': count = strtoull(optarg, NULL, 0); break;
+            case 'b': batch = strtoul(optarg, NULL, 0) ?: 1; break;
+            case 'r': rate = strtoull(optarg, NULL, 0); break;
+            case 'p': version = strtoul(optarg, NULL, 0); break;
+            case 'f': fd = (int) strtol(optarg, NULL, 0); break;
+            case 'l': return listenForConnections();
+            default:
+                fprintf(stderr, "usage: %s [-n count] [-b batch] [-r rate] [-p version] [-f fd] [-l]\n", argv[0]);
+                return 1;
+        }
+    }
+
+    if (fd != -1)
+        return sink(fd, false, 0);
+
+    signal(SIGPIPE, SIG_IGN);
+    if (socketpair(AF_UNIX, SOCK_STREAM, 0, sv) < 0) {
+        fprintf(stderr, "socketpair: %s\n", strerror(errno));
+        return 1;
+    }
+
+    switch (pid = fork()) {
+        case -1:
+            fprintf(stderr, "fork: %s\n", strerror(errno));
+            return 1;
+        case 0:
+            close(sv[1]);
+            return produce(sv[0], count, batch, rate, version > LORIE_PROTOCOL_VERSION ? LORIE_PROTOCOL_VERSION : version);
+    }
+
+    close(sv[0]);
+    ret = sink(sv[1], true, count);
+    close(sv[1]);
+    if (waitpid(pid, &status, 0) < 0 || !WIFEXITED(status) || WEXITSTATUS(status) || ret) {
+        printf("FAILED\n");
+        return 1;
+    }
+
+    printf("OK\n");
+    return 0;
+}
@@ -0,0 +1,127 @@
+/*
+ * Stress test for shared memory input ring (ring.h).
+ * Does not depend on Android, can be built and run on any Linux host:
+ *
+ *     cc -O2 -o ring-stress app/src/main/cpp/lorie/tools/ring-stress.c && ./ring-stress [events]
+ *
+ * Producer and consumer live in different processes sharing memfd-backed ring the same way
+ * activity and X server do. Consumer checks that every record arrives exactly once and in order.
+ */
+#define _GNU_SOURCE
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <unistd.h>
+#include <poll.h>
+#include <sched.h>
+#include <time.h>
+#include <errno.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <sys/wait.h>
+#include <sys/eventfd.h>
+#include "../ring.h"
+
+typedef struct {
+    uint8_t type;
+    uint64_t seq;
+} record;
+
+struct consumer {
+    uint64_t expected, errors;
+};
+
+static double now(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (double) ts.tv_sec + (double) ts.tv_nsec / 1e9;
+}
+
+static void consume(const void* data, void* cookie) {
+    struct consumer* c = cookie;
+    const record* r = data;
+    if (r->seq != c->expected && c->errors++ < 10)
+        fprintf(stderr, "consumer: expected record %llu but got %llu\n", (unsigned long long) c->expected, (unsigned long long) r->seq);
+    c->expected = r->seq + 1;
+}
+
+static int consumer(struct lorie_input_ring* ring, int eventFd, uint64_t count) {
+    struct consumer c = {0};
+    struct pollfd p = { .fd = eventFd, .events = POLLIN };
+    uint64_t wakeups = 0, drained = 0;
+
+    while (c.expected < count) {
+        eventfd_t dummy;
+        if (poll(&p, 1, 5000) <= 0) {
+            fprintf(stderr, "consumer: no wakeup in 5 seconds, got %llu of %llu records, lost wakeup?\n", (unsigned long long) c.expected, (unsigned long long) count);
+            return 1;
+        }
+
+        eventfd_read(eventFd, &dummy);
+        wakeups++;
+        drained += lorieRingDrain(ring, consume, &c);
+    }
+
+    printf("consumer: %llu records, %llu wakeups (%.2f records per wakeup), %llu ordering errors\n",
+           (unsigned long long) drained, (unsigned long long) wakeups, (double) drained / (double) wakeups, (unsigned long long) c.errors);
+    return c.errors || drained != count;
+}
+
+int main(int argc, char** argv) {
+    uint64_t count = argc > 1 ? strtoull(argv[1], NULL, 0) : 10000000, full = 0, wakes = 0;
+    int status, memfd = memfd_create("input-ring", MFD_CLOEXEC), eventFd = eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+    struct lorie_input_ring* ring;
+    double start;
+    pid_t pid;
+
+    if (memfd < 0 || eventFd < 0 || ftruncate(memfd, sizeof(*ring)) < 0) {
+        fprintf(stderr, "failed to create ring: %s\n", strerror(errno));
+        return 1;
+    }
+
+    ring = mmap(NULL, sizeof(*ring), PROT_READ|PROT_WRITE, MAP_SHARED, memfd, 0);
+    if (ring == MAP_FAILED) {
+        fprintf(stderr, "failed to map ring: %s\n", strerror(errno));
+        return 1;
+    }
+
+    // Start in the middle of index space to check wrapping around UINT32_MAX.
+    atomic_store(&ring->head, UINT32_MAX - LORIE_RING_SLOTS / 2);
+    atomic_store(&ring->tail, UINT32_MAX - LORIE_RING_SLOTS / 2);
+
+    switch (pid = fork()) {
+        case -1:
+            fprintf(stderr, "fork: %s\n", strerror(errno));
+            return 1;
+        case 0:
+            return consumer(ring, eventFd, count);
+    }
+
+    start = now();
+    for (uint64_t i = 0; i < count; i++) {
+        record r = { .type = 5 /* EVENT_TOUCH */, .seq = i };
+        int ret;
+        while ((ret = lorieRingPush(ring, &r, sizeof(r))) == LORIE_RING_FULL) {
+            full++;
+            sched_yield();
+        }
+
+        if (ret == LORIE_RING_PUSHED_WAKE) {
+            eventfd_write(eventFd, 1);
+            wakes++;
+        }
+    }
+
+    double elapsed = now() - start;
+    printf("producer: %llu records in %.3f s (%.1f M records/s, %.1f ns per record), %llu wakeups, %llu retries on full ring\n",
+           (unsigned long long) count, elapsed, (double) count / elapsed / 1e6, elapsed * 1e9 / (double) count,
+           (unsigned long long) wakes, (unsigned long long) full);
+
+    if (waitpid(pid, &status, 0) < 0 || !WIFEXITED(status) || WEXITSTATUS(status)) {
+        printf("FAILED\n");
+        return 1;
+    }
+
+    printf("OK\n");
+    return 0;
+}
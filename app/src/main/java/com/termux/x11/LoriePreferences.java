@@ -421,6 +421,22 @@ public class LoriePreferences extends AppCompatActivity implements PreferenceFra
                 }
             }
 
+            if ("inputLatency".contentEquals(p.getKey())) {
+                String stats = LorieView.getInputLatencyStats();
+                TextView view = new TextView(requireContext());
+                view.setTypeface(Typeface.MONOSPACE);
+                view.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+                view.setPadding(32, 32, 32, 0);
+                view.setText(stats != null ? stats : "X server is not connected or did not receive any input yet.");
+                new AlertDialog.Builder(requireContext())
+                        .setTitle(R.string.pref_inputLatency)
+                        .setView(view)
+                        .setNegativeButton("OK", null)
+                        .create()
+                        .show();
+                return true;
+            }
+
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU && "requestNotificationPermission".contentEquals(p.getKey())) {
                 ActivityCompat.requestPermissions(requireActivity(), new String[]{POST_NOTIFICATIONS}, 101);
                 return true;
@@ -547,6 +563,30 @@ public class LoriePreferences extends AppCompatActivity implements PreferenceFra
             try {
                 if (intent != null && intent.getExtras() != null) {
                     Prefs p = (MainActivity.getInstance() != null) ? new Prefs(MainActivity.getInstance()) : (prefs != null ? prefs : new Prefs(context));
+                    if (intent.getStringExtra("latency") != null) {
+                        String stats = LorieView.getInputLatencyStats();
+                        sendResponse(remote, stats != null ? 0 : 1, 2, stats != null ? stats.trim() : "X server is not connected to the app.");
+                        return;
+                    }
+
+                    if (intent.getStringExtra("trace") != null || intent.getStringExtra("replay") != null) {
+                        MainActivity activity = MainActivity.getInstance();
+                        if (activity == null) {
+                            sendResponse(remote, 1, 2, "Termux:X11 activity is not running.");
+                            return;
+                        }
+
+                        if (intent.getStringExtra("trace") != null)
+                            sendResponse(remote, 0, 2, activity.toggleInputTrace());
+                        else try {
+                            String speed = intent.getStringExtra("replay");
+                            sendResponse(remote, 0, 2, activity.replayInputTrace(speed.isEmpty() ? 1 : Float.parseFloat(speed)));
+                        } catch (NumberFormatException e) {
+                            sendResponse(remote, 1, 2, "Replay speed must be a number.");
+                        }
+                        return;
+                    }
+
                     if (intent.getStringExtra("list") != null) {
                         String result = "";
                         for (PrefsProto.Preference pref : p.keys.values()) {
@@ -685,7 +725,7 @@ public class LoriePreferences extends AppCompatActivity implements PreferenceFra
         };
 
         private static void help() {
-            System.err.print("termux-x11-preference [list] {key:value} [{key2:value2}]...");
+            System.err.print("termux-x11-preference [list] [latency] [trace] [replay[:speed]] {key:value} [{key2:value2}]...");
             System.exit(0);
         }
 
@@ -727,6 +767,12 @@ public class LoriePreferences extends AppCompatActivity implements PreferenceFra
             for (String a: args) {
                 if ("list".equals(a)) {
                     i.putExtra("list", "");
+                } else if ("latency".equals(a)) {
+                    i.putExtra("latency", "");
+                } else if ("trace".equals(a)) {
+                    i.putExtra("trace", "");
+                } else if ("replay".equals(a)) {
+                    i.putExtra("replay", "");
                 } else if (a != null && a.contains(":")) {
                     String[] v = a.split(":");
                     i.putExtra(v[0], v[1]);
@@ -49,8 +49,11 @@ import androidx.annotation.NonNull;
 import androidx.core.math.MathUtils;
 
 import com.termux.x11.input.InputStub;
+import com.termux.x11.input.LorieEventEncoder;
+import com.termux.x11.input.MotionCoalescer;
 import com.termux.x11.input.TouchInputHandler;
 
+import java.nio.ByteBuffer;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
@@ -468,8 +471,8 @@ public class LorieView extends SurfaceView implements InputStub {
                     || newText.toString().startsWith(currentComposingText.toString()))) {
                 for (int i=0; i < oldLen - newLen; i++)
                     sendKey(KeyEvent.KEYCODE_DEL);
-                for (int i=oldLen; i<newLen; i++)
-                    sendTextEvent(String.valueOf(newText.charAt(i)).getBytes(UTF_8));
+                if (newLen > oldLen)
+                    sendTextEvent(newText.subSequence(oldLen, newLen).toString().getBytes(UTF_8));
             } else {
                 for (int i = 0; i < oldLen; i++)
                     sendKey(KeyEvent.KEYCODE_DEL);
@@ -684,11 +687,70 @@ public class LorieView extends SurfaceView implements InputStub {
         setMeasuredDimension(width, height);
     }
 
+    @Override
+    public void sendMouseEvent(float x, float y, int whichButton, boolean buttonDown, boolean relative) {
+        if (whichButton > 0)
+            resetIme();
+        motion.sendMouseEvent(x, y, whichButton, buttonDown, relative);
+    }
+
+    @Override
+    public void sendCursorMotion(float x, float y, boolean relative) {
+        motion.sendCursorMotion(x, y, relative);
+    }
+
     @Override
     public void sendMouseWheelEvent(float deltaX, float deltaY) {
         sendMouseEvent(deltaX, deltaY, BUTTON_SCROLL, false, true);
     }
 
+    @Override
+    public void sendScrollMotion(float deltaX, float deltaY) {
+        resetIme();
+        motion.sendScrollMotion(deltaX, deltaY);
+    }
+
+    @Override
+    public void sendGestureEvent(int kind, int phase, int fingers, float dx, float dy, float scale, float angle) {
+        motion.sendGestureEvent(kind, phase, fingers, dx, dy, scale, angle);
+    }
+
+    @Override
+    public void sendTouchEvent(int action, int id, int x, int y) {
+        motion.sendTouchEvent(action, id, x, y);
+    }
+
+    @Override
+    public void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouseMode) {
+        resetIme();
+        motion.sendStylusEvent(x, y, pressure, tiltX, tiltY, orientation, buttons, eraser, mouseMode);
+    }
+
+    @Override
+    public boolean sendKeyEvent(int scanCode, int keyCode, boolean keyDown) {
+        return motion.sendKeyEvent(scanCode, keyCode, keyDown);
+    }
+
+    @Override
+    public void sendTextEvent(byte[] text, int length) {
+        motion.sendTextEvent(text, length);
+    }
+
+    @Override
+    public void beginBatch() {
+        motion.beginBatch();
+    }
+
+    @Override
+    public void flushBatch() {
+        motion.flushBatch();
+    }
+
+    @Override
+    public void setEventTime(long nanos) {
+        motion.setEventTime(nanos);
+    }
+
     static final Set<Integer> imeBuggyKeys = Set.of(
             KeyEvent.KEYCODE_DEL,
             KeyEvent.KEYCODE_CTRL_LEFT,
@@ -740,9 +802,22 @@ public class LorieView extends SurfaceView implements InputStub {
         clipboardSyncEnabled = p.clipboardEnable.get();
         setClipboardSyncEnabled(clipboardSyncEnabled, clipboardSyncEnabled);
         TouchInputHandler.refreshInputDevices();
+        setInputSenderThreadEnabled(p.inputSenderThread.get());
+    }
+
+    // These are called by native code from the thread reading X server connection.
+    @Keep void postClipboardText(String text) {
+        MainActivity.handler.post(() -> setClipboardText(text));
+    }
+
+    @Keep void postClipboardRequest() {
+        MainActivity.handler.post(this::requestClipboard);
+    }
+
+    @Keep void postResetIme() {
+        MainActivity.handler.post(this::resetIme);
     }
 
-    // It is used in native code
     void setClipboardText(String text) {
         clipboard.setPrimaryClip(ClipData.newPlainText("X11 clipboard", text));
 
@@ -752,7 +827,6 @@ public class LorieView extends SurfaceView implements InputStub {
         lastClipboardTimestamp = System.currentTimeMillis() + 150;
     }
 
-    /** @noinspection unused*/ // It is used in native code
     void requestClipboard() {
         if (!clipboardSyncEnabled) {
             sendClipboardEvent("".getBytes(UTF_8));
@@ -817,10 +891,9 @@ public class LorieView extends SurfaceView implements InputStub {
      * As a workaround we will reset IME on X window focus change and any user interaction
      * with LorieView except sending keys, text (Unicode) and mouse movements.
      * We must reset IME to get rid of pending composing, predictive text and other status related stuff.
-     * It is called from native code, not from Java.
-     * @noinspection unused
+     * It is posted by native code and called before sending mouse clicks and stylus events.
      */
-    @Keep void resetIme() {
+    void resetIme() {
         if (!commitedText)
             return;
 
@@ -839,20 +912,25 @@ public class LorieView extends SurfaceView implements InputStub {
     @FastNative public native void sendClipboardAnnounce();
     @FastNative public native void sendClipboardEvent(byte[] text);
     @FastNative static native void sendWindowChange(int width, int height, int framerate, String name);
-    @FastNative public native void sendMouseEvent(float x, float y, int whichButton, boolean buttonDown, boolean relative);
-    @FastNative public native void sendTouchEvent(int action, int id, int x, int y);
-    @FastNative public native void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouseMode);
     @FastNative static public native void requestStylusEnabled(boolean enabled);
-    public boolean sendKeyEvent(int scanCode, int keyCode, boolean keyDown) {
-//        if (keyCode == 67)
-//            new Exception().printStackTrace();
-        return sendKeyEvent(scanCode, keyCode, keyDown, 0);
-    }
-    @FastNative public native boolean sendKeyEvent(int scanCode, int keyCode, boolean keyDown, int a);
-    @FastNative public native void sendTextEvent(byte[] text);
     @CriticalNative public static native boolean requestConnection();
+    @FastNative private static native int[] getLinuxKeycodes();
+    @FastNative private static native void setEventBuffer(ByteBuffer buffer);
+    @CriticalNative private static native void flushEvents(int length);
+    private static native void setInputSenderThreadEnabled(boolean enabled);
+    @FastNative public static native String getInputLatencyStats();
+    /** Sets zoom of the image and position of the viewport as fractions of the view size, the X screen is not changed. */
+    @CriticalNative public static native void setViewport(float zoom, float x, float y);
+
+    // Native code keeps the address of only one buffer, so all views share the encoder.
+    private static final LorieEventEncoder events;
+    // Every event passes it, so events which are not motion are never sent before motion collected earlier.
+    private static final MotionCoalescer motion;
 
     static {
         System.loadLibrary("Xlorie");
+        events = new LorieEventEncoder(LorieEventEncoder.DEFAULT_CAPACITY, getLinuxKeycodes(), (buffer, length) -> flushEvents(length));
+        setEventBuffer(events.getBuffer());
+        motion = new MotionCoalescer(events);
     }
 }
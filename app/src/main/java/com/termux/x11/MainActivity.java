@@ -61,10 +61,16 @@ import androidx.core.app.NotificationCompat;
 import androidx.core.math.MathUtils;
 import androidx.viewpager.widget.ViewPager;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Map;
 
 import com.termux.x11.input.InputEventSender;
 import com.termux.x11.input.InputStub;
+import com.termux.x11.input.InputTraceRecorder;
+import com.termux.x11.input.InputTraceReplayer;
 import com.termux.x11.input.LenovoPenButtonMapper;
 import com.termux.x11.input.TouchInputHandler;
 import com.termux.x11.utils.FullscreenWorkaround;
@@ -96,6 +102,8 @@ public class MainActivity extends AppCompatActivity {
     private boolean isInPictureInPictureMode = false;
 
     private LenovoPenButtonMapper lenovoPenButtonMapper;
+    private InputTraceRecorder mInputTrace;
+    private File mInputTraceFile;
 
     public static Prefs prefs = null;
 
@@ -178,8 +186,9 @@ public class MainActivity extends AppCompatActivity {
         LorieView lorieView = findViewById(R.id.lorieView);
         View lorieParent = (View) lorieView.getParent();
 
-        mInputHandler = new TouchInputHandler(this, new InputEventSender(lorieView));
-        lenovoPenButtonMapper = new LenovoPenButtonMapper(this, mInputHandler);
+        mInputTrace = new InputTraceRecorder(lorieView);
+        mInputHandler = new TouchInputHandler(this, new InputEventSender(mInputTrace));
+        lenovoPenButtonMapper = new LenovoPenButtonMapper(this, mInputHandler.getStylusPipeline());
         lenovoPenButtonMapper.reloadPreferences(prefs);
         mLorieKeyListener = (v, k, e) -> {
             InputDevice dev = e.getDevice();
@@ -467,6 +476,7 @@ public class MainActivity extends AppCompatActivity {
             final int tapTimeout = ViewConfiguration.getTapTimeout();
             final float[] startOffset = new float[2];
             final int[] startPosition = new int[2];
+            final int[] position = new int[2];
             long startTime;
             @Override
             public boolean onTouch(View v, MotionEvent e) {
@@ -480,22 +490,20 @@ public class MainActivity extends AppCompatActivity {
                         break;
                     case MotionEvent.ACTION_MOVE: {
                         final ViewPager pager = getTerminalToolbarViewPager();
-                        int[] offset = new int[2];
-                        primaryLayer.getLocationInWindow(offset);
+                        primaryLayer.getLocationInWindow(position);
                         float maxX = frm.getX() + frm.getWidth() - primaryLayer.getWidth();
                         float maxY = frm.getY() + frm.getHeight() - primaryLayer.getHeight();
                         if (pager.getVisibility() == View.VISIBLE)
                             maxY -= pager.getHeight();
 
-                        primaryLayer.setX(MathUtils.clamp(offset[0] - startOffset[0] + e.getX(), frm.getX(), maxX));
-                        primaryLayer.setY(MathUtils.clamp(offset[1] - startOffset[1] + e.getY(), frm.getY(), maxY));
+                        primaryLayer.setX(MathUtils.clamp(position[0] - startOffset[0] + e.getX(), frm.getX(), maxX));
+                        primaryLayer.setY(MathUtils.clamp(position[1] - startOffset[1] + e.getY(), frm.getY(), maxY));
                         break;
                     }
                     case MotionEvent.ACTION_UP: {
-                        final int[] _pos = new int[2];
-                        primaryLayer.getLocationInWindow(_pos);
-                        int deltaX = (int) (startOffset[0] - e.getX()) + (startPosition[0] - _pos[0]);
-                        int deltaY = (int) (startOffset[1] - e.getY()) + (startPosition[1] - _pos[1]);
+                        primaryLayer.getLocationInWindow(position);
+                        int deltaX = (int) (startOffset[0] - e.getX()) + (startPosition[0] - position[0]);
+                        int deltaY = (int) (startOffset[1] - e.getY()) + (startPosition[1] - position[1]);
                         pos.setPressed(false);
 
                         if (deltaX * deltaX + deltaY * deltaY < touchSlop && SystemClock.uptimeMillis() - startTime <= tapTimeout) {
@@ -592,6 +600,10 @@ public class MainActivity extends AppCompatActivity {
             lenovoPenButtonMapper.reloadPreferences(prefs);
         lorieView.reloadPreferences(prefs);
 
+        // Android lets us choose unbuffered sources only by source class, so touchscreen is affected too.
+        if (SDK_INT >= VERSION_CODES.R)
+            ((View) lorieView.getParent()).requestUnbufferedDispatch(prefs.unbufferedPointerDispatch.get() ? InputDevice.SOURCE_CLASS_POINTER : 0);
+
         setTerminalToolbarView();
 
         lorieView.triggerCallback();
@@ -647,6 +659,56 @@ public class MainActivity extends AppCompatActivity {
         return findViewById(R.id.lorieView);
     }
 
+    private File getInputTraceDir() {
+        return new File(getExternalFilesDir(null), "traces");
+    }
+
+    /** Starts recording input trace or stops the recording, returns a message for user. */
+    String toggleInputTrace() {
+        try {
+            if (mInputTrace.isRecording()) {
+                mInputTrace.stop();
+                return "Input trace saved to " + mInputTraceFile;
+            }
+
+            //noinspection ResultOfMethodCallIgnored
+            getInputTraceDir().mkdirs();
+            mInputTraceFile = new File(getInputTraceDir(), "input-" + System.currentTimeMillis() + ".trace");
+            mInputTrace.start(new FileOutputStream(mInputTraceFile));
+            return "Recording input trace to " + mInputTraceFile + ", run the same command again to stop.";
+        } catch (IOException e) {
+            Log.e("MainActivity", "Failed to record input trace", e);
+            return "Failed to record input trace: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Replays the latest recorded input trace to X server, returns a message for user.
+     *
+     * @param speed 1 for original speed, 0 to replay as fast as possible.
+     */
+    String replayInputTrace(float speed) {
+        File[] traces = getInputTraceDir().listFiles((dir, name) -> name.endsWith(".trace"));
+        File latest = null, recording = mInputTrace.isRecording() ? mInputTraceFile : null;
+        for (File trace : traces != null ? traces : new File[0])
+            if (!trace.equals(recording) && (latest == null || trace.lastModified() > latest.lastModified()))
+                latest = trace;
+
+        if (latest == null)
+            return "There are no recorded input traces in " + getInputTraceDir();
+
+        final File trace = latest;
+        try {
+            new InputTraceReplayer(new FileInputStream(trace), getLorieView(), speed).replay(handler, e -> {
+                if (e != null)
+                    Log.e("MainActivity", "Failed to replay input trace " + trace, e);
+            });
+            return "Replaying " + trace;
+        } catch (IOException e) {
+            return "Failed to replay " + trace + ": " + e.getMessage();
+        }
+    }
+
     public ViewPager getTerminalToolbarViewPager() {
         return findViewById(R.id.terminal_toolbar_view_pager);
     }
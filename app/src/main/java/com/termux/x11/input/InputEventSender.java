@@ -8,27 +8,30 @@ import static android.view.KeyEvent.*;
 import static android.view.MotionEvent.*;
 import static androidx.core.math.MathUtils.clamp;
 import static com.termux.x11.input.InputStub.*;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 import android.graphics.PointF;
+import android.os.Build;
+import android.view.InputEvent;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 
 import com.termux.x11.MainActivity;
 
-import java.util.List;
-import java.util.TreeSet;
+import java.util.Arrays;
 
 /**
  * A set of functions to send users' activities, which are represented by Android classes, to
  * remote host machine. This class uses a {@link InputStub} to do the real injections.
  */
 public final class InputEventSender {
-    private static final int XI_TouchBegin = 18;
-    private static final int XI_TouchUpdate = 19;
-    private static final int XI_TouchEnd = 20;
+    /** Sources of cursor motion, motion of sources set in {@link #coalescedMotion} is sent once per frame. */
+    public static final int MOTION_HOVER = 1;
+    public static final int MOTION_CAPTURED = 2;
+    public static final int MOTION_TRACKPAD = 4;
+    public static final int MOTION_SCROLL = 8;
 
     private final InputStub mInjector;
+    private final TouchSlotTracker mTouches;
 
     public boolean tapToMove = false;
     public boolean preferScancodes = false;
@@ -39,45 +42,54 @@ public final class InputEventSender {
     public boolean pauseKeyInterceptingWithEsc = false;
     public boolean stylusIsMouse = false;
     public boolean stylusButtonContactModifierMode = false;
+    public boolean highFidelityInput = false;
+    public int coalescedMotion = 0;
+    public boolean forwardGestures = false;
 
     /** Set of pressed keys for which we've sent TextEvent. */
-    private final TreeSet<Integer> mPressedTextKeys;
-    private final TreeSet<Integer> mPressedKeys;
+    private final KeySet mPressedTextKeys = new KeySet();
+    private final KeySet mPressedKeys = new KeySet();
+
+    /** Reused buffer for UTF-8 encoded text. */
+    private byte[] mText = new byte[16];
 
     public InputEventSender(InputStub injector) {
         if (injector == null)
             throw new NullPointerException();
         mInjector = injector;
-        mPressedTextKeys = new TreeSet<>();
-        mPressedKeys = new TreeSet<>();
+        mTouches = new TouchSlotTracker(injector);
+    }
+
+    private static boolean isButton(int button) {
+        return button >= BUTTON_UNDEFINED && button <= BUTTON_RIGHT;
     }
 
-    private static final List<Integer> buttons = List.of(BUTTON_UNDEFINED, BUTTON_LEFT, BUTTON_MIDDLE, BUTTON_RIGHT);
     public void sendMouseEvent(PointF pos, int button, boolean down, boolean relative) {
-        if (!buttons.contains(button))
+        if (!isButton(button))
             return;
         mInjector.sendMouseEvent(pos != null ? (int) pos.x : 0, pos != null ? (int) pos.y : 0, button, down, relative);
     }
 
     public void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouse) {
         mInjector.sendStylusEvent(x, y, pressure, tiltX, tiltY, orientation, buttons, eraser, mouse);
-        android.util.Log.d("STYLUS_EVENT", "transformed x " + x + " y " + y + " pressure " + pressure + " tiltX " + tiltX + " tiltY " + tiltY + " orientation " + orientation + " buttons " + buttons + " eraser " + eraser + " mouseMode " + mouse);
+        if (StylusPipeline.DEBUG)
+            android.util.Log.d(StylusPipeline.TAG, "transformed x " + x + " y " + y + " pressure " + pressure + " tiltX " + tiltX + " tiltY " + tiltY + " orientation " + orientation + " buttons " + buttons + " eraser " + eraser + " mouseMode " + mouse);
     }
 
     public void sendMouseDown(int button, boolean relative) {
-        if (!buttons.contains(button)) 
+        if (!isButton(button))
             return;
         mInjector.sendMouseEvent(0, 0, button, true, relative);
     }
 
     public void sendMouseUp(int button, boolean relative) {
-        if (!buttons.contains(button))
+        if (!isButton(button))
             return;
         mInjector.sendMouseEvent(0, 0, button, false, relative);
     }
 
     public void sendMouseClick(int button, boolean relative) {
-        if (!buttons.contains(button))
+        if (!isButton(button))
             return;
         mInjector.sendMouseEvent(0, 0, button, true, relative);
         mInjector.sendMouseEvent(0, 0, button, false, relative);
@@ -87,14 +99,60 @@ public final class InputEventSender {
         mInjector.sendMouseEvent(x, y, BUTTON_UNDEFINED, false, relative);
     }
 
+    /** Sends cursor motion of the given source, it is coalesced if the source is set in {@link #coalescedMotion}. */
+    public void sendCursorMove(float x, float y, boolean relative, int source) {
+        if ((coalescedMotion & source) != 0)
+            mInjector.sendCursorMotion(x, y, relative);
+        else
+            sendCursorMove(x, y, relative);
+    }
+
     public void sendMouseWheelEvent(float distanceX, float distanceY) {
-        mInjector.sendMouseWheelEvent(distanceX, distanceY);
+        if ((coalescedMotion & MOTION_SCROLL) != 0)
+            mInjector.sendScrollMotion(distanceX, distanceY);
+        else
+            mInjector.sendMouseWheelEvent(distanceX, distanceY);
+    }
+
+    public void sendGestureEvent(int kind, int phase, int fingers, float dx, float dy, float scale, float angle) {
+        mInjector.sendGestureEvent(kind, phase, fingers, dx, dy, scale, angle);
+    }
+
+    public void beginBatch() {
+        mInjector.beginBatch();
+    }
+
+    public void flushBatch() {
+        mInjector.flushBatch();
+    }
+
+    /** Sets time of events sent until the end of the current batch, in CLOCK_MONOTONIC nanoseconds. */
+    public void setEventTime(long nanos) {
+        mInjector.setEventTime(nanos);
+    }
+
+    public void setEventTime(InputEvent e) {
+        mInjector.setEventTime(Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE ? e.getEventTimeNanos() : e.getEventTime() * 1000000);
+    }
+
+    public void setHistoricalEventTime(MotionEvent e, int pos) {
+        mInjector.setEventTime(Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE ? e.getHistoricalEventTimeNanos(pos) : e.getHistoricalEventTime(pos) * 1000000);
+    }
+
+    /**
+     * Moves a touch which is down to the predicted position, in X server's screen coordinates.
+     * The predicted position is stored as the last one sent, so the next real position corrects it,
+     * unless it is the same as predicted and X server already has it.
+     */
+    public void sendPredictedTouch(int id, float x, float y, RenderData renderData) {
+        if ((mTouches.getActive() & TouchSlotTracker.bit(id)) != 0)
+            mTouches.update(id, clamp((int) x, 0, renderData.screenWidth), clamp((int) y, 0, renderData.screenHeight));
     }
 
-    final boolean[] pointers = new boolean[10];
     /**
      * Extracts the touch point data from a MotionEvent, converts each point into a marshallable
      * object and passes the set of points to the JNI layer to be transmitted to the remote host.
+     * Only pointers which moved since they were sent last time are sent.
      *
      * @param event The event to send to the remote host for injection.  NOTE: This object must be
      *              updated to represent the remote machine's coordinate system before calling this
@@ -108,34 +166,48 @@ public final class InputEventSender {
             // to walk the list of historical events in order and add each event to our list, then
             // retrieve the current move event data.
             int pointerCount = event.getPointerCount();
-
-            for (int p = 0; p < pointerCount; p++)
-                pointers[event.getPointerId(p)] = false;
+            int present = 0;
+
+            // Android batches samples reported between frames, send all of them in high-fidelity mode.
+            if (highFidelityInput) {
+                for (int h = 0; h < event.getHistorySize(); h++) {
+                    setHistoricalEventTime(event, h);
+                    for (int p = 0; p < pointerCount; p++) {
+                        int x = clamp((int) renderData.mapX(event.getHistoricalX(p, h)), 0, renderData.screenWidth);
+                        int y = clamp((int) renderData.mapY(event.getHistoricalY(p, h)), 0, renderData.screenHeight);
+                        mTouches.update(event.getPointerId(p), x, y);
+                    }
+                }
+                setEventTime(event);
+            }
 
             for (int p = 0; p < pointerCount; p++) {
-                int x = clamp((int) (event.getX(p) * renderData.scale.x), 0, renderData.screenWidth);
-                int y = clamp((int) (event.getY(p) * renderData.scale.y), 0, renderData.screenHeight);
-                pointers[event.getPointerId(p)] = true;
-                mInjector.sendTouchEvent(XI_TouchUpdate, event.getPointerId(p), x, y);
+                int x = clamp((int) renderData.mapX(event.getX(p)), 0, renderData.screenWidth);
+                int y = clamp((int) renderData.mapY(event.getY(p)), 0, renderData.screenHeight);
+                present |= TouchSlotTracker.bit(event.getPointerId(p));
+                mTouches.update(event.getPointerId(p), x, y);
             }
 
-            // Sometimes Android does not send ACTION_POINTER_UP/ACTION_UP so some pointers are "stuck" in pressed state.
-            for (int p = 0; p < 10; p++) {
-                if (!pointers[p])
-                    mInjector.sendTouchEvent(XI_TouchEnd, p, 0, 0);
-            }
+            mTouches.endMissing(present);
         } else {
             // For all other events, we only want to grab the current/active pointer.  The event
             // contains a list of every active pointer but passing all of of these to the host can
             // cause confusion on the remote OS side and result in broken touch gestures.
             int activePointerIndex = event.getActionIndex();
             int id = event.getPointerId(activePointerIndex);
-            int x =  clamp((int) (event.getX(activePointerIndex) * renderData.scale.x), 0, renderData.screenWidth);
-            int y =  clamp((int) (event.getY(activePointerIndex) * renderData.scale.y), 0, renderData.screenHeight);
-            int a = (action == MotionEvent.ACTION_DOWN || action == ACTION_POINTER_DOWN) ? XI_TouchBegin : XI_TouchEnd;
-            if (a == XI_TouchEnd)
-                mInjector.sendTouchEvent(XI_TouchUpdate, id, x, y);
-            mInjector.sendTouchEvent(a, id, x, y);
+            int x =  clamp((int) renderData.mapX(event.getX(activePointerIndex)), 0, renderData.screenWidth);
+            int y =  clamp((int) renderData.mapY(event.getY(activePointerIndex)), 0, renderData.screenHeight);
+            if (action == MotionEvent.ACTION_DOWN || action == ACTION_POINTER_DOWN) {
+                // No other pointer can be down when the first one goes down.
+                if (action == MotionEvent.ACTION_DOWN)
+                    mTouches.endMissing(0);
+                mTouches.begin(id, x, y);
+            } else {
+                mTouches.end(id, x, y);
+                // The last pointer went up or gesture was cancelled, nothing can stay pressed.
+                if (action == MotionEvent.ACTION_UP || action == ACTION_CANCEL)
+                    mTouches.endMissing(0);
+            }
         }
     }
 
@@ -145,6 +217,27 @@ public final class InputEventSender {
      * avoids sending a key-up event for a key that was previously injected as a text-event.
      */
     public boolean sendKeyEvent(KeyEvent e) {
+        mInjector.beginBatch();
+        try {
+            setEventTime(e);
+            return dispatchKeyEvent(e);
+        } finally {
+            mInjector.flushBatch();
+        }
+    }
+
+    // KEYCODE_AT, KEYCODE_POUND, KEYCODE_STAR and KEYCODE_PLUS are
+    // deprecated, but they still need to be here for older devices and
+    // third-party keyboards that may still generate these events. See
+    // https://source.android.com/devices/input/keyboard-devices.html#legacy-unsupported-keys
+    private static final char[][] LEGACY_KEYS = {
+            { KEYCODE_AT, '@', KEYCODE_2 },
+            { KEYCODE_POUND, '#', KEYCODE_3 },
+            { KEYCODE_STAR, '*', KEYCODE_8 },
+            { KEYCODE_PLUS, '+', KEYCODE_EQUALS }
+    };
+
+    private boolean dispatchKeyEvent(KeyEvent e) {
         int keyCode = e.getKeyCode();
         boolean pressed = e.getAction() == KeyEvent.ACTION_DOWN;
 
@@ -162,9 +255,9 @@ public final class InputEventSender {
         // acts as if it is connected to the remote host.
         if (e.getAction() == ACTION_MULTIPLE) {
             if (e.getCharacters() != null)
-                mInjector.sendTextEvent(e.getCharacters().getBytes(UTF_8));
+                sendText(e.getCharacters());
             else if (e.getUnicodeChar() != 0)
-                mInjector.sendTextEvent(String.valueOf((char)e.getUnicodeChar()).getBytes(UTF_8));
+                sendText((char) e.getUnicodeChar());
             return true;
         }
 
@@ -181,7 +274,7 @@ public final class InputEventSender {
                 if ((e.getMetaState() & META_ALT_RIGHT_ON) != 0)
                     mInjector.sendKeyEvent(0, KEYCODE_ALT_RIGHT, false); // For layouts with AltGr
 
-                mInjector.sendTextEvent(String.valueOf(unicode).getBytes(UTF_8));
+                sendText(unicode);
 
                 if ((e.getMetaState() & META_ALT_RIGHT_ON) != 0)
                     mInjector.sendKeyEvent(0, KEYCODE_ALT_RIGHT, true); // For layouts with AltGr
@@ -194,22 +287,12 @@ public final class InputEventSender {
             }
         }
 
-        // KEYCODE_AT, KEYCODE_POUND, KEYCODE_STAR and KEYCODE_PLUS are
-        // deprecated, but they still need to be here for older devices and
-        // third-party keyboards that may still generate these events. See
-        // https://source.android.com/devices/input/keyboard-devices.html#legacy-unsupported-keys
-        char[][] chars = {
-                { KEYCODE_AT, '@', KEYCODE_2 },
-                { KEYCODE_POUND, '#', KEYCODE_3 },
-                { KEYCODE_STAR, '*', KEYCODE_8 },
-                { KEYCODE_PLUS, '+', KEYCODE_EQUALS }
-        };
-
-        for (char[] i: chars) {
-            if (e.getKeyCode() != i[0])
+        for (char[] i: LEGACY_KEYS) {
+            if (keyCode != i[0])
                 continue;
 
-            if ((e.getCharacters() != null && String.valueOf(i[1]).contentEquals(e.getCharacters()))
+            String characters = e.getCharacters();
+            if ((characters != null && characters.length() == 1 && characters.charAt(0) == i[1])
                     || e.getUnicodeChar() == i[1]) {
                 mInjector.sendKeyEvent(0, KEYCODE_SHIFT_LEFT, pressed);
                 mInjector.sendKeyEvent(0, i[2], pressed);
@@ -234,4 +317,68 @@ public final class InputEventSender {
         // We try to send all other key codes to the host directly.
         return mInjector.sendKeyEvent(scancode, keyCode, pressed);
     }
+
+    private void sendText(char c) {
+        mInjector.sendTextEvent(mText, encode(c, 0));
+    }
+
+    /** Encodes text to UTF-8 into reused buffer and sends it, unpaired surrogates are replaced with '?' like String.getBytes does. */
+    private void sendText(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (mText.length - length < 4)
+                mText = Arrays.copyOf(mText, Math.max(mText.length * 2, length + (text.length() - i) * 3 + 1));
+
+            if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codepoint = Character.toCodePoint(c, text.charAt(++i));
+                mText[length++] = (byte) (0xF0 | (codepoint >> 18));
+                mText[length++] = (byte) (0x80 | ((codepoint >> 12) & 0x3F));
+                mText[length++] = (byte) (0x80 | ((codepoint >> 6) & 0x3F));
+                mText[length++] = (byte) (0x80 | (codepoint & 0x3F));
+            } else
+                length = encode(c, length);
+        }
+        mInjector.sendTextEvent(mText, length);
+    }
+
+    private int encode(char c, int offset) {
+        if (Character.isSurrogate(c))
+            c = '?';
+
+        if (c < 0x80)
+            mText[offset++] = (byte) c;
+        else if (c < 0x800) {
+            mText[offset++] = (byte) (0xC0 | (c >> 6));
+            mText[offset++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            mText[offset++] = (byte) (0xE0 | (c >> 12));
+            mText[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            mText[offset++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return offset;
+    }
+
+    /** Set of key codes kept in a bitset, unlike {@code Set<Integer>} it does not box key codes. */
+    private static final class KeySet {
+        // Android has less than 320 key codes, the set grows if it gets unknown bigger one.
+        private long[] mBits = new long[5];
+
+        boolean contains(int keyCode) {
+            return keyCode >= 0 && (keyCode >> 6) < mBits.length && (mBits[keyCode >> 6] & (1L << keyCode)) != 0;
+        }
+
+        void add(int keyCode) {
+            if (keyCode < 0)
+                return;
+            if ((keyCode >> 6) >= mBits.length)
+                mBits = Arrays.copyOf(mBits, (keyCode >> 6) + 1);
+            mBits[keyCode >> 6] |= 1L << keyCode;
+        }
+
+        void remove(int keyCode) {
+            if (contains(keyCode))
+                mBits[keyCode >> 6] &= ~(1L << keyCode);
+        }
+    }
 }
@@ -0,0 +1,179 @@
+package com.termux.x11.input;
+
+import android.content.Context;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.MotionPredictor;
+
+/**
+ * Sends predicted positions of stylus and direct touches once per frame, so strokes drawn in X clients
+ * do not lag behind the pen. Prediction is made for the time the next frame is shown, so it is
+ * resampled to display refresh no matter how often the device reports samples.
+ *
+ * X server has no notion of tentative events, a predicted position is sent as a regular one and the
+ * next real sample is always sent after it, which corrects the prediction. Stylus is predicted with
+ * Android's MotionPredictor where it is available (Android 14 and later), everything else with
+ * {@link PositionPredictor}. Events are in view coordinates, they are mapped with {@link RenderData}
+ * when predictions are sent. It must be used from UI thread.
+ */
+final class InputPredictor implements Choreographer.FrameCallback {
+    private static final int STYLUS = 0;
+
+    private final Context mContext;
+    private final InputEventSender mInjector;
+    private final StylusPipeline mStylusPipeline;
+    private final RenderData mRenderData;
+    private final float[] mPoint = new float[2];
+
+    private boolean mEnabled;
+    private long mFramePeriodNanos;
+    private PositionPredictor mStylus, mTouch;
+    private Object mSystemPredictor;
+    private boolean mSystemStylus;
+    private boolean mStylusDown;
+    private int mTouches;
+
+    private Choreographer mChoreographer;
+    private boolean mScheduled;
+
+    InputPredictor(Context context, InputEventSender injector, StylusPipeline stylusPipeline, RenderData renderData) {
+        mContext = context;
+        mInjector = injector;
+        mStylusPipeline = stylusPipeline;
+        mRenderData = renderData;
+    }
+
+    /** @param refreshRate refresh rate of the display, predictions are made one frame ahead. */
+    void setEnabled(boolean enabled, float refreshRate) {
+        mEnabled = enabled;
+        mFramePeriodNanos = (long) (1e9 / (refreshRate > 0 ? refreshRate : 60));
+        // Samples older than two frames do not tell where the pointer is now, it probably stopped.
+        mStylus = new PositionPredictor(2 * mFramePeriodNanos);
+        mTouch = new PositionPredictor(2 * mFramePeriodNanos);
+        mStylusDown = false;
+        mTouches = 0;
+    }
+
+    private static long time(MotionEvent e) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE ? e.getEventTimeNanos() : e.getEventTime() * 1000000;
+    }
+
+    private static long time(MotionEvent e, int h) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE ? e.getHistoricalEventTimeNanos(h) : e.getHistoricalEventTime(h) * 1000000;
+    }
+
+    /** Follows a stylus event which was already sent, only contacts are predicted, hovering is not. */
+    void onStylusEvent(MotionEvent e) {
+        if (!mEnabled)
+            return;
+
+        int action = e.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            mStylus.reset(STYLUS);
+            mSystemStylus = false;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                if (mSystemPredictor == null)
+                    mSystemPredictor = new MotionPredictor(mContext);
+                mSystemStylus = ((MotionPredictor) mSystemPredictor).isPredictionAvailable(e.getDeviceId(), e.getSource());
+            }
+        }
+
+        if (mSystemStylus && Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+            ((MotionPredictor) mSystemPredictor).record(e);
+        else {
+            int index = e.getActionIndex();
+            for (int h = 0; h < e.getHistorySize(); h++)
+                mStylus.add(STYLUS, time(e, h), e.getHistoricalX(index, h), e.getHistoricalY(index, h));
+            mStylus.add(STYLUS, time(e), e.getX(index), e.getY(index));
+        }
+
+        mStylusDown = (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_MOVE) && e.getPressure() > 0;
+        schedule();
+    }
+
+    /** Follows a touchscreen event which was already sent in touch mode. */
+    void onTouchEvent(MotionEvent e) {
+        if (!mEnabled)
+            return;
+
+        int action = e.getActionMasked(), index = e.getActionIndex();
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                int id = e.getPointerId(index);
+                if (action == MotionEvent.ACTION_DOWN)
+                    mTouches = 0;
+                mTouch.reset(id);
+                mTouch.add(id, time(e), e.getX(index), e.getY(index));
+                mTouches |= TouchSlotTracker.bit(id);
+                break;
+            }
+            case MotionEvent.ACTION_MOVE:
+                for (int p = 0; p < e.getPointerCount(); p++) {
+                    int id = e.getPointerId(p);
+                    for (int h = 0; h < e.getHistorySize(); h++)
+                        mTouch.add(id, time(e, h), e.getHistoricalX(p, h), e.getHistoricalY(p, h));
+                    mTouch.add(id, time(e), e.getX(p), e.getY(p));
+                }
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+                mTouches &= ~TouchSlotTracker.bit(e.getPointerId(index));
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mTouches = 0;
+                break;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (mScheduled || (!mStylusDown && mTouches == 0))
+            return;
+
+        // Choreographer belongs to the thread it was obtained from, so it is obtained when UI thread uses it.
+        if (mChoreographer == null)
+            mChoreographer = Choreographer.getInstance();
+        mChoreographer.postFrameCallback(this);
+        mScheduled = true;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        if (!mEnabled)
+            return;
+
+        long target = frameTimeNanos + mFramePeriodNanos;
+        mInjector.beginBatch();
+        try {
+            // Predicted positions are positions at the target time, clients see them as newer samples.
+            mInjector.setEventTime(target);
+            if (mStylusDown && predictStylus(target))
+                mStylusPipeline.sendPredicted(mRenderData.mapX(mPoint[0]), mRenderData.mapY(mPoint[1]));
+
+            for (int touches = mTouches; touches != 0; touches &= touches - 1) {
+                int id = Integer.numberOfTrailingZeros(touches);
+                if (mTouch.predict(id, target, mPoint))
+                    mInjector.sendPredictedTouch(id, mRenderData.mapX(mPoint[0]), mRenderData.mapY(mPoint[1]), mRenderData);
+            }
+        } finally {
+            mInjector.flushBatch();
+        }
+        schedule();
+    }
+
+    private boolean predictStylus(long target) {
+        if (!mSystemStylus || Build.VERSION.SDK_INT < Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+            return mStylus.predict(STYLUS, target, mPoint);
+
+        MotionEvent predicted = ((MotionPredictor) mSystemPredictor).predict(target);
+        if (predicted == null)
+            return false;
+        mPoint[0] = predicted.getX();
+        mPoint[1] = predicted.getY();
+        predicted.recycle();
+        return true;
+    }
+}
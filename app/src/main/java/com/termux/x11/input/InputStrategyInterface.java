@@ -72,9 +72,13 @@ public interface InputStrategyInterface {
         private long mLastTapTimeInMs;
 
         /**
-         * Stores the position of the last left button single tap processed.
+         * Stores the position of the last left button single tap processed, valid if mHasLastTap is set.
          */
-        private PointF mLastTapPoint;
+        private final PointF mLastTapPoint = new PointF();
+        private boolean mHasLastTap;
+
+        /** Position of the tap being processed, reused to not allocate a point per tap. */
+        private final PointF mTapPoint = new PointF();
 
         /**
          * The maximum distance, in pixels, between two points in order for them to be considered a
@@ -125,7 +129,7 @@ public interface InputStrategyInterface {
 
         @Override
         public void onTap(int button) {
-            PointF currentTapPoint = mRenderData.getCursorPosition();
+            PointF currentTapPoint = mRenderData.getCursorPosition(mTapPoint);
             if (button == InputStub.BUTTON_LEFT) {
                 // Left clicks are handled a little differently than the events for other buttons.
                 // This is needed because translating touch events to mouse events has a problem with
@@ -137,14 +141,15 @@ public interface InputStrategyInterface {
                 // attempting a double tap, we use the original event's location for that second tap.
                 long tapInterval = SystemClock.uptimeMillis() - mLastTapTimeInMs;
                 if (isDoubleTap(currentTapPoint.x, currentTapPoint.y, tapInterval)) {
-                    mLastTapPoint = null;
+                    mHasLastTap = false;
                     mLastTapTimeInMs = 0;
                 } else {
-                    mLastTapPoint = currentTapPoint;
+                    mLastTapPoint.set(currentTapPoint.x, currentTapPoint.y);
+                    mHasLastTap = true;
                     mLastTapTimeInMs = SystemClock.uptimeMillis();
                 }
             } else {
-                mLastTapPoint = null;
+                mHasLastTap = false;
                 mLastTapTimeInMs = 0;
             }
 
@@ -172,18 +177,15 @@ public interface InputStrategyInterface {
         }
 
         private boolean isDoubleTap(float currentX, float currentY, long tapInterval) {
-            if (tapInterval > mDoubleTapDurationInMs || mLastTapPoint == null) {
+            if (tapInterval > mDoubleTapDurationInMs || !mHasLastTap) {
                 return false;
             }
 
             // Convert the image based coordinates back to screen coordinates so the user experiences
             // consistent double tap behavior regardless of zoom level.
             //
-            float[] currentValues = {currentX * mRenderData.scale.x, currentY * mRenderData.scale.y};
-            float[] previousValues = {mLastTapPoint.x * mRenderData.scale.x, mLastTapPoint.y * mRenderData.scale.y};
-
-            int deltaX = (int) (currentValues[0] - previousValues[0]);
-            int deltaY = (int) (currentValues[1] - previousValues[1]);
+            int deltaX = (int) (currentX * mRenderData.scale.x - mLastTapPoint.x * mRenderData.scale.x);
+            int deltaY = (int) (currentY * mRenderData.scale.y - mLastTapPoint.y * mRenderData.scale.y);
             return ((deltaX * deltaX + deltaY * deltaY) <= mDoubleTapSlopSquareInPx);
         }
     }
@@ -19,12 +19,44 @@ public interface InputStub {
     int BUTTON_RIGHT = 3;
     int BUTTON_SCROLL = 4;
 
+    // These constants must match those in events.h.
+    int GESTURE_PINCH = 0;
+    int GESTURE_SWIPE = 1;
+
+    int GESTURE_BEGIN = 0;
+    int GESTURE_UPDATE = 1;
+    int GESTURE_END = 2;
+    int GESTURE_CANCEL = 3;
+
     /** Sends a mouse event. */
     void sendMouseEvent(float x, float y, int whichButton, boolean buttonDown, boolean relative);
 
+    /**
+     * Sends cursor motion which may be merged with motion sent after it and sent once per frame, see
+     * {@link MotionCoalescer}. Implementations which do not coalesce motion send it right away.
+     */
+    default void sendCursorMotion(float x, float y, boolean relative) {
+        sendMouseEvent(x, y, BUTTON_UNDEFINED, false, relative);
+    }
+
     /** Sends a mouse wheel event. */
     void sendMouseWheelEvent(float deltaX, float deltaY);
 
+    /**
+     * Sends scrolling which may be summed with scrolling sent after it and sent once per frame, see
+     * {@link MotionCoalescer}. Implementations which do not coalesce scrolling send it right away.
+     */
+    default void sendScrollMotion(float deltaX, float deltaY) {
+        sendMouseWheelEvent(deltaX, deltaY);
+    }
+
+    /**
+     * Sends a step of XI 2.4 pinch or swipe gesture. {@code dx} and {@code dy} are motion since the
+     * previous step, {@code scale} is relative to the beginning of pinch and {@code angle} is rotation
+     * since the previous step in degrees. Implementations which can not send gestures ignore them.
+     */
+    default void sendGestureEvent(int kind, int phase, int fingers, float dx, float dy, float scale, float angle) {}
+
     /**
      * Sends a key event, and returns false if both scanCode and keyCode are not able to be
      * converted to a known usb key code. Nothing will be sent to remote host, if this function
@@ -34,12 +66,36 @@ public interface InputStub {
 
     /**
      * Sends a string literal. This function is useful to handle outputs from Android input
-     * methods.
+     * methods. The whole text is sent at once and typed by X server, so it does not block.
      */
-    void sendTextEvent(byte[] utf8Bytes);
+    default void sendTextEvent(byte[] utf8Bytes) {
+        sendTextEvent(utf8Bytes, utf8Bytes.length);
+    }
+
+    /**
+     * Sends the first {@code length} bytes of the array as a string literal. The array is not retained,
+     * so callers can reuse it to encode text without allocations.
+     */
+    void sendTextEvent(byte[] utf8Bytes, int length);
 
     /** Sends an event, not flushing connection. */
     void sendTouchEvent(int action, int pointerId, int x, int y);
 
     void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouseMode);
+
+    /**
+     * Starts collecting events instead of sending them one by one. Batches may be nested,
+     * collected events are sent when the outermost batch is flushed.
+     */
+    default void beginBatch() {}
+
+    /** Sends all events collected since the matching {@link #beginBatch()} call. */
+    default void flushBatch() {}
+
+    /**
+     * Sets the time of events sent until the end of the current batch, in CLOCK_MONOTONIC nanoseconds
+     * (the clock used by {@link android.view.InputEvent}). Events sent outside of a batch are stamped with
+     * the time they are sent.
+     */
+    default void setEventTime(long nanos) {}
 }
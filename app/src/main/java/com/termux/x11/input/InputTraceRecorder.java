@@ -0,0 +1,276 @@
+package com.termux.x11.input;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link InputStub} decorator which passes every call to the wrapped stub and, while recording,
+ * writes it to a binary trace which can be replayed with {@link InputTraceReplayer}.
+ *
+ * Trace starts with {@link #MAGIC} and {@link #VERSION} (big-endian ints), followed by records.
+ * Every record is a type byte, time elapsed since the previous record in nanoseconds (varint) and
+ * arguments of the call. Integers are zigzag varints, floats are raw big-endian ints, booleans are
+ * packed to a flags byte.
+ */
+public final class InputTraceRecorder implements InputStub {
+    private static final String TAG = "InputTraceRecorder";
+
+    static final int MAGIC = 0x4c584954; // "LXIT"
+    static final int VERSION = 1;
+
+    static final int MOUSE = 1;
+    static final int WHEEL = 2;
+    static final int KEY = 3;
+    static final int TEXT = 4;
+    static final int TOUCH = 5;
+    static final int STYLUS = 6;
+    static final int BEGIN_BATCH = 7;
+    static final int FLUSH_BATCH = 8;
+    static final int EVENT_TIME = 9;
+    static final int MOTION = 10;
+    static final int SCROLL = 11;
+    static final int GESTURE = 12;
+
+    private final InputStub mDelegate;
+    private OutputStream mOut;
+    private long mLastTime;
+
+    public InputTraceRecorder(InputStub delegate) {
+        if (delegate == null)
+            throw new NullPointerException();
+        mDelegate = delegate;
+    }
+
+    /** Starts writing trace to the given stream, the stream is closed when recording stops. */
+    public void start(OutputStream out) throws IOException {
+        stop();
+        mOut = new BufferedOutputStream(out, 65536);
+        writeInt(MAGIC);
+        writeInt(VERSION);
+        mLastTime = System.nanoTime();
+    }
+
+    /** Stops recording and closes the stream, does nothing if nothing is being recorded. */
+    public void stop() throws IOException {
+        OutputStream out = mOut;
+        mOut = null;
+        if (out != null)
+            out.close();
+    }
+
+    public boolean isRecording() {
+        return mOut != null;
+    }
+
+    @Override
+    public void sendMouseEvent(float x, float y, int whichButton, boolean buttonDown, boolean relative) {
+        mDelegate.sendMouseEvent(x, y, whichButton, buttonDown, relative);
+        if (mOut != null) try {
+            writeHeader(MOUSE);
+            writeFloat(x);
+            writeFloat(y);
+            writeVarInt(whichButton);
+            mOut.write((buttonDown ? 1 : 0) | (relative ? 2 : 0));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void sendCursorMotion(float x, float y, boolean relative) {
+        mDelegate.sendCursorMotion(x, y, relative);
+        if (mOut != null) try {
+            writeHeader(MOTION);
+            writeFloat(x);
+            writeFloat(y);
+            mOut.write(relative ? 1 : 0);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void sendMouseWheelEvent(float deltaX, float deltaY) {
+        mDelegate.sendMouseWheelEvent(deltaX, deltaY);
+        if (mOut != null) try {
+            writeHeader(WHEEL);
+            writeFloat(deltaX);
+            writeFloat(deltaY);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void sendScrollMotion(float deltaX, float deltaY) {
+        mDelegate.sendScrollMotion(deltaX, deltaY);
+        if (mOut != null) try {
+            writeHeader(SCROLL);
+            writeFloat(deltaX);
+            writeFloat(deltaY);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void sendGestureEvent(int kind, int phase, int fingers, float dx, float dy, float scale, float angle) {
+        mDelegate.sendGestureEvent(kind, phase, fingers, dx, dy, scale, angle);
+        if (mOut != null) try {
+            writeHeader(GESTURE);
+            writeVarInt(kind);
+            writeVarInt(phase);
+            writeVarInt(fingers);
+            writeFloat(dx);
+            writeFloat(dy);
+            writeFloat(scale);
+            writeFloat(angle);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public boolean sendKeyEvent(int scanCode, int keyCode, boolean keyDown) {
+        boolean result = mDelegate.sendKeyEvent(scanCode, keyCode, keyDown);
+        if (mOut != null) try {
+            writeHeader(KEY);
+            writeVarInt(scanCode);
+            writeVarInt(keyCode);
+            mOut.write(keyDown ? 1 : 0);
+        } catch (IOException e) {
+            fail(e);
+        }
+        return result;
+    }
+
+    @Override
+    public void sendTextEvent(byte[] utf8Bytes) {
+        mDelegate.sendTextEvent(utf8Bytes);
+        record(utf8Bytes, utf8Bytes.length);
+    }
+
+    @Override
+    public void sendTextEvent(byte[] utf8Bytes, int length) {
+        mDelegate.sendTextEvent(utf8Bytes, length);
+        record(utf8Bytes, length);
+    }
+
+    private void record(byte[] utf8Bytes, int length) {
+        if (mOut != null) try {
+            writeHeader(TEXT);
+            writeVarInt(length);
+            mOut.write(utf8Bytes, 0, length);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void sendTouchEvent(int action, int pointerId, int x, int y) {
+        mDelegate.sendTouchEvent(action, pointerId, x, y);
+        if (mOut != null) try {
+            writeHeader(TOUCH);
+            writeVarInt(action);
+            writeVarInt(pointerId);
+            writeVarInt(x);
+            writeVarInt(y);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouseMode) {
+        mDelegate.sendStylusEvent(x, y, pressure, tiltX, tiltY, orientation, buttons, eraser, mouseMode);
+        if (mOut != null) try {
+            writeHeader(STYLUS);
+            writeFloat(x);
+            writeFloat(y);
+            writeVarInt(pressure);
+            writeVarInt(tiltX);
+            writeVarInt(tiltY);
+            writeVarInt(orientation);
+            writeVarInt(buttons);
+            mOut.write((eraser ? 1 : 0) | (mouseMode ? 2 : 0));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void beginBatch() {
+        mDelegate.beginBatch();
+        if (mOut != null) try {
+            writeHeader(BEGIN_BATCH);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void flushBatch() {
+        mDelegate.flushBatch();
+        if (mOut != null) try {
+            writeHeader(FLUSH_BATCH);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Event time is recorded relative to the time of the record, so replayed events get the same latency. */
+    @Override
+    public void setEventTime(long nanos) {
+        mDelegate.setEventTime(nanos);
+        if (mOut != null) try {
+            writeHeader(EVENT_TIME);
+            writeVarLong(zigzag(nanos - mLastTime));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        Log.e(TAG, "Failed to write input trace, recording stopped", e);
+        try {
+            stop();
+        } catch (IOException ignored) {}
+    }
+
+    private void writeHeader(int type) throws IOException {
+        long now = System.nanoTime();
+        mOut.write(type);
+        writeVarLong(now - mLastTime);
+        mLastTime = now;
+    }
+
+    private void writeInt(int value) throws IOException {
+        mOut.write(value >>> 24);
+        mOut.write(value >>> 16);
+        mOut.write(value >>> 8);
+        mOut.write(value);
+    }
+
+    private void writeFloat(float value) throws IOException {
+        writeInt(Float.floatToRawIntBits(value));
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        writeVarLong(zigzag(value));
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            mOut.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mOut.write((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
@@ -0,0 +1,269 @@
+package com.termux.x11.input;
+
+import static com.termux.x11.input.InputTraceRecorder.*;
+
+import android.os.Handler;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Reads traces written by {@link InputTraceRecorder} and passes recorded calls to an {@link InputStub}.
+ * Records are decoded one by one into fields of this object, so replaying does not allocate.
+ */
+public final class InputTraceReplayer {
+    private final InputStream mIn;
+    private final float mSpeed;
+    private final InputStub mSink;
+
+    // The record read last.
+    private int mType;
+    private long mTime;
+    private float mX, mY, mZ, mW;
+    private int mA, mB, mC, mD, mE;
+    private int mFlags;
+    // Offset of event time from the time of the record.
+    private long mOffset;
+    // Event time set last, relative to the start of the trace.
+    private long mEventTime;
+    private boolean mHasEventTime;
+    private byte[] mText = new byte[64];
+
+    // Replay clock.
+    private long mStartNanos;
+    private boolean mPending;
+
+    /**
+     * @param in trace, it is closed when trace ends or replay fails.
+     * @param sink stub which receives recorded calls, usually LorieView.
+     * @param speed 1 to replay at original speed, 2 to replay twice as fast and so on,
+     *              0 to replay as fast as possible.
+     * @throws IOException if stream is not an input trace or its version is not supported.
+     */
+    public InputTraceReplayer(InputStream in, InputStub sink, float speed) throws IOException {
+        mIn = new BufferedInputStream(in, 65536);
+        mSink = sink;
+        mSpeed = speed;
+        if (readInt() != MAGIC)
+            throw new IOException("Not an input trace");
+        int version = readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported input trace version " + version);
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return false at the end of trace.
+     */
+    private boolean next() throws IOException {
+        mType = mIn.read();
+        if (mType == -1)
+            return false;
+
+        mTime += readVarLong();
+        switch (mType) {
+            case MOUSE:
+                mX = readFloat();
+                mY = readFloat();
+                mA = readVarInt();
+                mFlags = readByte();
+                break;
+            case WHEEL:
+            case SCROLL:
+                mX = readFloat();
+                mY = readFloat();
+                break;
+            case GESTURE:
+                mA = readVarInt();
+                mB = readVarInt();
+                mC = readVarInt();
+                mX = readFloat();
+                mY = readFloat();
+                mZ = readFloat();
+                mW = readFloat();
+                break;
+            case MOTION:
+                mX = readFloat();
+                mY = readFloat();
+                mFlags = readByte();
+                break;
+            case KEY:
+                mA = readVarInt();
+                mB = readVarInt();
+                mFlags = readByte();
+                break;
+            case TEXT:
+                mA = readVarInt();
+                if (mA < 0)
+                    throw new IOException("Malformed input trace");
+                if (mA > mText.length)
+                    mText = Arrays.copyOf(mText, mA);
+                for (int read = 0, got; read < mA; read += got)
+                    if ((got = mIn.read(mText, read, mA - read)) < 0)
+                        throw new EOFException();
+                break;
+            case TOUCH:
+                mA = readVarInt();
+                mB = readVarInt();
+                mC = readVarInt();
+                mD = readVarInt();
+                break;
+            case STYLUS:
+                mX = readFloat();
+                mY = readFloat();
+                mA = readVarInt();
+                mB = readVarInt();
+                mC = readVarInt();
+                mD = readVarInt();
+                mE = readVarInt();
+                mFlags = readByte();
+                break;
+            case BEGIN_BATCH:
+            case FLUSH_BATCH:
+                break;
+            case EVENT_TIME:
+                mOffset = unzigzag(readVarLong());
+                mEventTime = mTime + mOffset;
+                mHasEventTime = true;
+                break;
+            default:
+                throw new IOException("Unknown input trace record " + mType);
+        }
+        return true;
+    }
+
+    /** Passes the record read last to sink. */
+    private void dispatch() {
+        switch (mType) {
+            case MOUSE: mSink.sendMouseEvent(mX, mY, mA, (mFlags & 1) != 0, (mFlags & 2) != 0); break;
+            case WHEEL: mSink.sendMouseWheelEvent(mX, mY); break;
+            case SCROLL: mSink.sendScrollMotion(mX, mY); break;
+            case GESTURE: mSink.sendGestureEvent(mA, mB, mC, mX, mY, mZ, mW); break;
+            case MOTION: mSink.sendCursorMotion(mX, mY, (mFlags & 1) != 0); break;
+            case KEY: mSink.sendKeyEvent(mA, mB, (mFlags & 1) != 0); break;
+            case TEXT: mSink.sendTextEvent(mText, mA); break;
+            case TOUCH: mSink.sendTouchEvent(mA, mB, mC, mD); break;
+            case STYLUS: mSink.sendStylusEvent(mX, mY, mA, mB, mC, mD, mE, (mFlags & 1) != 0, (mFlags & 2) != 0); break;
+            case BEGIN_BATCH: mSink.beginBatch(); break;
+            case FLUSH_BATCH: mSink.flushBatch(); break;
+            case EVENT_TIME: mSink.setEventTime(System.nanoTime() + (long) (mOffset / (mSpeed > 0 ? mSpeed : 1))); break;
+        }
+    }
+
+    /**
+     * Returns event time set last, or time of the record being dispatched if the trace sets no event time,
+     * in nanoseconds since the start of the trace. Sinks use it to know when recorded events happened
+     * while the trace is replayed as fast as possible.
+     */
+    public long getEventTime() {
+        return mHasEventTime ? mEventTime : mTime;
+    }
+
+    /** Returns how many nanoseconds are left until the record read last is due, 0 if it is due. */
+    private long remaining() {
+        if (mSpeed <= 0)
+            return 0;
+        return Math.max(0, mStartNanos + (long) (mTime / mSpeed) - System.nanoTime());
+    }
+
+    /**
+     * Replays the whole trace on the calling thread, sleeping between records.
+     *
+     * @return number of replayed records.
+     */
+    public long replay() throws IOException {
+        long count = 0;
+        try {
+            mStartNanos = System.nanoTime();
+            while (next()) {
+                for (long remaining = remaining(); remaining > 0; remaining = remaining())
+                    LockSupport.parkNanos(remaining);
+                dispatch();
+                count++;
+            }
+        } finally {
+            mIn.close();
+        }
+        return count;
+    }
+
+    /**
+     * Replays the trace on the thread of the handler without blocking it: due records are dispatched
+     * and the rest is posted to the handler with a delay. Use it to replay into LorieView, which
+     * must be called from UI thread.
+     *
+     * @param onDone called on the handler's thread when trace ends, with the exception if replay failed.
+     */
+    public void replay(Handler handler, Consumer<IOException> onDone) {
+        mStartNanos = System.nanoTime();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (mPending || next()) {
+                        long remaining = remaining();
+                        if (remaining > 0) {
+                            mPending = true;
+                            handler.postDelayed(this, Math.max(1, remaining / 1000000));
+                            return;
+                        }
+                        mPending = false;
+                        dispatch();
+                    }
+                } catch (IOException e) {
+                    close();
+                    onDone.accept(e);
+                    return;
+                }
+                close();
+                onDone.accept(null);
+            }
+        });
+    }
+
+    private void close() {
+        try {
+            mIn.close();
+        } catch (IOException ignored) {}
+    }
+
+    private int readByte() throws IOException {
+        int b = mIn.read();
+        if (b < 0)
+            throw new EOFException();
+        return b;
+    }
+
+    private int readInt() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    private float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    private int readVarInt() throws IOException {
+        return (int) unzigzag(readVarLong());
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed input trace");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
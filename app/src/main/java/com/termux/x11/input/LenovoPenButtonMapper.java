@@ -22,7 +22,7 @@ import dev.ilamparithi.lppdebug.helper.PenButtonEvent;
  */
 public final class LenovoPenButtonMapper {
     private final Context context;
-    private final TouchInputHandler inputHandler;
+    private final StylusPipeline stylus;
     private final LenovoPenButtonListener listener;
     private final Handler handler = new Handler(Looper.getMainLooper());
     private final Map<PenButtonEvent, GestureConfig> configs = new EnumMap<>(PenButtonEvent.class);
@@ -34,11 +34,11 @@ public final class LenovoPenButtonMapper {
     private boolean showDetections;
     private boolean showToggleDebug;
 
-    public LenovoPenButtonMapper(Context context, TouchInputHandler inputHandler) {
+    public LenovoPenButtonMapper(Context context, StylusPipeline stylus) {
         this.context = context.getApplicationContext();
-        this.inputHandler = inputHandler;
+        this.stylus = stylus;
         this.listener = new LenovoPenButtonListener(this::handlePenEvent, msg -> {});
-        this.inputHandler.addStylusStateListener(this::onStylusState);
+        this.stylus.addListener(this::onStylusState);
     }
 
     public boolean onKeyEvent(KeyEvent event) {
@@ -52,35 +52,35 @@ public final class LenovoPenButtonMapper {
         toggledMask = 0;
         pressHoldMask = 0;
         offOnLiftMask = 0;
-        inputHandler.applyStylusToggleMask(0);
-        inputHandler.applyStylusHoldMask(0);
+        stylus.setToggleMask(0);
+        stylus.setHoldMask(0);
         pendingReleases.values().forEach(handler::removeCallbacks);
         pendingReleases.clear();
         configs.put(PenButtonEvent.SINGLE_PRESS, buildConfig(
-                prefs.get().getString("lenovoPenSinglePressAction", "disabled"),
-                prefs.get().getBoolean("lenovoPenSinglePressToggle", false),
-            prefs.get().getBoolean("lenovoPenSinglePressToggleOffOnLift", false),
-                prefs.get().getString("lenovoPenSinglePressDurationMs", "150")));
+                prefs.lenovoPenSinglePressAction.get(),
+                prefs.lenovoPenSinglePressToggle.get(),
+                prefs.lenovoPenSinglePressToggleOffOnLift.get(),
+                prefs.lenovoPenSinglePressDurationMs.get()));
         configs.put(PenButtonEvent.DOUBLE_PRESS, buildConfig(
-                prefs.get().getString("lenovoPenDoublePressAction", "disabled"),
-                prefs.get().getBoolean("lenovoPenDoublePressToggle", false),
-            prefs.get().getBoolean("lenovoPenDoublePressToggleOffOnLift", false),
-                prefs.get().getString("lenovoPenDoublePressDurationMs", "150")));
+                prefs.lenovoPenDoublePressAction.get(),
+                prefs.lenovoPenDoublePressToggle.get(),
+                prefs.lenovoPenDoublePressToggleOffOnLift.get(),
+                prefs.lenovoPenDoublePressDurationMs.get()));
         configs.put(PenButtonEvent.TRIPLE_PRESS, buildConfig(
-                prefs.get().getString("lenovoPenTriplePressAction", "disabled"),
-                prefs.get().getBoolean("lenovoPenTriplePressToggle", false),
-            prefs.get().getBoolean("lenovoPenTriplePressToggleOffOnLift", false),
-                prefs.get().getString("lenovoPenTriplePressDurationMs", "150")));
+                prefs.lenovoPenTriplePressAction.get(),
+                prefs.lenovoPenTriplePressToggle.get(),
+                prefs.lenovoPenTriplePressToggleOffOnLift.get(),
+                prefs.lenovoPenTriplePressDurationMs.get()));
         configs.put(PenButtonEvent.LONG_PRESS, buildConfig(
-                prefs.get().getString("lenovoPenLongPressAction", "disabled"),
-                prefs.get().getBoolean("lenovoPenLongPressToggle", false),
-            prefs.get().getBoolean("lenovoPenLongPressToggleOffOnLift", false),
-                prefs.get().getString("lenovoPenLongPressDurationMs", "150")));
+                prefs.lenovoPenLongPressAction.get(),
+                prefs.lenovoPenLongPressToggle.get(),
+                prefs.lenovoPenLongPressToggleOffOnLift.get(),
+                prefs.lenovoPenLongPressDurationMs.get()));
         configs.put(PenButtonEvent.LONG_PRESS_AND_CLICK, buildConfig(
-                prefs.get().getString("lenovoPenLongPressClickAction", "disabled"),
-                prefs.get().getBoolean("lenovoPenLongPressClickToggle", false),
-            prefs.get().getBoolean("lenovoPenLongPressClickToggleOffOnLift", false),
-                prefs.get().getString("lenovoPenLongPressClickDurationMs", "150")));
+                prefs.lenovoPenLongPressClickAction.get(),
+                prefs.lenovoPenLongPressClickToggle.get(),
+                prefs.lenovoPenLongPressClickToggleOffOnLift.get(),
+                prefs.lenovoPenLongPressClickDurationMs.get()));
 
         validateConfigs();
     }
@@ -152,11 +152,11 @@ public final class LenovoPenButtonMapper {
         // Toggle overrides any active press on the same buttons.
         if ((pressHoldMask & buttonMask) != 0) {
             pressHoldMask &= ~buttonMask;
-            inputHandler.applyStylusHoldMask(pressHoldMask);
+            stylus.setHoldMask(pressHoldMask);
         }
         toggledMask ^= buttonMask;
         boolean on = (toggledMask & buttonMask) != 0;
-        inputHandler.applyStylusToggleMask(toggledMask);
+        stylus.setToggleMask(toggledMask);
 
         GestureConfig cfg = configs.get(event);
         if (cfg != null && cfg.toggleOffOnLift) {
@@ -178,15 +178,15 @@ public final class LenovoPenButtonMapper {
         // Press overrides toggle state for these buttons.
         if ((toggledMask & buttonMask) != 0) {
             toggledMask &= ~buttonMask;
-            inputHandler.applyStylusToggleMask(toggledMask);
+            stylus.setToggleMask(toggledMask);
         }
         offOnLiftMask &= ~buttonMask;
         pressHoldMask |= buttonMask;
-        inputHandler.applyStylusHoldMask(pressHoldMask);
+        stylus.setHoldMask(pressHoldMask);
 
         Runnable release = () -> {
             pressHoldMask &= ~buttonMask;
-            inputHandler.applyStylusHoldMask(pressHoldMask);
+            stylus.setHoldMask(pressHoldMask);
         };
         pendingReleases.put(event, release);
         handler.postDelayed(release, Math.max(0, durationMs));
@@ -213,10 +213,10 @@ public final class LenovoPenButtonMapper {
             int mask = offOnLiftMask;
             toggledMask &= ~mask;
             offOnLiftMask &= ~mask;
-            inputHandler.applyStylusToggleMask(toggledMask);
-            StylusState current = inputHandler.getLastStylusState();
+            stylus.setToggleMask(toggledMask);
+            StylusState current = stylus.getLastState();
             int targetButtons = current.buttons & ~mask;
-            inputHandler.sendStylusButtons(targetButtons);
+            stylus.sendButtons(targetButtons);
         }
     }
 
@@ -0,0 +1,204 @@
+package com.termux.x11.input;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes input events to a direct buffer in the layout of lorieEvent (see events.h), so a whole
+ * batch of events reaches native code with a single JNI call instead of one call per event.
+ *
+ * Events are flushed after every call, or when the outermost batch is flushed, or when the buffer
+ * is full. The encoder does not depend on native code, {@link Flusher} decides where the bytes go.
+ * Like other {@link InputStub} implementations it is not thread-safe and must be used from UI thread.
+ */
+public final class LorieEventEncoder implements InputStub {
+    /** Receives encoded events, they occupy the first {@code length} bytes of the buffer. */
+    public interface Flusher {
+        void flush(ByteBuffer buffer, int length);
+    }
+
+    // These constants must match those in events.h.
+    static final int EVENT_TOUCH = 5;
+    static final int EVENT_MOUSE = 6;
+    static final int EVENT_KEY = 7;
+    static final int EVENT_STYLUS = 8;
+    static final int EVENT_GESTURE = 18;
+    static final int EVENT_TEXT = 20;
+
+    /** sizeof(lorieEvent), every event occupies that much and text follows its event. */
+    public static final int EVENT_SIZE = 32;
+    /** Offset of time, it follows fields of every event. */
+    private static final int TIME = 24;
+    /** Enough for a gesture of 64 events, the same as batch buffer of activity. */
+    public static final int DEFAULT_CAPACITY = 64 * EVENT_SIZE;
+
+    private final ByteBuffer mBuffer;
+    private final Flusher mFlusher;
+    private final int[] mKeycodes;
+    private int mUsed = 0;
+    private int mDepth = 0;
+    private long mTime = 0;
+
+    /**
+     * @param capacity size of buffer, at least 2 events.
+     * @param keycodes table converting Android keycodes to Linux ones, used for keys without scancode.
+     * @param flusher receives encoded events.
+     */
+    public LorieEventEncoder(int capacity, int[] keycodes, Flusher flusher) {
+        if (capacity < 2 * EVENT_SIZE)
+            throw new IllegalArgumentException("Buffer is too small");
+        mBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        mKeycodes = keycodes;
+        mFlusher = flusher;
+    }
+
+    /** Returns the buffer events are written to, native code can keep its address. */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /** Starts a new zeroed event, flushing the buffer first if there is no room for it and {@code size} bytes after it. */
+    private int begin(int type, int size) {
+        if (mUsed + EVENT_SIZE + size > mBuffer.capacity())
+            flush();
+
+        int at = mUsed;
+        for (int i = 0; i < EVENT_SIZE; i += 8)
+            mBuffer.putLong(at + i, 0);
+        mBuffer.put(at, (byte) type);
+        mUsed += EVENT_SIZE;
+        return at;
+    }
+
+    /** Returns time of the event being written, CLOCK_MONOTONIC is the clock of {@link System#nanoTime()} on Android. */
+    private long time() {
+        return mTime != 0 ? mTime : System.nanoTime();
+    }
+
+    /** Flushes the event just written unless a batch is open. */
+    private void end() {
+        if (mDepth == 0)
+            flush();
+    }
+
+    private void flush() {
+        if (mUsed > 0)
+            mFlusher.flush(mBuffer, mUsed);
+        mUsed = 0;
+    }
+
+    @Override
+    public void sendMouseEvent(float x, float y, int whichButton, boolean buttonDown, boolean relative) {
+        int at = begin(EVENT_MOUSE, 0);
+        mBuffer.putFloat(at + 4, x);
+        mBuffer.putFloat(at + 8, y);
+        mBuffer.put(at + 12, (byte) whichButton);
+        mBuffer.put(at + 13, (byte) (buttonDown ? 1 : 0));
+        mBuffer.put(at + 14, (byte) (relative ? 1 : 0));
+        mBuffer.putLong(at + TIME, time());
+        end();
+    }
+
+    @Override
+    public void sendMouseWheelEvent(float deltaX, float deltaY) {
+        sendMouseEvent(deltaX, deltaY, BUTTON_SCROLL, false, true);
+    }
+
+    @Override
+    public boolean sendKeyEvent(int scanCode, int keyCode, boolean keyDown) {
+        int code = scanCode != 0 ? scanCode : (keyCode >= 0 && keyCode < mKeycodes.length ? mKeycodes[keyCode] : 0);
+        int at = begin(EVENT_KEY, 0);
+        // X server keycodes are evdev keycodes shifted by 8.
+        mBuffer.putShort(at + 2, (short) (code + 8));
+        mBuffer.put(at + 4, (byte) (keyDown ? 1 : 0));
+        mBuffer.putLong(at + TIME, time());
+        end();
+        return true;
+    }
+
+    /** Text which does not fit the buffer is split into several events at character boundaries. */
+    @Override
+    public void sendTextEvent(byte[] utf8Bytes, int length) {
+        length = Math.max(0, Math.min(length, utf8Bytes.length));
+        for (int offset = 0, chunk; offset < length; offset += chunk) {
+            chunk = Math.min(length - offset, mBuffer.capacity() - EVENT_SIZE);
+            // Do not split a character, continuation bytes look like 10xxxxxx.
+            if (offset + chunk < length)
+                while (chunk > 1 && (utf8Bytes[offset + chunk] & 0xC0) == 0x80)
+                    chunk--;
+
+            int at = begin(EVENT_TEXT, chunk);
+            // ringHead (at offset 8) is set by native code when the event is sent.
+            mBuffer.putInt(at + 4, chunk);
+            mBuffer.putLong(at + TIME, time());
+            mBuffer.position(mUsed);
+            mBuffer.put(utf8Bytes, offset, chunk);
+            mBuffer.position(0);
+            mUsed += chunk;
+        }
+        end();
+    }
+
+    @Override
+    public void sendTouchEvent(int action, int pointerId, int x, int y) {
+        if (action == -1)
+            return;
+
+        int at = begin(EVENT_TOUCH, 0);
+        mBuffer.putShort(at + 2, (short) action);
+        mBuffer.putShort(at + 4, (short) pointerId);
+        mBuffer.putShort(at + 6, (short) x);
+        mBuffer.putShort(at + 8, (short) y);
+        mBuffer.putLong(at + TIME, time());
+        end();
+    }
+
+    @Override
+    public void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouseMode) {
+        int at = begin(EVENT_STYLUS, 0);
+        mBuffer.putFloat(at + 4, x);
+        mBuffer.putFloat(at + 8, y);
+        mBuffer.putShort(at + 12, (short) pressure);
+        mBuffer.put(at + 14, (byte) tiltX);
+        mBuffer.put(at + 15, (byte) tiltY);
+        mBuffer.putShort(at + 16, (short) orientation);
+        mBuffer.put(at + 18, (byte) buttons);
+        mBuffer.put(at + 19, (byte) (eraser ? 1 : 0));
+        mBuffer.put(at + 20, (byte) (mouseMode ? 1 : 0));
+        mBuffer.putLong(at + TIME, time());
+        end();
+    }
+
+    @Override
+    public void sendGestureEvent(int kind, int phase, int fingers, float dx, float dy, float scale, float angle) {
+        int at = begin(EVENT_GESTURE, 0);
+        mBuffer.put(at + 1, (byte) kind);
+        mBuffer.put(at + 2, (byte) phase);
+        mBuffer.put(at + 3, (byte) fingers);
+        mBuffer.putFloat(at + 4, dx);
+        mBuffer.putFloat(at + 8, dy);
+        mBuffer.putFloat(at + 12, scale);
+        mBuffer.putFloat(at + 16, angle);
+        mBuffer.putLong(at + TIME, time());
+        end();
+    }
+
+    @Override
+    public void beginBatch() {
+        mDepth++;
+    }
+
+    @Override
+    public void flushBatch() {
+        if (mDepth > 0 && --mDepth == 0) {
+            mTime = 0;
+            flush();
+        }
+    }
+
+    @Override
+    public void setEventTime(long nanos) {
+        if (mDepth > 0)
+            mTime = nanos;
+    }
+}
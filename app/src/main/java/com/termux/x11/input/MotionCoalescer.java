@@ -0,0 +1,176 @@
+package com.termux.x11.input;
+
+import android.view.Choreographer;
+
+/**
+ * {@link InputStub} decorator which collects cursor motion passed to {@link #sendCursorMotion} and
+ * scrolling passed to {@link #sendScrollMotion} and sends them once per frame. High polling rate mice
+ * report up to 1000 moves per second and precision touchpads report scrolling as often, X server needs
+ * only one event per frame.
+ *
+ * Relative motion and scrolling are summed, absolute motion keeps only the latest position. Deltas are
+ * floats and X server accumulates them with sub-pixel precision (scrolling goes to smooth scroll
+ * valuators), so summing does not lose the fractional part. Only one kind of motion is collected at a
+ * time, a different kind sends what was collected first. Collected motion is stamped with the time of
+ * its first part, which is the time set with {@link #setEventTime} when it was collected.
+ *
+ * Collected motion is sent before any other event, so buttons, keys and the rest are delivered at the
+ * position cursor had when they happened. Like other {@link InputStub} implementations it must be used
+ * from UI thread.
+ */
+public final class MotionCoalescer implements InputStub, Choreographer.FrameCallback {
+    private static final int ABSOLUTE = 0, RELATIVE = 1, SCROLL = 2;
+
+    private final InputStub mDelegate;
+    private Choreographer mChoreographer;
+
+    private boolean mPending;
+    private boolean mScheduled;
+    private int mKind;
+    private float mX, mY;
+    // Time of the first collected motion, collected motion is as late as its oldest part.
+    private long mTime;
+    // Time set with setEventTime for the current batch, 0 if events are stamped when they are sent.
+    private long mEventTime;
+    private int mDepth;
+
+    public MotionCoalescer(InputStub delegate) {
+        if (delegate == null)
+            throw new NullPointerException();
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void sendCursorMotion(float x, float y, boolean relative) {
+        collect(relative ? RELATIVE : ABSOLUTE, x, y);
+    }
+
+    @Override
+    public void sendScrollMotion(float deltaX, float deltaY) {
+        collect(SCROLL, deltaX, deltaY);
+    }
+
+    private void collect(int kind, float x, float y) {
+        if (mPending && mKind != kind)
+            flush();
+
+        if (!mPending) {
+            mPending = true;
+            mKind = kind;
+            mTime = mEventTime != 0 ? mEventTime : System.nanoTime();
+            mX = mY = 0;
+        }
+
+        if (kind != ABSOLUTE) {
+            mX += x;
+            mY += y;
+        } else {
+            mX = x;
+            mY = y;
+        }
+
+        if (!mScheduled) {
+            // Choreographer belongs to the thread it was obtained from, so it is obtained when UI thread uses it.
+            if (mChoreographer == null)
+                mChoreographer = Choreographer.getInstance();
+            mChoreographer.postFrameCallback(this);
+            mScheduled = true;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        if (!mPending)
+            return;
+
+        flush();
+    }
+
+    /** Sends collected motion with the time of its first part, if there is any. */
+    private void flush() {
+        if (!mPending)
+            return;
+
+        mPending = false;
+        mDelegate.beginBatch();
+        mDelegate.setEventTime(mTime);
+        send();
+        // Events of the caller's batch keep their own time.
+        mDelegate.setEventTime(mEventTime);
+        mDelegate.flushBatch();
+    }
+
+    private void send() {
+        if (mKind == ABSOLUTE)
+            mDelegate.sendMouseEvent(mX, mY, BUTTON_UNDEFINED, false, false);
+        else if (mX != 0 || mY != 0) {
+            if (mKind == SCROLL)
+                mDelegate.sendMouseWheelEvent(mX, mY);
+            else
+                mDelegate.sendMouseEvent(mX, mY, BUTTON_UNDEFINED, false, true);
+        }
+    }
+
+    @Override
+    public void sendMouseEvent(float x, float y, int whichButton, boolean buttonDown, boolean relative) {
+        flush();
+        mDelegate.sendMouseEvent(x, y, whichButton, buttonDown, relative);
+    }
+
+    @Override
+    public void sendMouseWheelEvent(float deltaX, float deltaY) {
+        flush();
+        mDelegate.sendMouseWheelEvent(deltaX, deltaY);
+    }
+
+    @Override
+    public void sendGestureEvent(int kind, int phase, int fingers, float dx, float dy, float scale, float angle) {
+        flush();
+        mDelegate.sendGestureEvent(kind, phase, fingers, dx, dy, scale, angle);
+    }
+
+    @Override
+    public boolean sendKeyEvent(int scanCode, int keyCode, boolean keyDown) {
+        flush();
+        return mDelegate.sendKeyEvent(scanCode, keyCode, keyDown);
+    }
+
+    @Override
+    public void sendTextEvent(byte[] utf8Bytes, int length) {
+        flush();
+        mDelegate.sendTextEvent(utf8Bytes, length);
+    }
+
+    @Override
+    public void sendTouchEvent(int action, int pointerId, int x, int y) {
+        flush();
+        mDelegate.sendTouchEvent(action, pointerId, x, y);
+    }
+
+    @Override
+    public void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouseMode) {
+        flush();
+        mDelegate.sendStylusEvent(x, y, pressure, tiltX, tiltY, orientation, buttons, eraser, mouseMode);
+    }
+
+    @Override
+    public void beginBatch() {
+        mDepth++;
+        mDelegate.beginBatch();
+    }
+
+    @Override
+    public void flushBatch() {
+        if (mDepth > 0 && --mDepth == 0)
+            mEventTime = 0;
+        mDelegate.flushBatch();
+    }
+
+    @Override
+    public void setEventTime(long nanos) {
+        if (mDepth > 0)
+            mEventTime = nanos;
+        mDelegate.setEventTime(nanos);
+    }
+}
@@ -0,0 +1,124 @@
+package com.termux.x11.input;
+
+import java.util.Arrays;
+
+/**
+ * Predicts where pointers will be a few milliseconds ahead, used where Android's MotionPredictor is
+ * not available. Every axis of every pointer is tracked by a constant velocity Kalman filter, so noise
+ * of samples is smoothed out of the velocity and sudden stops are followed within a few samples.
+ *
+ * It does not depend on Android classes and does not allocate, so it is evaluated against recorded
+ * strokes on a plain JVM. Times are in nanoseconds, coordinates are in any units.
+ */
+public final class PositionPredictor {
+    private static final float NANOS = 1e-9f;
+    // Variance of acceleration of a hand, in units per second squared, squared.
+    private static final float ACCELERATION_VARIANCE = 1e9f;
+    // Variance of reported position, in units squared.
+    private static final float MEASUREMENT_VARIANCE = 1f;
+    // Velocity is unknown when a pointer goes down.
+    private static final float INITIAL_VELOCITY_VARIANCE = 1e6f;
+    // A pointer which did not report anything for so long stopped, its velocity is stale.
+    private static final long MAX_GAP_NANOS = 100_000_000L;
+
+    private static final int SLOTS = TouchSlotTracker.MAX_POINTER_ID + 1;
+
+    private final long mMaxHorizonNanos;
+    private final long[] mTime = new long[SLOTS];
+    private final int[] mCount = new int[SLOTS];
+    // Position, velocity and covariance of x and y axes of every slot, each axis takes 5 floats.
+    private final float[] mX = new float[SLOTS * 5], mY = new float[SLOTS * 5];
+
+    /** @param maxHorizonNanos predictions never go further than that past the last sample. */
+    public PositionPredictor(long maxHorizonNanos) {
+        mMaxHorizonNanos = maxHorizonNanos;
+    }
+
+    private static boolean valid(int id) {
+        return id >= 0 && id < SLOTS;
+    }
+
+    /** Forgets the pointer, the next sample starts a new stroke. */
+    public void reset(int id) {
+        if (valid(id))
+            mCount[id] = 0;
+    }
+
+    public void resetAll() {
+        Arrays.fill(mCount, 0);
+    }
+
+    /** Adds a sample of the pointer. Samples must be added in order of time. */
+    public void add(int id, long timeNanos, float x, float y) {
+        if (!valid(id))
+            return;
+
+        long dt = timeNanos - mTime[id];
+        if (mCount[id] == 0 || dt > MAX_GAP_NANOS || dt < 0) {
+            init(mX, id * 5, x);
+            init(mY, id * 5, y);
+            mCount[id] = 1;
+            mTime[id] = timeNanos;
+            return;
+        }
+
+        update(mX, id * 5, x, dt * NANOS);
+        update(mY, id * 5, y, dt * NANOS);
+        mTime[id] = timeNanos;
+        mCount[id]++;
+    }
+
+    /**
+     * Writes predicted position of the pointer at the given time to out[0] and out[1].
+     *
+     * @return false if the pointer has less than 2 samples, or the time is more than the maximal
+     *         horizon past its last sample.
+     */
+    public boolean predict(int id, long timeNanos, float[] out) {
+        if (!valid(id) || mCount[id] < 2)
+            return false;
+
+        long horizon = timeNanos - mTime[id];
+        if (horizon > mMaxHorizonNanos)
+            return false;
+
+        float h = Math.max(horizon, 0) * NANOS;
+        int i = id * 5;
+        out[0] = mX[i] + mX[i + 1] * h;
+        out[1] = mY[i] + mY[i + 1] * h;
+        return true;
+    }
+
+    /** Returns time of the last sample of the pointer. */
+    public long getTime(int id) {
+        return valid(id) ? mTime[id] : 0;
+    }
+
+    // Axis state is position, velocity, and covariance matrix [[p00, p01], [p01, p11]].
+    private static void init(float[] s, int i, float z) {
+        s[i] = z;
+        s[i + 1] = 0;
+        s[i + 2] = MEASUREMENT_VARIANCE;
+        s[i + 3] = 0;
+        s[i + 4] = INITIAL_VELOCITY_VARIANCE;
+    }
+
+    private static void update(float[] s, int i, float z, float dt) {
+        float p = s[i], v = s[i + 1], p00 = s[i + 2], p01 = s[i + 3], p11 = s[i + 4];
+
+        // Predict with white noise acceleration.
+        float dt2 = dt * dt, q = ACCELERATION_VARIANCE;
+        p += v * dt;
+        p00 += dt * (2 * p01 + dt * p11) + q * dt2 * dt2 / 4;
+        p01 += dt * p11 + q * dt2 * dt / 2;
+        p11 += q * dt2;
+
+        // Correct with the measured position.
+        float k = 1 / (p00 + MEASUREMENT_VARIANCE), k0 = p00 * k, k1 = p01 * k, y = z - p;
+        s[i] = p + k0 * y;
+        s[i + 1] = v + k1 * y;
+        s[i + 2] = (1 - k0) * p00;
+        s[i + 3] = (1 - k0) * p01;
+        s[i + 4] = p11 - k1 * p01;
+    }
+}
@@ -18,6 +18,47 @@ public class RenderData {
     public int imageWidth;
     public int imageHeight;
 
+    /** Largest zoom of the viewport. */
+    public static final float MAX_ZOOM = 8;
+
+    /**
+     * Zoom of the viewport, 1 when the whole image is shown. Renderer draws the image with the same
+     * transform, so coordinates of the view are mapped back through it before they are sent.
+     */
+    public float zoom = 1;
+
+    /** Position of the top left corner of the viewport, in coordinates of the unzoomed view. */
+    public float offsetX, offsetY;
+
+    /**
+     * Sets the viewport, zoom is clamped to [1, {@link #MAX_ZOOM}] and offset is clamped so the
+     * viewport does not leave the image.
+     *
+     * @return True if the viewport has changed.
+     */
+    public boolean setViewport(float newZoom, float newOffsetX, float newOffsetY) {
+        newZoom = Math.max(1, Math.min(newZoom, MAX_ZOOM));
+        newOffsetX = Math.max(0, Math.min(newOffsetX, imageWidth - imageWidth / newZoom));
+        newOffsetY = Math.max(0, Math.min(newOffsetY, imageHeight - imageHeight / newZoom));
+        if (newZoom == zoom && newOffsetX == offsetX && newOffsetY == offsetY)
+            return false;
+
+        zoom = newZoom;
+        offsetX = newOffsetX;
+        offsetY = newOffsetY;
+        return true;
+    }
+
+    /** Maps x coordinate of the view to the coordinate of X screen. */
+    public float mapX(float x) {
+        return (offsetX + x / zoom) * scale.x;
+    }
+
+    /** Maps y coordinate of the view to the coordinate of X screen. */
+    public float mapY(float y) {
+        return (offsetY + y / zoom) * scale.y;
+    }
+
     /**
      * Specifies the position, in image coordinates, at which the cursor image will be drawn.
      * This will normally be at the location of the most recently injected motion event.
@@ -25,12 +66,15 @@ public class RenderData {
     private final PointF mCursorPosition = new PointF();
 
     /**
-     * Returns the position of the rendered cursor.
+     * Returns the position of the rendered cursor. It is written to the given point, so input
+     * handlers keep one point per handler instead of allocating one per event.
      *
-     * @return A point representing the current position.
+     * @param out The point to write the position to.
+     * @return The given point.
      */
-    public PointF getCursorPosition() {
-        return new PointF(mCursorPosition.x, mCursorPosition.y);
+    public PointF getCursorPosition(PointF out) {
+        out.set(mCursorPosition.x, mCursorPosition.y);
+        return out;
     }
 
     /**
@@ -0,0 +1,208 @@
+package com.termux.x11.input;
+
+import android.graphics.PointF;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Converts stylus samples to {@link StylusState}, applies button overlays and passes the result to
+ * X server and to registered listeners.
+ * Styluses report 240-480 samples per second, so this path does not allocate anything: states are
+ * preallocated and reused and listeners are kept in a copy-on-write array.
+ */
+public final class StylusPipeline {
+    public static final String TAG = "STYLUS_EVENT";
+    /** Run `adb shell setprop log.tag.STYLUS_EVENT DEBUG` and restart the app to log stylus events. */
+    public static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    /** State passed to listener is reused after it returns, it should be copied to be kept. */
+    public interface Listener {
+        void onStylusState(StylusState state);
+    }
+
+    private static final Listener[] NO_LISTENERS = {};
+
+    private final InputEventSender mInjector;
+    private final RenderData mRenderData;
+    private final StylusState mLastState = new StylusState();
+    private final StylusState mLastRawState = new StylusState();
+    private final StylusState mSample = new StylusState();
+    private final StylusState mButtonsState = new StylusState();
+    private final PointF mCursor = new PointF();
+    // Listeners can send stylus state again, every nesting level has its own state.
+    private StylusState[] mPool = { new StylusState(), new StylusState() };
+    private int mDepth = 0;
+    private Listener[] mListeners = NO_LISTENERS;
+    private int mToggleMask = 0;
+    private int mHoldMask = 0;
+
+    // The last sample, used to drop duplicates.
+    private float mX = 0, mY = 0, mPressure = 0, mTilt = 0, mOrientation = 0;
+    private int mButtons = 0;
+
+    public StylusPipeline(InputEventSender injector, RenderData renderData) {
+        mInjector = injector;
+        mRenderData = renderData;
+        PointF cursor = mRenderData.getCursorPosition(mCursor);
+        mLastState.x = cursor.x;
+        mLastState.y = cursor.y;
+        mLastState.mouse = mInjector.stylusIsMouse;
+        mLastRawState.setFrom(mLastState);
+    }
+
+    private static int convertOrientation(float value) {
+        int newValue = (int) (((value * 180 / Math.PI) + 360) % 360);
+        if (newValue > 180)
+            newValue = (newValue - 360) % 360;
+        return newValue;
+    }
+
+    /**
+     * Sends a sample reported by stylus, unless it is the same as the previous one.
+     *
+     * @param x X coordinate in X server's screen coordinates.
+     * @param y Y coordinate in X server's screen coordinates.
+     * @param pressure pressure, from 0 to 1.
+     * @param tilt value of AXIS_TILT.
+     * @param orientation value of AXIS_ORIENTATION.
+     * @param buttons pressed buttons.
+     * @param hasTiltAndOrientation true if tilt and orientation are reported by device.
+     * @param eraser true if eraser end of stylus is used.
+     * @return true if sample was sent.
+     */
+    public boolean onSample(float x, float y, float pressure, float tilt, float orientation, int buttons, boolean hasTiltAndOrientation, boolean eraser) {
+        StylusState state = mSample;
+        if (mX == x && mY == y && mPressure == pressure && mTilt == tilt && mOrientation == orientation && mButtons == buttons)
+            return false;
+
+        if (hasTiltAndOrientation) {
+            mOrientation = orientation;
+            mTilt = tilt;
+            state.setTilt(orientation, tilt);
+        } else
+            state.tiltX = state.tiltY = 0;
+
+        mX = x;
+        mY = y;
+        mPressure = pressure;
+        mButtons = buttons;
+        state.x = x;
+        state.y = y;
+        state.pressure = (int) (pressure * 65535);
+        state.orientation = convertOrientation(mOrientation);
+        state.buttons = buttons;
+        state.eraser = eraser;
+        state.mouse = mInjector.stylusIsMouse;
+        send(state);
+        return true;
+    }
+
+    /**
+     * Sends the last sample moved to the predicted position, in X server's screen coordinates.
+     * The next sample is sent even if it is the same as the previous one, so it corrects the prediction.
+     */
+    public void sendPredicted(float x, float y) {
+        if (mSample.x == x && mSample.y == y)
+            return;
+        mSample.x = x;
+        mSample.y = y;
+        mX = Float.NaN;
+        send(mSample);
+    }
+
+    /**
+     * Sends the state with button overlays applied and passes it to listeners.
+     * The given state is not modified and not retained.
+     */
+    public void send(StylusState state) {
+        if (state == null)
+            return;
+
+        if (mDepth == mPool.length) {
+            mPool = Arrays.copyOf(mPool, mPool.length * 2);
+            for (int i = mDepth; i < mPool.length; i++)
+                mPool[i] = new StylusState();
+        }
+
+        StylusState next = mPool[mDepth++];
+        try {
+            next.setFrom(state);
+            if (Float.isNaN(next.x) || Float.isNaN(next.y)) {
+                PointF cursor = mRenderData.getCursorPosition(mCursor);
+                next.x = cursor.x;
+                next.y = cursor.y;
+            }
+
+            if (!next.mouse)
+                next.mouse = mInjector.stylusIsMouse;
+
+            mLastRawState.setFrom(next);
+            mLastRawState.buttons &= ~(mToggleMask | mHoldMask);
+            next.buttons = mLastRawState.buttons | mToggleMask | mHoldMask;
+
+            mLastState.setFrom(next);
+            mInjector.sendStylusEvent(next.x, next.y, next.pressure, next.tiltX, next.tiltY, next.orientation, next.buttons, next.eraser, next.mouse);
+
+            for (Listener listener : mListeners)
+                listener.onStylusState(next);
+        } finally {
+            mDepth--;
+        }
+    }
+
+    /** Sends the last state with different buttons. */
+    public void sendButtons(int buttons) {
+        mButtonsState.setFrom(mLastState);
+        mButtonsState.buttons = buttons;
+        send(mButtonsState);
+    }
+
+    public StylusState getLastState() {
+        return mLastState.copy();
+    }
+
+    public StylusState getLastRawState() {
+        return mLastRawState.copy();
+    }
+
+    void setMouse(boolean mouse) {
+        mLastState.mouse = mouse;
+    }
+
+    public int getToggleMask() {
+        return mToggleMask;
+    }
+
+    public void setToggleMask(int mask) {
+        mToggleMask = mask;
+        // Re-send current state so the overlay takes effect immediately.
+        send(mLastRawState);
+    }
+
+    public void setHoldMask(int mask) {
+        mHoldMask = mask;
+        // Re-send current state so the overlay takes effect immediately.
+        send(mLastRawState);
+    }
+
+    public void addListener(Listener listener) {
+        if (listener == null || Arrays.asList(mListeners).contains(listener))
+            return;
+
+        Listener[] listeners = Arrays.copyOf(mListeners, mListeners.length + 1);
+        listeners[mListeners.length] = listener;
+        mListeners = listeners;
+    }
+
+    public void removeListener(Listener listener) {
+        for (int i = 0; i < mListeners.length; i++) {
+            if (mListeners[i].equals(listener)) {
+                Listener[] listeners = Arrays.copyOf(mListeners, mListeners.length - 1);
+                System.arraycopy(mListeners, i + 1, listeners, i, mListeners.length - i - 1);
+                mListeners = listeners.length > 0 ? listeners : NO_LISTENERS;
+                return;
+            }
+        }
+    }
+}
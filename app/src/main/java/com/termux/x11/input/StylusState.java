@@ -36,4 +36,33 @@ public final class StylusState {
         eraser = other.eraser;
         mouse = other.mouse;
     }
+
+    /**
+     * Sets {@link #tiltX} and {@link #tiltY} from values of Android's AXIS_ORIENTATION and AXIS_TILT.
+     *
+     * @param orientation orientation in radians, from -PI to PI.
+     * @param tilt tilt in radians, from 0 to PI/2.
+     */
+    public void setTilt(float orientation, float tilt) {
+        int o = Math.max(-180, Math.min(180, Math.round(orientation * (float) (180 / Math.PI)))) + 180;
+        int t = Math.max(0, Math.min(90, Math.round(tilt * (float) (180 / Math.PI))));
+        tiltX = TiltTable.X[o * 91 + t];
+        tiltY = TiltTable.Y[o * 91 + t];
+    }
+
+    // Results of conversion of every orientation and tilt with 1 degree step.
+    // It is precise to 1 unit of tilt, but does not cost 5 trigonometric functions per sample.
+    private static final class TiltTable {
+        static final byte[] X = new byte[361 * 91], Y = new byte[361 * 91];
+
+        static {
+            for (int o = 0; o <= 360; o++) {
+                for (int t = 0; t <= 90; t++) {
+                    double orientation = Math.toRadians(o - 180), tilt = Math.toRadians(t);
+                    X[o * 91 + t] = (byte) Math.round((float) Math.asin(-Math.sin(orientation) * Math.sin(tilt)) * 63.5 - 0.5);
+                    Y[o * 91 + t] = (byte) Math.round((float) Math.asin( Math.cos(orientation) * Math.sin(tilt)) * 63.5 - 0.5);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,354 @@
+package com.termux.x11.input;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.MotionEvent;
+import android.view.ViewConfiguration;
+
+/**
+ * Recognizes taps and long-presses of one or more fingers, scrolling, double taps and two-finger
+ * swipes and pinches in a single pass over every MotionEvent. Taps and long-presses are recognized
+ * like TapGestureDetector of Chromium did, scrolling and double taps like {@link android.view.GestureDetector}
+ * with disabled long-press, so scrolling goes on when a finger is held down for long.
+ *
+ * Slops and timeouts are read from {@link ViewConfiguration} once. Pointers are tracked in arrays
+ * indexed by pointer id, so recognition does not allocate. Like other input classes it must be used
+ * from UI thread.
+ */
+public final class TouchGestureRecognizer {
+    /** Receives recognized gestures. */
+    public interface Listener {
+        /**
+         * Notified when fingers are lifted without moving.
+         *
+         * @param pointerCount The number of fingers that were tapped.
+         * @param x The x coordinate of the first finger.
+         * @param y The y coordinate of the first finger.
+         */
+        void onTap(int pointerCount, float x, float y);
+
+        /**
+         * Notified when fingers are held down without moving for the long-press timeout.
+         *
+         * @param pointerCount The number of fingers held down.
+         * @param x The x coordinate of the first finger.
+         * @param y The y coordinate of the first finger.
+         */
+        void onLongPress(int pointerCount, float x, float y);
+
+        /**
+         * Notified when fingers move. Distances are motion of the center of fingers since the previous
+         * call, reversed like in {@link android.view.GestureDetector.OnGestureListener#onScroll}.
+         *
+         * @param downX The x coordinate where the first finger went down.
+         * @param downY The y coordinate where the first finger went down.
+         */
+        void onScroll(MotionEvent e, float downX, float downY, float distanceX, float distanceY);
+
+        /** Notified of down, moves and up of the second tap of a double tap. */
+        void onDoubleTapEvent(MotionEvent e);
+    }
+
+    /** Pointer ids of Android are below 32, so they fit in a bit mask. */
+    private static final int MAX_POINTER_ID = 31;
+
+    /** The least time between the first up and the second down of a double tap, as in GestureDetector. */
+    private static final int DOUBLE_TAP_MIN_TIME = 40;
+
+    private static final int TWO_FINGER_UNKNOWN = 0;
+    private static final int TWO_FINGER_SWIPE = 1;
+    private static final int TWO_FINGER_PINCH = 2;
+
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mLongPress = this::onLongPressTimeout;
+
+    private final int mTouchSlopSquare;
+    private final int mDoubleTapSlopSquare;
+    private final int mDoubleTapTimeout;
+    private final int mLongPressTimeout;
+
+    /** Down coordinates of pointers of the gesture, by pointer id. */
+    private final float[] mDownX = new float[MAX_POINTER_ID + 1];
+    private final float[] mDownY = new float[MAX_POINTER_ID + 1];
+    private int mTracked;
+
+    /** The coordinates of the first finger down seen in the gesture. */
+    private float mFirstX, mFirstY;
+
+    /** The maximum number of fingers seen in the gesture. */
+    private int mPointerCount;
+
+    /** Set to true whenever any finger moves beyond the slop, or a long-press is triggered. */
+    private boolean mTapCancelled;
+
+    /** Scrolling follows the center of fingers, it starts when the center leaves the tap region. */
+    private float mDownFocusX, mDownFocusY;
+    private float mLastFocusX, mLastFocusY;
+    private boolean mInTapRegion;
+
+    /** The previous gesture was a single-finger tap which may be the first tap of a double tap. */
+    private boolean mFirstTap;
+    private boolean mDoubleTapping;
+    private long mFirstTapDownTime, mFirstTapUpTime;
+    private float mFirstTapX, mFirstTapY;
+
+    /** State of a two-finger gesture, it is known when both fingers have moved beyond the slop. */
+    private int mTwoFinger = TWO_FINGER_UNKNOWN;
+    private boolean mTwoFingerStarted;
+    private float mFirstX0, mFirstY0, mFirstX1, mFirstY1;
+
+    public TouchGestureRecognizer(Context context, Listener listener) {
+        if (listener == null)
+            throw new NullPointerException();
+        mListener = listener;
+
+        ViewConfiguration config = ViewConfiguration.get(context);
+        int touchSlop = config.getScaledTouchSlop();
+        int doubleTapSlop = config.getScaledDoubleTapSlop();
+        mTouchSlopSquare = touchSlop * touchSlop;
+        mDoubleTapSlopSquare = doubleTapSlop * doubleTapSlop;
+        mDoubleTapTimeout = ViewConfiguration.getDoubleTapTimeout();
+        mLongPressTimeout = ViewConfiguration.getLongPressTimeout();
+    }
+
+    /** Returns whether a two-finger swipe is in progress. */
+    public boolean isSwiping() {
+        return mTwoFinger == TWO_FINGER_SWIPE;
+    }
+
+    /** Returns whether a pinch is in progress. Unlike a swipe, a pinch may still turn into a swipe. */
+    public boolean isPinching() {
+        return mTwoFinger == TWO_FINGER_PINCH;
+    }
+
+    /** Analyzes the touch event and notifies the listener of recognized gestures. */
+    public void onTouchEvent(MotionEvent event) {
+        recognize(event, true);
+    }
+
+    /**
+     * Analyzes the touch event for taps and long-presses only. Used for touchpads whose motion is
+     * already sent as relative mouse motion.
+     */
+    public void onTapEvent(MotionEvent event) {
+        recognize(event, false);
+    }
+
+    private void recognize(MotionEvent e, boolean motion) {
+        int action = e.getActionMasked();
+        int count = e.getPointerCount();
+
+        // Center of the fingers which stay down.
+        int skip = action == MotionEvent.ACTION_POINTER_UP ? e.getActionIndex() : -1;
+        float focusX = 0, focusY = 0;
+        for (int i = 0; i < count; i++) {
+            if (i != skip) {
+                focusX += e.getX(i);
+                focusY += e.getY(i);
+            }
+        }
+        int div = skip == -1 ? count : count - 1;
+        focusX /= div;
+        focusY /= div;
+
+        switch (action) {
+            case MotionEvent.ACTION_DOWN: {
+                float x = e.getX(0), y = e.getY(0);
+                boolean doubleTap = mFirstTap && isSecondTap(e.getEventTime(), x, y);
+                // Like GestureDetector, the second tap of a double tap does not start another one.
+                mFirstTap = !doubleTap;
+                mDoubleTapping = doubleTap;
+                mFirstTapDownTime = e.getEventTime();
+                mFirstTapX = x;
+                mFirstTapY = y;
+
+                mHandler.removeCallbacks(mLongPress);
+                mHandler.postDelayed(mLongPress, mLongPressTimeout);
+                mTracked = 0;
+                track(e.getPointerId(0), x, y);
+                mFirstX = x;
+                mFirstY = y;
+                mPointerCount = 1;
+                mTapCancelled = false;
+
+                mDownFocusX = mLastFocusX = focusX;
+                mDownFocusY = mLastFocusY = focusY;
+                mInTapRegion = true;
+
+                if (doubleTap && motion)
+                    mListener.onDoubleTapEvent(e);
+                break;
+            }
+
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                int index = e.getActionIndex();
+                track(e.getPointerId(index), e.getX(index), e.getY(index));
+                mPointerCount = Math.max(mPointerCount, count);
+
+                // More fingers are never a double tap, and they scroll as soon as they move.
+                mDownFocusX = mLastFocusX = focusX;
+                mDownFocusY = mLastFocusY = focusY;
+                mInTapRegion = false;
+                mFirstTap = false;
+                mDoubleTapping = false;
+                break;
+            }
+
+            case MotionEvent.ACTION_MOVE: {
+                if (motion) {
+                    float distanceX = mLastFocusX - focusX, distanceY = mLastFocusY - focusY;
+                    if (mDoubleTapping)
+                        mListener.onDoubleTapEvent(e);
+                    else if (mInTapRegion) {
+                        int deltaX = (int) (focusX - mDownFocusX), deltaY = (int) (focusY - mDownFocusY);
+                        if (deltaX * deltaX + deltaY * deltaY > mTouchSlopSquare) {
+                            mInTapRegion = false;
+                            mFirstTap = false;
+                            mListener.onScroll(e, mFirstX, mFirstY, distanceX, distanceY);
+                            mLastFocusX = focusX;
+                            mLastFocusY = focusY;
+                        }
+                    } else if (Math.abs(distanceX) >= 1 || Math.abs(distanceY) >= 1) {
+                        mListener.onScroll(e, mFirstX, mFirstY, distanceX, distanceY);
+                        mLastFocusX = focusX;
+                        mLastFocusY = focusY;
+                    }
+                }
+
+                if (!mTapCancelled && movedBeyondSlop(e, count)) {
+                    mHandler.removeCallbacks(mLongPress);
+                    mTapCancelled = true;
+                }
+                break;
+            }
+
+            case MotionEvent.ACTION_POINTER_UP: {
+                mHandler.removeCallbacks(mLongPress);
+                int id = e.getPointerId(e.getActionIndex());
+                if (id <= MAX_POINTER_ID)
+                    mTracked &= ~(1 << id);
+                mDownFocusX = mLastFocusX = focusX;
+                mDownFocusY = mLastFocusY = focusY;
+                break;
+            }
+
+            case MotionEvent.ACTION_UP:
+                mHandler.removeCallbacks(mLongPress);
+                if (mDoubleTapping && motion)
+                    mListener.onDoubleTapEvent(e);
+                mDoubleTapping = false;
+                mFirstTapUpTime = e.getEventTime();
+                mTracked = 0;
+                if (!mTapCancelled)
+                    mListener.onTap(mPointerCount, mFirstX, mFirstY);
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                mHandler.removeCallbacks(mLongPress);
+                mTracked = 0;
+                mInTapRegion = false;
+                mFirstTap = false;
+                mDoubleTapping = false;
+                break;
+
+            default:
+                break;
+        }
+
+        if (motion)
+            recognizeTwoFingers(e, action, count);
+    }
+
+    /** Returns whether the down at the given time and place is the second tap of a double tap. */
+    private boolean isSecondTap(long time, float x, float y) {
+        if (time - mFirstTapDownTime > mDoubleTapTimeout)
+            return false;
+
+        long delta = time - mFirstTapUpTime;
+        if (delta > mDoubleTapTimeout || delta < DOUBLE_TAP_MIN_TIME)
+            return false;
+
+        int deltaX = (int) mFirstTapX - (int) x;
+        int deltaY = (int) mFirstTapY - (int) y;
+        return deltaX * deltaX + deltaY * deltaY < mDoubleTapSlopSquare;
+    }
+
+    private void track(int id, float x, float y) {
+        if (id > MAX_POINTER_ID)
+            return;
+        mDownX[id] = x;
+        mDownY[id] = y;
+        mTracked |= 1 << id;
+    }
+
+    /** Returns whether any pointer moved beyond the slop from where it went down. */
+    private boolean movedBeyondSlop(MotionEvent e, int count) {
+        for (int i = 0; i < count; i++) {
+            int id = e.getPointerId(i);
+            float x = e.getX(i), y = e.getY(i);
+            if (id > MAX_POINTER_ID)
+                continue;
+            if ((mTracked & (1 << id)) == 0) {
+                // There was no corresponding DOWN event, so add it. This is an inconsistency
+                // which shouldn't normally occur.
+                track(id, x, y);
+                continue;
+            }
+            float deltaX = x - mDownX[id], deltaY = y - mDownY[id];
+            if (deltaX * deltaX + deltaY * deltaY > mTouchSlopSquare)
+                return true;
+        }
+        return false;
+    }
+
+    private void onLongPressTimeout() {
+        mTapCancelled = true;
+        mListener.onLongPress(mPointerCount, mFirstX, mFirstY);
+    }
+
+    /**
+     * Tells a two-finger swipe from a pinch. The gesture is unknown until both fingers have moved
+     * beyond the slop, then it is a swipe if they moved in the same direction and a pinch otherwise.
+     * A swipe lasts until the number of fingers changes, a pinch may turn into a swipe. If one finger
+     * is held still while the other moves far, the gesture stays unknown.
+     */
+    private void recognizeTwoFingers(MotionEvent e, int action, int count) {
+        if (count != 2) {
+            mTwoFinger = TWO_FINGER_UNKNOWN;
+            mTwoFingerStarted = false;
+            return;
+        }
+
+        // Only MOVE or POINTER_DOWN events are considered, others end the gesture. This tries to
+        // cope with gestures which start with MOVE rather than POINTER_DOWN.
+        if (action != MotionEvent.ACTION_MOVE) {
+            mTwoFinger = TWO_FINGER_UNKNOWN;
+            mTwoFingerStarted = false;
+            if (action != MotionEvent.ACTION_POINTER_DOWN)
+                return;
+        }
+
+        if (mTwoFinger == TWO_FINGER_SWIPE)
+            return;
+
+        float x0 = e.getX(0), y0 = e.getY(0), x1 = e.getX(1), y1 = e.getY(1);
+        if (!mTwoFingerStarted) {
+            mFirstX0 = x0;
+            mFirstY0 = y0;
+            mFirstX1 = x1;
+            mFirstY1 = y1;
+            mTwoFingerStarted = true;
+            return;
+        }
+
+        float deltaX0 = x0 - mFirstX0, deltaY0 = y0 - mFirstY0;
+        float deltaX1 = x1 - mFirstX1, deltaY1 = y1 - mFirstY1;
+        if (deltaX0 * deltaX0 + deltaY0 * deltaY0 <= mTouchSlopSquare || deltaX1 * deltaX1 + deltaY1 * deltaY1 <= mTouchSlopSquare)
+            return;
+
+        // The scalar product of the direction vectors is positive if fingers moved in the same direction.
+        mTwoFinger = deltaX0 * deltaX1 + deltaY0 * deltaY1 > 0 ? TWO_FINGER_SWIPE : TWO_FINGER_PINCH;
+    }
+}
@@ -41,7 +41,6 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
-import java.util.ArrayList;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
@@ -79,25 +78,30 @@ public class TouchInputHandler {
     }
 
     private final RenderData mRenderData;
-    private final GestureDetector mScroller;
-    private final TapGestureDetector mTapDetector;
+    private final TouchGestureRecognizer mGestureRecognizer;
     private final StylusListener mStylusListener = new StylusListener();
     private final HardwareMouseListener mHMListener = new HardwareMouseListener();
+    private final GestureForwarder mGestures = new GestureForwarder();
+    private final ViewportZoom mViewportZoom = new ViewportZoom();
     private final DexListener mDexListener;
     private final TouchInputHandler mTouchpadHandler;
 
-    /** Used to disambiguate a 2-finger gesture as a swipe or a pinch. */
-    private final SwipeDetector mSwipePinchDetector;
-
     private InputStrategyInterface mInputStrategy;
+    private @InputMode int mInputMode;
     private final InputEventSender mInjector;
     private final MainActivity mActivity;
     private final DisplayMetrics mMetrics = new DisplayMetrics();
-    private final StylusState lastStylusState = new StylusState();
-    private final StylusState lastRawStylusState = new StylusState();
-    private int stylusToggleMask = 0;
-    private int stylusHoldMask = 0;
-    private final ArrayList<StylusStateListener> stylusStateListeners = new ArrayList<>();
+    private final StylusPipeline mStylusPipeline;
+    // Scratch objects of the per-event path, all handlers are used from UI thread only.
+    private final PointF mCursor = new PointF();
+    private final int[] mLocation = new int[2];
+
+    // Offset of the view from the view which received events, see updateViewOffset.
+    private View mOffsetView0, mOffsetView;
+    private int mViewOffsetX, mViewOffsetY;
+    private boolean mViewOffsetValid;
+    private final View.OnLayoutChangeListener mViewOffsetInvalidator = (v, l, t, r, b, oldL, oldT, oldR, oldB) -> mViewOffsetValid = false;
+    private final InputPredictor mPredictor;
 
     private final BiConsumer<Integer, Boolean> noAction = (key, down) -> {};
     private BiConsumer<Integer, Boolean> swipeUpAction = noAction, swipeDownAction = noAction,
@@ -180,30 +184,17 @@ public class TouchInputHandler {
         mRenderData = renderData != null ? renderData :new RenderData();
         mInjector = injector;
         mActivity = activity;
-        PointF cursor = mRenderData.getCursorPosition();
-        lastStylusState.x = cursor.x;
-        lastStylusState.y = cursor.y;
-        lastStylusState.mouse = mInjector.stylusIsMouse;
-        lastRawStylusState.setFrom(lastStylusState);
+        mStylusPipeline = new StylusPipeline(mInjector, mRenderData);
+        mPredictor = new InputPredictor(activity, mInjector, mStylusPipeline, mRenderData);
         if (mDisplayManager == null) {
             mDisplayManager = (DisplayManager) mActivity.getSystemService(Context.DISPLAY_SERVICE);
             mDisplayRotation = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY).getRotation() % 4;
             mDisplayManager.registerDisplayListener(mDisplayListener, null);
         }
 
-        GestureListener listener = new GestureListener();
-        mScroller = new GestureDetector(/*desktop*/ activity, listener, null, false);
-
-        // If long-press is enabled, the gesture-detector will not emit any further onScroll
-        // notifications after the onLongPress notification. Since onScroll is being used for
-        // moving the cursor, it means that the cursor would become stuck if the finger were held
-        // down too long.
-        mScroller.setIsLongpressEnabled(false);
+        mGestureRecognizer = new TouchGestureRecognizer(/*desktop*/ activity, new GestureListener());
 
-        mTapDetector = new TapGestureDetector(/*desktop*/ activity, listener);
-        mSwipePinchDetector = new SwipeDetector(/*desktop*/ activity);
-
-        // The threshold needs to be bigger than the ScaledTouchSlop used by the gesture-detectors,
+        // The threshold needs to be bigger than the ScaledTouchSlop used by the gesture recognizer,
         // so that a gesture cannot be both a tap and a swipe. It also needs to be small enough so
         // that intentional swipes are usually detected.
         float density = /*desktop*/ activity.getResources().getDisplayMetrics().density;
@@ -280,6 +271,46 @@ public class TouchInputHandler {
     }
 
     public boolean handleTouchEvent(View view0, View view, MotionEvent event) {
+        // All events produced by a single MotionEvent are sent to X server at once.
+        mInjector.beginBatch();
+        try {
+            mInjector.setEventTime(event);
+            return dispatchTouchEvent(view0, view, event);
+        } finally {
+            mInjector.flushBatch();
+        }
+    }
+
+    /**
+     * Updates offset of the view from the view which received the event. Walking view hierarchy for
+     * every event is not needed, the offset changes only when either view is laid out again, which
+     * also happens when insets change.
+     */
+    private void updateViewOffset(View view0, View view) {
+        if (mViewOffsetValid && view0 == mOffsetView0 && view == mOffsetView)
+            return;
+
+        if (view0 != mOffsetView0 || view != mOffsetView) {
+            if (mOffsetView0 != null) {
+                mOffsetView0.removeOnLayoutChangeListener(mViewOffsetInvalidator);
+                mOffsetView.removeOnLayoutChangeListener(mViewOffsetInvalidator);
+            }
+            view0.addOnLayoutChangeListener(mViewOffsetInvalidator);
+            view.addOnLayoutChangeListener(mViewOffsetInvalidator);
+            mOffsetView0 = view0;
+            mOffsetView = view;
+        }
+
+        view0.getLocationInWindow(mLocation);
+        mViewOffsetX = -mLocation[0];
+        mViewOffsetY = -mLocation[1];
+        view.getLocationInWindow(mLocation);
+        mViewOffsetX += mLocation[0];
+        mViewOffsetY += mLocation[1];
+        mViewOffsetValid = true;
+    }
+
+    private boolean dispatchTouchEvent(View view0, View view, MotionEvent event) {
         // Regular touchpads and Dex touchpad (in captured mode) send events as finger too,
         // but they should be handled as touchscreens with trackpad mode.
         if (mTouchpadHandler != null && ((event.getToolType(event.getActionIndex()) == MotionEvent.TOOL_TYPE_FINGER &&
@@ -287,16 +318,8 @@ public class TouchInputHandler {
             return mTouchpadHandler.handleTouchEvent(view0, view, event);
 
         if (view0 != view) {
-            int[] view0Location = new int[2];
-            int[] viewLocation = new int[2];
-
-            view0.getLocationInWindow(view0Location);
-            view.getLocationInWindow(viewLocation);
-
-            int offsetX = viewLocation[0] - view0Location[0];
-            int offsetY = viewLocation[1] - view0Location[1];
-
-            event.offsetLocation(-offsetX, -offsetY);
+            updateViewOffset(view0, view);
+            event.offsetLocation(-mViewOffsetX, -mViewOffsetY);
         }
 
         if (!view.isFocused() && event.getAction() == MotionEvent.ACTION_DOWN)
@@ -309,6 +332,9 @@ public class TouchInputHandler {
                 || event.getToolType(event.getActionIndex()) == MotionEvent.TOOL_TYPE_ERASER)
             return mStylusListener.onTouch(event);
 
+        if (mGestures.onClassifiedEvent(event))
+            return true;
+
         if (!isDexEvent(event) && (event.getToolType(event.getActionIndex()) == MotionEvent.TOOL_TYPE_MOUSE
                 || (event.getSource() & InputDevice.SOURCE_MOUSE) == InputDevice.SOURCE_MOUSE)
                 || (event.getSource() & InputDevice.SOURCE_MOUSE_RELATIVE) == InputDevice.SOURCE_MOUSE_RELATIVE)
@@ -320,18 +346,17 @@ public class TouchInputHandler {
                 return true;
 
             // Give the underlying input strategy a chance to observe the current motion event before
-            // passing it to the gesture detectors.  This allows the input strategy to react to the
+            // passing it to the gesture recognizer.  This allows the input strategy to react to the
             // event or save the payload for use in recreating the gesture remotely.
-            if (mInputStrategy instanceof InputStrategyInterface.NullInputStrategy)
+            if (mInputMode == InputMode.TOUCH) {
                 mInjector.sendTouchEvent(event, mRenderData);
-            else
+                mPredictor.onTouchEvent(event);
+            } else
                 mInputStrategy.onMotionEvent(event);
 
-            // Avoid short-circuit logic evaluation - ensure all gesture detectors see all events so
-            // that they generate correct notifications.
-            mScroller.onTouchEvent(event);
-            mTapDetector.onTouchEvent(event);
-            mSwipePinchDetector.onTouchEvent(event);
+            mGestureRecognizer.onTouchEvent(event);
+            if (mGestures.onTouchEvent(event) || mViewportZoom.onTouchEvent(event))
+                mSuppressCursorMovement = true;
 
             // For hardware touchpad in DeX (captured mode), handle physical click buttons
             if ((event.getSource() & InputDevice.SOURCE_TOUCHPAD) == InputDevice.SOURCE_TOUCHPAD) {
@@ -392,13 +417,18 @@ public class TouchInputHandler {
             mTouchpadHandler.handleHostSizeChanged(w, h);
 
         resetTransformation();
+        // Offset of the viewport is kept in coordinates of the view, it is not valid for the new size.
+        mViewportZoom.reset();
         MainActivity.getRealMetrics(mMetrics);
     }
 
     public void setInputMode(@InputMode int inputMode) {
-        if (mTouchpadHandler == null)
-            mInputStrategy = new InputStrategyInterface.TrackpadInputStrategy(mInjector);
-        else if (inputMode == InputMode.TOUCH)
+        // Mode is kept along with strategy, so gesture handling checks it instead of type of strategy.
+        if (mTouchpadHandler == null || (inputMode != InputMode.TOUCH && inputMode != InputMode.SIMULATED_TOUCH))
+            inputMode = InputMode.TRACKPAD;
+
+        mInputMode = inputMode;
+        if (inputMode == InputMode.TOUCH)
             mInputStrategy = new InputStrategyInterface.NullInputStrategy();
         else if (inputMode == InputMode.SIMULATED_TOUCH)
             mInputStrategy = new InputStrategyInterface.SimulatedTouchInputStrategy(mRenderData, mInjector, mActivity);
@@ -443,8 +473,17 @@ public class TouchInputHandler {
         mInjector.capturedPointerSpeedFactor = ((float) p.capturedPointerSpeedFactor.get())/100;
         mInjector.dexMetaKeyCapture = p.dexMetaKeyCapture.get();
         mInjector.stylusIsMouse = p.stylusIsMouse.get();
-        lastStylusState.mouse = mInjector.stylusIsMouse;
+        mStylusPipeline.setMouse(mInjector.stylusIsMouse);
         mInjector.stylusButtonContactModifierMode = p.stylusButtonContactModifierMode.get();
+        mInjector.highFidelityInput = p.highFidelityInput.get();
+        mInjector.coalescedMotion = (p.coalesceHoverMotion.get() ? InputEventSender.MOTION_HOVER : 0)
+                | (p.coalesceCapturedMotion.get() ? InputEventSender.MOTION_CAPTURED : 0)
+                | (p.coalesceTrackpadMotion.get() ? InputEventSender.MOTION_TRACKPAD : 0)
+                | (p.coalesceScroll.get() ? InputEventSender.MOTION_SCROLL : 0);
+        mInjector.forwardGestures = p.forwardGestures.get();
+        mViewportZoom.setEnabled(p.pinchZoom.get());
+        Display display = mActivity.getLorieView().getDisplay();
+        mPredictor.setEnabled(p.predictMotion.get(), display != null ? display.getRefreshRate() : 60);
         mInjector.pauseKeyInterceptingWithEsc = p.pauseKeyInterceptingWithEsc.get();
         switch (p.transformCapturedPointer.get()) {
             case "c":
@@ -559,10 +598,10 @@ public class TouchInputHandler {
     }
 
     private void moveCursorByOffset(float deltaX, float deltaY) {
-        if (mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy)
-            mInjector.sendCursorMove(-deltaX, -deltaY, true);
-        else if (mInputStrategy instanceof InputStrategyInterface.SimulatedTouchInputStrategy) {
-            PointF cursorPos = mRenderData.getCursorPosition();
+        if (mInputMode == InputMode.TRACKPAD)
+            mInjector.sendCursorMove(-deltaX, -deltaY, true, InputEventSender.MOTION_TRACKPAD);
+        else if (mInputMode == InputMode.SIMULATED_TOUCH) {
+            PointF cursorPos = mRenderData.getCursorPosition(mCursor);
             cursorPos.offset(-deltaX, -deltaY);
             cursorPos.set(MathUtils.clamp(cursorPos.x, 0, mRenderData.screenWidth), MathUtils.clamp(cursorPos.y, 0, mRenderData.screenHeight));
             if (mRenderData.setCursorPosition(cursorPos.x, cursorPos.y))
@@ -572,31 +611,28 @@ public class TouchInputHandler {
 
     /** Moves the cursor to the specified position on the screen. */
     private void moveCursorToScreenPoint(float screenX, float screenY) {
-        if (mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy || mInputStrategy instanceof InputStrategyInterface.SimulatedTouchInputStrategy) {
-            float[] imagePoint = {screenX * mRenderData.scale.x, screenY * mRenderData.scale.y};
-            if (mRenderData.setCursorPosition(imagePoint[0], imagePoint[1]))
-                mInjector.sendCursorMove((int) imagePoint[0], imagePoint[1], false);
+        if (mInputMode == InputMode.TRACKPAD || mInputMode == InputMode.SIMULATED_TOUCH) {
+            float imageX = mRenderData.mapX(screenX), imageY = mRenderData.mapY(screenY);
+            if (mRenderData.setCursorPosition(imageX, imageY))
+                mInjector.sendCursorMove((int) imageX, imageY, false);
         }
     }
 
     /** Processes a (multi-finger) swipe gesture. */
-    private boolean onSwipe() {
+    private void onSwipe() {
         if (mTotalMotionY > mSwipeThreshold)
             swipeDownAction.accept(0, true);
         else if (mTotalMotionY < -mSwipeThreshold)
             swipeUpAction.accept(0, true);
         else
-            return false;
+            return;
 
         mSuppressCursorMovement = true;
         mSwipeCompleted = true;
-        return true;
     }
 
-    /** Responds to touch events filtered by the gesture detectors.
-     * @noinspection NullableProblems */
-    private class GestureListener extends GestureDetector.SimpleOnGestureListener
-            implements TapGestureDetector.OnTapListener {
+    /** Responds to touch events filtered by the gesture recognizer. */
+    private final class GestureListener implements TouchGestureRecognizer.Listener {
         private final Handler mGestureListenerHandler = new Handler(msg -> {
             if (msg.what == InputStub.BUTTON_LEFT)
                 mInputStrategy.onTap(InputStub.BUTTON_LEFT);
@@ -607,13 +643,13 @@ public class TouchInputHandler {
          * Called when the user drags one or more fingers across the touchscreen.
          */
         @Override
-        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+        public void onScroll(MotionEvent e2, float downX, float downY, float distanceX, float distanceY) {
             int pointerCount = e2.getPointerCount();
 
             // For captured touchpad pointer:
             // Automatic (for touchpad) mode is needed because touchpads ignore screen orientation and report physical X and Y
             if ((e2.getSource() & InputDevice.SOURCE_TOUCHPAD) == InputDevice.SOURCE_TOUCHPAD
-                    && mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy) {
+                    && mInputMode == InputMode.TRACKPAD) {
                 float temp;
                 int transform = capturedPointerTransformation == CapturedPointerTransformation.AUTO ?
                         mDisplayRotation : capturedPointerTransformation;
@@ -634,49 +670,44 @@ public class TouchInputHandler {
             }
 
 
-            if (pointerCount >= 3 && !mSwipeCompleted) {
+            // Forwarded swipes are handled by X clients, not by swipe actions.
+            if (pointerCount >= 3 && !mSwipeCompleted && !mInjector.forwardGestures) {
                 // Note that distance values are reversed. For example, dragging a finger in the
                 // direction of increasing Y coordinate (downwards) results in distanceY being
                 // negative.
                 mTotalMotionY -= distanceY;
-                return onSwipe();
+                onSwipe();
+                return;
             }
 
-            if (pointerCount == 2 && mSwipePinchDetector.isSwiping()) {
-                if (!(mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy)) {
+            if (pointerCount == 2 && mGestureRecognizer.isSwiping()) {
+                if (mInputMode != InputMode.TRACKPAD) {
                     // Ensure the cursor is located at the coordinates of the original event,
                     // otherwise the target window may not receive the scroll event correctly.
-                    moveCursorToScreenPoint(e1.getX(), e1.getY());
+                    moveCursorToScreenPoint(downX, downY);
                 }
                 mInputStrategy.onScroll(distanceX, distanceY);
 
                 // Prevent the cursor being moved or flung by the gesture.
                 mSuppressCursorMovement = true;
-                return true;
+                return;
             }
 
             if (pointerCount != 1 || mSuppressCursorMovement)
-                return false;
+                return;
 
-            if (mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy) {
+            if (mInputMode == InputMode.TRACKPAD) {
                 if (mInjector.scaleTouchpad) {
-                    distanceX *= mRenderData.scale.x;
-                    distanceY *= mRenderData.scale.y;
+                    distanceX *= mRenderData.scale.x / mRenderData.zoom;
+                    distanceY *= mRenderData.scale.y / mRenderData.zoom;
                 }
                 moveCursorByOffset(distanceX, distanceY);
             }
-            if (!(mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy) && mIsDragging) {
+            if (mInputMode != InputMode.TRACKPAD && mIsDragging) {
                 // Ensure the cursor follows the user's finger when the user is dragging under
                 // direct input mode.
                 moveCursorToScreenPoint(e2.getX(), e2.getY());
             }
-            return true;
-        }
-
-        /** Called whenever a gesture starts. Always accepts the gesture so it isn't ignored. */
-        @Override
-        public boolean onDown(MotionEvent e) {
-            return true;
         }
 
         /**
@@ -688,14 +719,14 @@ public class TouchInputHandler {
             if (button == InputStub.BUTTON_UNDEFINED)
                 return;
 
-            if (!(mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy)) {
+            if (mInputMode != InputMode.TRACKPAD) {
                 if (screenPointLiesOutsideImageBoundary(x, y))
                     return;
 
                 moveCursorToScreenPoint(x, y);
             }
 
-            if (button != InputStub.BUTTON_LEFT || !(mInjector.tapToMove && mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy))
+            if (button != InputStub.BUTTON_LEFT || !(mInjector.tapToMove && mInputMode == InputMode.TRACKPAD))
                 mInputStrategy.onTap(button);
             else
                 mGestureListenerHandler.sendEmptyMessageDelayed(InputStub.BUTTON_LEFT, ViewConfiguration.getDoubleTapTimeout());
@@ -704,26 +735,24 @@ public class TouchInputHandler {
         private float mLastFocusX;
         private float mLastFocusY;
         @Override
-        public boolean onDoubleTapEvent(MotionEvent e) {
+        public void onDoubleTapEvent(MotionEvent e) {
             if (e.getPointerCount() == 1) {
                 switch(e.getActionMasked()) {
                     case MotionEvent.ACTION_DOWN:
-                        if (mInjector.tapToMove && mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy) {
+                        if (mInjector.tapToMove && mInputMode == InputMode.TRACKPAD) {
                             mGestureListenerHandler.removeMessages(InputStub.BUTTON_LEFT);
                             if (mInputStrategy.onPressAndHold(InputStub.BUTTON_LEFT, true))
                                 mIsDragging = true;
                         }
                         break;
                     case MotionEvent.ACTION_MOVE:
-                        onScroll(null, e, mLastFocusX - e.getX(), mLastFocusY - e.getY());
+                        onScroll(e, e.getX(), e.getY(), mLastFocusX - e.getX(), mLastFocusY - e.getY());
                         break;
                 }
 
                 mLastFocusX = e.getX();
                 mLastFocusY = e.getY();
             }
-
-            return true;
         }
 
         /** Called when a long-press is triggered for one or more fingers. */
@@ -734,7 +763,7 @@ public class TouchInputHandler {
                 return;
             }
 
-            if (!(mInputStrategy instanceof InputStrategyInterface.TrackpadInputStrategy)) {
+            if (mInputMode != InputMode.TRACKPAD) {
                 if (screenPointLiesOutsideImageBoundary(x, y))
                     return;
                 moveCursorToScreenPoint(x, y);
@@ -760,7 +789,7 @@ public class TouchInputHandler {
 
         /** Determines whether the given screen point lies outside the desktop image. */
         private boolean screenPointLiesOutsideImageBoundary(float screenX, float screenY) {
-            float scaledX = screenX * mRenderData.scale.x, scaledY = screenY * mRenderData.scale.y;
+            float scaledX = mRenderData.mapX(screenX), scaledY = mRenderData.mapY(screenY);
 
             float imageWidth = (float) mRenderData.imageWidth + EPSILON;
             float imageHeight = (float) mRenderData.imageHeight + EPSILON;
@@ -873,9 +902,9 @@ public class TouchInputHandler {
             }
 
             if (!v.hasPointerCapture()) {
-                float scaledX = e.getX() * mRenderData.scale.x, scaledY = e.getY() * mRenderData.scale.y;
+                float scaledX = mRenderData.mapX(e.getX()), scaledY = mRenderData.mapY(e.getY());
                 if (mRenderData.setCursorPosition(scaledX, scaledY))
-                    mInjector.sendCursorMove(scaledX, scaledY, false);
+                    mInjector.sendCursorMove(scaledX, scaledY, false, InputEventSender.MOTION_HOVER);
             } else if (e.getAction() == MotionEvent.ACTION_MOVE && e.getPointerCount() == 1) {
                 boolean axis_relative_x = e.getDevice().getMotionRange(MotionEvent.AXIS_RELATIVE_X) != null;
                 boolean mouse_relative = (e.getSource() & InputDevice.SOURCE_MOUSE_RELATIVE) == InputDevice.SOURCE_MOUSE_RELATIVE;
@@ -898,9 +927,9 @@ public class TouchInputHandler {
                     x *= mInjector.capturedPointerSpeedFactor * mMetrics.density;
                     y *= mInjector.capturedPointerSpeedFactor * mMetrics.density;
 
-                    mInjector.sendCursorMove(x, y, true);
+                    mInjector.sendCursorMove(x, y, true, InputEventSender.MOTION_CAPTURED);
                     if (axis_relative_x && mTouchpadHandler != null)
-                        mTouchpadHandler.mTapDetector.onTouchEvent(e);
+                        mTouchpadHandler.mGestureRecognizer.onTapEvent(e);
                 }
             }
 
@@ -914,16 +943,6 @@ public class TouchInputHandler {
     }
 
     private class StylusListener {
-        private float x = 0, y = 0, pressure = 0, tilt = 0, orientation = 0;
-        private int buttons = 0;
-
-        private int convertOrientation(float value) {
-            int newValue = (int) (((value * 180 / Math.PI) + 360) % 360);
-            if (newValue > 180)
-                newValue = (newValue - 360) % 360;
-            return newValue;
-        }
-
         private boolean hasButton(MotionEvent e, int button) {
             return (e.getButtonState() & button) == button;
         }
@@ -953,130 +972,279 @@ public class TouchInputHandler {
 
         @SuppressLint("ClickableViewAccessibility")
         boolean onTouch(MotionEvent e) {
-            int action = e.getAction();
-            int tiltX = 0, tiltY = 0;
+            int index = e.getActionIndex();
             int newButtons = extractButtons(e);
-            float newX = e.getX(e.getActionIndex()), newY = e.getY(e.getActionIndex());
+            // Same as RenderData.mapX/mapY, but captured external tablets are mapped to the whole screen.
+            float scaleX = mRenderData.scale.x / mRenderData.zoom, scaleY = mRenderData.scale.y / mRenderData.zoom;
+            float originX = mRenderData.offsetX * mRenderData.scale.x, originY = mRenderData.offsetY * mRenderData.scale.y;
             InputDevice dev = e.getDevice();
             InputDevice.MotionRange rangeX = dev.getMotionRange(MotionEvent.AXIS_X);
             InputDevice.MotionRange rangeY = dev.getMotionRange(MotionEvent.AXIS_Y);
             boolean hasTilt = e.getDevice().getMotionRange(MotionEvent.AXIS_TILT) != null;
             boolean hasOrientation = e.getDevice().getMotionRange(MotionEvent.AXIS_ORIENTATION) != null;
 
-            if (MainActivity.getInstance().getLorieView().hasPointerCapture() &&
-                    isExternal(dev) && rangeX != null && rangeY != null) {
-                newX *= mRenderData.imageWidth / rangeX.getMax();
-                newY *= mRenderData.imageHeight / rangeY.getMax();
-            } else {
-                newX *= mRenderData.scale.x;
-                newY *= mRenderData.scale.y;
+            boolean captured = MainActivity.getInstance().getLorieView().hasPointerCapture() &&
+                    isExternal(dev) && rangeX != null && rangeY != null;
+            if (captured) {
+                scaleX = mRenderData.imageWidth / rangeX.getMax();
+                scaleY = mRenderData.imageHeight / rangeY.getMax();
+                originX = originY = 0;
             }
 
-            if (x == newX && y == newY && pressure == e.getPressure() && tilt == e.getAxisValue(MotionEvent.AXIS_TILT) &&
-                    orientation == e.getAxisValue(MotionEvent.AXIS_ORIENTATION) && buttons == newButtons)
-                return true;
-
-            if (hasTilt && hasOrientation) {
-                orientation = e.getAxisValue(MotionEvent.AXIS_ORIENTATION);
-                tilt = e.getAxisValue(MotionEvent.AXIS_TILT);
-                tiltX = (int) Math.round((float) Math.asin(-Math.sin(orientation) * Math.sin(tilt)) * 63.5 - 0.5);
-                tiltY = (int) Math.round((float) Math.asin( Math.cos(orientation) * Math.sin(tilt)) * 63.5 - 0.5);
+            // Android batches samples reported between frames, send all of them in high-fidelity mode.
+            if (mInjector.highFidelityInput) {
+                for (int h = 0; h < e.getHistorySize(); h++) {
+                    mInjector.setHistoricalEventTime(e, h);
+                    onSample(e, originX + e.getHistoricalX(index, h) * scaleX, originY + e.getHistoricalY(index, h) * scaleY, e.getHistoricalPressure(index, h),
+                            e.getHistoricalAxisValue(MotionEvent.AXIS_TILT, index, h), e.getHistoricalAxisValue(MotionEvent.AXIS_ORIENTATION, index, h),
+                            newButtons, hasTilt && hasOrientation);
+                }
+                mInjector.setEventTime(e);
             }
 
-            android.util.Log.d("STYLUS_EVENT", "action " + action + " x " + newX + " y " + newY + " pressure " + e.getPressure() + " tilt " + e.getAxisValue(MotionEvent.AXIS_TILT) + " orientation " + e.getAxisValue(MotionEvent.AXIS_ORIENTATION) + " buttonState " + e.getButtonState() + " extractedButtons " + newButtons);
-            StylusState state = new StylusState();
-            x = newX;
-            y = newY;
-            pressure = e.getPressure();
-            buttons = newButtons;
-            state.x = x;
-            state.y = y;
-            state.pressure = (int) (pressure * 65535);
-            state.tiltX = tiltX;
-            state.tiltY = tiltY;
-            state.orientation = convertOrientation(orientation);
-            state.buttons = newButtons;
-            state.eraser = e.getToolType(e.getActionIndex()) == MotionEvent.TOOL_TYPE_ERASER;
-            state.mouse = mInjector.stylusIsMouse;
-            sendStylusState(state);
-
+            onSample(e, originX + e.getX(index) * scaleX, originY + e.getY(index) * scaleY, e.getPressure(), e.getAxisValue(MotionEvent.AXIS_TILT),
+                    e.getAxisValue(MotionEvent.AXIS_ORIENTATION), newButtons, hasTilt && hasOrientation);
+            // Predictor maps view coordinates the same way as above, which is not true for captured tablets.
+            if (!captured)
+                mPredictor.onStylusEvent(e);
             return true;
         }
+
+        private void onSample(MotionEvent e, float newX, float newY, float newPressure, float newTilt, float newOrientation, int newButtons, boolean hasTiltAndOrientation) {
+            boolean eraser = e.getToolType(e.getActionIndex()) == MotionEvent.TOOL_TYPE_ERASER;
+            if (mStylusPipeline.onSample(newX, newY, newPressure, newTilt, newOrientation, newButtons, hasTiltAndOrientation, eraser) && StylusPipeline.DEBUG)
+                android.util.Log.d(StylusPipeline.TAG, "action " + e.getAction() + " x " + newX + " y " + newY + " pressure " + newPressure + " tilt " + newTilt + " orientation " + newOrientation + " buttonState " + e.getButtonState() + " extractedButtons " + newButtons);
+        }
+    }
+
+    public StylusPipeline getStylusPipeline() {
+        return mStylusPipeline;
     }
 
     public StylusState getLastStylusState() {
-        return lastStylusState.copy();
+        return mStylusPipeline.getLastState();
     }
 
     public StylusState getLastRawStylusState() {
-        return lastRawStylusState.copy();
+        return mStylusPipeline.getLastRawState();
     }
 
     public void addStylusStateListener(StylusStateListener listener) {
-        if (listener != null && !stylusStateListeners.contains(listener))
-            stylusStateListeners.add(listener);
+        mStylusPipeline.addListener(listener);
     }
 
     public void removeStylusStateListener(StylusStateListener listener) {
-        stylusStateListeners.remove(listener);
+        mStylusPipeline.removeListener(listener);
     }
 
     public int getStylusToggleMask() {
-        return stylusToggleMask;
+        return mStylusPipeline.getToggleMask();
     }
 
     public void applyStylusToggleMask(int mask) {
-        stylusToggleMask = mask;
-        // Re-send current state so the overlay takes effect immediately.
-        sendStylusState(getLastRawStylusState());
+        mStylusPipeline.setToggleMask(mask);
     }
 
     public void applyStylusHoldMask(int mask) {
-        stylusHoldMask = mask;
-        // Re-send current state so the overlay takes effect immediately.
-        sendStylusState(getLastRawStylusState());
+        mStylusPipeline.setHoldMask(mask);
     }
 
     public void sendStylusState(StylusState state) {
-        if (state == null)
-            return;
+        mStylusPipeline.send(state);
+    }
+
+    public interface StylusStateListener extends StylusPipeline.Listener {}
 
-        StylusState next = state.copy();
-        if (Float.isNaN(next.x) || Float.isNaN(next.y)) {
-            PointF cursor = mRenderData.getCursorPosition();
-            next.x = cursor.x;
-            next.y = cursor.y;
+    public void sendStylusButtons(int newButtons) {
+        mStylusPipeline.sendButtons(newButtons);
+    }
+
+    /**
+     * Forwards pinches and swipes of 3 and more fingers to X server as XI 2.4 gesture events, so clients
+     * zoom or switch workspaces themselves. Gestures of touchscreen in trackpad and simulated touch modes
+     * are recognized here, gestures of Android touchpads (Android 14 and later) are recognized by system.
+     */
+    private class GestureForwarder {
+        private static final int NONE = -1;
+
+        private int mKind = NONE;
+        private int mFingers, mPointers;
+        private float mX, mY;
+        private float mSpan, mScale, mAngle;
+
+        /** Follows fingers of touch gestures, returns true while a gesture is forwarded. */
+        boolean onTouchEvent(MotionEvent e) {
+            int action = e.getActionMasked(), count = e.getPointerCount();
+            int kind = NONE;
+            if (mInjector.forwardGestures && action == MotionEvent.ACTION_MOVE && mInputMode != InputMode.TOUCH) {
+                if (count >= 3)
+                    kind = InputStub.GESTURE_SWIPE;
+                else if (count == 2 && mGestureRecognizer.isPinching())
+                    kind = InputStub.GESTURE_PINCH;
+            }
+
+            // Gesture ends when fingers are added or lifted, the rest of fingers may start a new one.
+            if (mKind != NONE && (kind != mKind || count != mFingers))
+                end(action == MotionEvent.ACTION_CANCEL ? InputStub.GESTURE_CANCEL : InputStub.GESTURE_END);
+            if (kind == NONE)
+                return false;
+
+            float angle = kind == InputStub.GESTURE_PINCH ? angle(e) : 0;
+            if (mKind == NONE) {
+                mSpan = kind == InputStub.GESTURE_PINCH ? span(e) : 0;
+                begin(kind, count, e, angle);
+                return true;
+            }
+
+            float delta = angle - mAngle;
+            if (delta > 180)
+                delta -= 360;
+            else if (delta < -180)
+                delta += 360;
+            mAngle = angle;
+            update(e, mSpan > 0 ? span(e) / mSpan : 1, delta);
+            return true;
         }
 
-        if (!next.mouse)
-            next.mouse = mInjector.stylusIsMouse;
+        /** Forwards pinches and multi-finger swipes of Android touchpads, returns true if the event was consumed. */
+        @SuppressLint("InlinedApi")
+        boolean onClassifiedEvent(MotionEvent e) {
+            if (!mInjector.forwardGestures || Build.VERSION.SDK_INT < Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+                return false;
 
-        next.buttons |= stylusToggleMask;
-        StylusState raw = next.copy();
-        raw.buttons &= ~(stylusToggleMask | stylusHoldMask);
-        lastRawStylusState.setFrom(raw);
+            int kind;
+            if (e.getClassification() == MotionEvent.CLASSIFICATION_PINCH)
+                kind = InputStub.GESTURE_PINCH;
+            else if (e.getClassification() == MotionEvent.CLASSIFICATION_MULTI_FINGER_SWIPE)
+                kind = InputStub.GESTURE_SWIPE;
+            else
+                return false;
 
-        int baseButtons = raw.buttons;
-        next.buttons = baseButtons | stylusToggleMask | stylusHoldMask;
+            switch (e.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    if (mKind != NONE)
+                        end(InputStub.GESTURE_CANCEL);
+                    // Swipes are reported with a fake pointer per finger, but they are added after the first event.
+                    begin(kind, kind == InputStub.GESTURE_PINCH ? 2 : Math.max(3, e.getPointerCount()), e, 0);
+                    break;
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    if (mKind != NONE)
+                        end(e.getActionMasked() == MotionEvent.ACTION_UP ? InputStub.GESTURE_END : InputStub.GESTURE_CANCEL);
+                    break;
+                default:
+                    // Scale factor of touchpad pinch is relative to the previous event.
+                    if (mKind != NONE)
+                        update(e, kind == InputStub.GESTURE_PINCH ? mScale * e.getAxisValue(MotionEvent.AXIS_GESTURE_PINCH_SCALE_FACTOR) : 1, 0);
+                    break;
+            }
+            return true;
+        }
 
-        lastStylusState.setFrom(next);
-        mInjector.sendStylusEvent(next.x, next.y, next.pressure, next.tiltX, next.tiltY, next.orientation, next.buttons, next.eraser, next.mouse);
+        private void begin(int kind, int fingers, MotionEvent e, float angle) {
+            mKind = kind;
+            mFingers = fingers;
+            mPointers = e.getPointerCount();
+            mX = centerX(e);
+            mY = centerY(e);
+            mScale = 1;
+            mAngle = angle;
+            mInjector.sendGestureEvent(kind, InputStub.GESTURE_BEGIN, fingers, 0, 0, 1, 0);
+        }
 
-        if (!stylusStateListeners.isEmpty()) {
-            StylusState dispatch = next.copy();
-            for (StylusStateListener listener : new ArrayList<>(stylusStateListeners))
-                listener.onStylusState(dispatch);
+        private void update(MotionEvent e, float scale, float angle) {
+            float x = centerX(e), y = centerY(e);
+            // Center jumps when a pointer is added or removed, that is not motion of fingers.
+            if (e.getPointerCount() != mPointers) {
+                mPointers = e.getPointerCount();
+                mX = x;
+                mY = y;
+            }
+            mInjector.sendGestureEvent(mKind, InputStub.GESTURE_UPDATE, mFingers, x - mX, y - mY, scale, angle);
+            mX = x;
+            mY = y;
+            mScale = scale;
+        }
+
+        private void end(int phase) {
+            mInjector.sendGestureEvent(mKind, phase, mFingers, 0, 0, mScale, 0);
+            mKind = NONE;
+        }
+
+        private float centerX(MotionEvent e) {
+            float x = 0;
+            for (int i = 0; i < e.getPointerCount(); i++)
+                x += e.getX(i);
+            return x / e.getPointerCount();
+        }
+
+        private float centerY(MotionEvent e) {
+            float y = 0;
+            for (int i = 0; i < e.getPointerCount(); i++)
+                y += e.getY(i);
+            return y / e.getPointerCount();
         }
-    }
 
-    public interface StylusStateListener {
-        void onStylusState(StylusState state);
+        private float span(MotionEvent e) {
+            return (float) Math.hypot(e.getX(1) - e.getX(0), e.getY(1) - e.getY(0));
+        }
+
+        private float angle(MotionEvent e) {
+            return (float) Math.toDegrees(Math.atan2(e.getY(1) - e.getY(0), e.getX(1) - e.getX(0)));
+        }
     }
 
-    public void sendStylusButtons(int newButtons) {
-        StylusState next = getLastStylusState();
-        next.buttons = newButtons;
-        sendStylusState(next);
+    /**
+     * Zooms and pans the image with two-finger pinches when gestures are not forwarded to X server.
+     * Only the renderer's viewport changes, X screen keeps its size and clients are not re-laid out.
+     */
+    private class ViewportZoom {
+        private boolean mEnabled, mActive;
+        private float mSpan, mZoom;
+        // Point of the unzoomed view which stays under the center of fingers.
+        private float mAnchorX, mAnchorY;
+
+        void setEnabled(boolean enabled) {
+            mEnabled = enabled;
+            if (!enabled)
+                reset();
+        }
+
+        /** Follows fingers of pinches, returns true while the viewport is zoomed by them. */
+        boolean onTouchEvent(MotionEvent e) {
+            boolean pinching = mEnabled && !mInjector.forwardGestures && mInputMode != InputMode.TOUCH
+                    && e.getActionMasked() == MotionEvent.ACTION_MOVE && e.getPointerCount() == 2
+                    && mGestureRecognizer.isPinching();
+            if (!pinching) {
+                mActive = false;
+                return false;
+            }
+
+            float x = mGestures.centerX(e), y = mGestures.centerY(e), span = mGestures.span(e);
+            if (!mActive) {
+                mActive = true;
+                mSpan = span;
+                mZoom = mRenderData.zoom;
+                mAnchorX = mRenderData.offsetX + x / mZoom;
+                mAnchorY = mRenderData.offsetY + y / mZoom;
+                return true;
+            }
+
+            float zoom = mSpan > 0 ? mZoom * span / mSpan : mZoom;
+            zoom = Math.max(1, Math.min(zoom, RenderData.MAX_ZOOM));
+            apply(zoom, mAnchorX - x / zoom, mAnchorY - y / zoom);
+            return true;
+        }
+
+        void reset() {
+            mActive = false;
+            apply(1, 0, 0);
+        }
+
+        private void apply(float zoom, float offsetX, float offsetY) {
+            if (mRenderData.setViewport(zoom, offsetX, offsetY) && mRenderData.imageWidth > 0 && mRenderData.imageHeight > 0)
+                LorieView.setViewport(mRenderData.zoom, mRenderData.offsetX / mRenderData.imageWidth, mRenderData.offsetY / mRenderData.imageHeight);
+        }
     }
 
     /** @noinspection NullableProblems*/
@@ -1091,7 +1259,7 @@ public class TouchInputHandler {
             mScroller = new GestureDetector(ctx, this, null, false);
         }
         private final Handler handler = new Handler();
-        private final Runnable mouseDownRunnable = () -> mInjector.sendMouseEvent(mRenderData.getCursorPosition(), InputStub.BUTTON_LEFT, true, false);
+        private final Runnable mouseDownRunnable = () -> mInjector.sendMouseEvent(mRenderData.getCursorPosition(mCursor), InputStub.BUTTON_LEFT, true, false);
 
         private final int[][] buttons = {
                 {MotionEvent.BUTTON_PRIMARY, InputStub.BUTTON_LEFT},
@@ -1112,7 +1280,7 @@ public class TouchInputHandler {
             currentBS = e.getButtonState();
             for (int[] button: buttons) {
                 if (isMouseButtonChanged(button[0])) {
-                    mInjector.sendMouseEvent(mRenderData.getCursorPosition(), button[1], mouseButtonDown(button[0]), false);
+                    mInjector.sendMouseEvent(mRenderData.getCursorPosition(mCursor), button[1], mouseButtonDown(button[0]), false);
                     isHandled = true;
                 }
             }
@@ -1142,9 +1310,9 @@ public class TouchInputHandler {
                     checkButtons(e);
                     return true;
                 case MotionEvent.ACTION_HOVER_MOVE: {
-                    float scaledX = e.getX() * mRenderData.scale.x, scaledY = e.getY() * mRenderData.scale.y;
+                    float scaledX = mRenderData.mapX(e.getX()), scaledY = mRenderData.mapY(e.getY());
                     if (mRenderData.setCursorPosition(scaledX, scaledY))
-                        mInjector.sendCursorMove(scaledX, scaledY, false);
+                        mInjector.sendCursorMove(scaledX, scaledY, false, InputEventSender.MOTION_HOVER);
                     return true;
                 }
                 case MotionEvent.ACTION_DOWN:
@@ -1157,7 +1325,7 @@ public class TouchInputHandler {
                         handler.postDelayed(mouseDownRunnable, 0);
                     } else if (!isButtonHandled) {
                         onTap = true;
-                        mInjector.sendMouseEvent(mRenderData.getCursorPosition(), InputStub.BUTTON_LEFT, true, false);
+                        mInjector.sendMouseEvent(mRenderData.getCursorPosition(mCursor), InputStub.BUTTON_LEFT, true, false);
                     }
                     return true;
                 case MotionEvent.ACTION_UP:
@@ -1167,10 +1335,10 @@ public class TouchInputHandler {
                         mIsScrolling = false;
                     }
                     else if (hasFlags(e, 0x4000000)) {
-                        mInjector.sendMouseEvent(mRenderData.getCursorPosition(), InputStub.BUTTON_LEFT, false, false);
+                        mInjector.sendMouseEvent(mRenderData.getCursorPosition(mCursor), InputStub.BUTTON_LEFT, false, false);
                         mIsDragging = false;
                     } else if (!isButtonHandled && onTap) {
-                        mInjector.sendMouseEvent(mRenderData.getCursorPosition(), InputStub.BUTTON_LEFT, false, false);
+                        mInjector.sendMouseEvent(mRenderData.getCursorPosition(mCursor), InputStub.BUTTON_LEFT, false, false);
                         onTap = false;
                     }
 
@@ -1179,7 +1347,7 @@ public class TouchInputHandler {
                     if (mIsScrolling && isScrollingEvent(e))
                         mScroller.onTouchEvent(e);
                     else if ((mIsDragging && hasFlags(e, 0x4000000)) || onTap) {
-                        float scaledX = e.getX() * mRenderData.scale.x, scaledY = e.getY() * mRenderData.scale.y;
+                        float scaledX = mRenderData.mapX(e.getX()), scaledY = mRenderData.mapY(e.getY());
                         if (mRenderData.setCursorPosition(scaledX, scaledY))
                             mInjector.sendCursorMove(scaledX, scaledY, false);
                     }
@@ -1209,8 +1377,8 @@ public class TouchInputHandler {
 
         @Override
         public boolean onSingleTapConfirmed(MotionEvent e) {
-            mInjector.sendMouseEvent(mRenderData.getCursorPosition(), InputStub.BUTTON_LEFT, true, false);
-            mInjector.sendMouseEvent(mRenderData.getCursorPosition(), InputStub.BUTTON_LEFT, false, false);
+            mInjector.sendMouseEvent(mRenderData.getCursorPosition(mCursor), InputStub.BUTTON_LEFT, true, false);
+            mInjector.sendMouseEvent(mRenderData.getCursorPosition(mCursor), InputStub.BUTTON_LEFT, false, false);
             return true;
         }
     }
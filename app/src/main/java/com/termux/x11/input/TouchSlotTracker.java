@@ -0,0 +1,79 @@
+package com.termux.x11.input;
+
+/**
+ * Keeps track of touches sent to X server: which pointer ids are down and where they were sent last.
+ * Updates are sent only for pointers which really moved, and touches Android did not report as
+ * lifted are ended once they disappear from events.
+ */
+final class TouchSlotTracker {
+    // These constants must match those in X server's XI2.h.
+    static final int XI_TouchBegin = 18;
+    static final int XI_TouchUpdate = 19;
+    static final int XI_TouchEnd = 20;
+
+    /** Android pointer ids are in range from 0 to 31, so active pointers fit in int bitset. */
+    static final int MAX_POINTER_ID = 31;
+
+    private final InputStub mInjector;
+    private int mActive = 0;
+    private final int[] mX = new int[MAX_POINTER_ID + 1];
+    private final int[] mY = new int[MAX_POINTER_ID + 1];
+
+    TouchSlotTracker(InputStub injector) {
+        mInjector = injector;
+    }
+
+    static int bit(int id) {
+        return id >= 0 && id <= MAX_POINTER_ID ? 1 << id : 0;
+    }
+
+    /** Returns bitset of pointer ids which are down. */
+    int getActive() {
+        return mActive;
+    }
+
+    /** Starts a touch. If pointer with the same id was not lifted, its touch is ended first. */
+    void begin(int id, int x, int y) {
+        if ((mActive & bit(id)) != 0)
+            mInjector.sendTouchEvent(XI_TouchEnd, id, mX[id], mY[id]);
+        set(id, x, y);
+        mInjector.sendTouchEvent(XI_TouchBegin, id, x, y);
+    }
+
+    /** Moves a touch, nothing is sent if pointer is down and did not move. */
+    void update(int id, int x, int y) {
+        int bit = bit(id);
+        if ((mActive & bit) != 0 && mX[id] == x && mY[id] == y)
+            return;
+        set(id, x, y);
+        mInjector.sendTouchEvent(XI_TouchUpdate, id, x, y);
+    }
+
+    /** Moves a touch to its last position and ends it. */
+    void end(int id, int x, int y) {
+        update(id, x, y);
+        mActive &= ~bit(id);
+        mInjector.sendTouchEvent(XI_TouchEnd, id, x, y);
+    }
+
+    /**
+     * Ends touches of pointers which are not in the given bitset.
+     * Sometimes Android does not send ACTION_POINTER_UP/ACTION_UP so some pointers are "stuck" in pressed state.
+     */
+    void endMissing(int present) {
+        for (int missing = mActive & ~present; missing != 0; missing &= missing - 1) {
+            int id = Integer.numberOfTrailingZeros(missing);
+            mInjector.sendTouchEvent(XI_TouchEnd, id, mX[id], mY[id]);
+        }
+        mActive &= present;
+    }
+
+    private void set(int id, int x, int y) {
+        int bit = bit(id);
+        if (bit == 0)
+            return;
+        mActive |= bit;
+        mX[id] = x;
+        mY[id] = y;
+    }
+}
@@ -0,0 +1,130 @@
+package com.termux.x11.benchmark;
+
+import android.content.Context;
+import android.graphics.PointF;
+import android.view.MotionEvent;
+
+import com.termux.x11.input.InputEventSender;
+import com.termux.x11.input.InputStrategyInterface;
+import com.termux.x11.input.InputStub;
+import com.termux.x11.input.RenderData;
+import com.termux.x11.input.StylusPipeline;
+import com.termux.x11.input.StylusState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mapping of view coordinates to X screen on the per-event paths, with the viewport zoomed.
+ *
+ * Allocation-free code allocates nothing even before it is compiled, so allocations are not left to
+ * escape analysis: setup counts bytes allocated by the thread while every path handles a few thousand
+ * events and fails if it is a byte per event or more. Run with `-prof gc` to see the same for compiled code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordinateMappingBenchmark {
+    private static final int COUNTED_EVENTS = 4096;
+
+    private MotionEvent[] events;
+    private RenderData renderData;
+    private CountingInputStub stub;
+    private InputEventSender sender;
+    private InputStrategyInterface strategy;
+    private StylusPipeline pipeline;
+    private final StylusState stylus = new StylusState();
+    private final PointF cursor = new PointF();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        events = MotionEvents.gesture(2, 120, 600, 400, 0);
+        // X screen is smaller than the view, and the view is zoomed in.
+        renderData = new RenderData();
+        renderData.screenWidth = 1920;
+        renderData.screenHeight = 1080;
+        renderData.imageWidth = 2400;
+        renderData.imageHeight = 1080;
+        renderData.scale.set(0.8f, 1);
+        renderData.setViewport(2, 300, 200);
+        stub = new CountingInputStub();
+        sender = new InputEventSender(stub);
+        strategy = new InputStrategyInterface.SimulatedTouchInputStrategy(renderData, sender, new Context());
+        pipeline = new StylusPipeline(sender, renderData);
+        stylus.x = stylus.y = Float.NaN;
+        index = 0;
+
+        count("touch", this::touch);
+        count("tap", this::tap);
+        count("hover", this::hover);
+        count("stylus", this::stylus);
+        index = 0;
+    }
+
+    private void count(String path, Runnable op) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        // The first pass initializes classes and takes every branch once.
+        for (int i = 0; i < COUNTED_EVENTS; i++)
+            op.run();
+
+        long before = bean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < COUNTED_EVENTS; i++)
+            op.run();
+        long allocated = bean.getCurrentThreadAllocatedBytes() - before;
+        System.out.printf("%n%s: %d bytes allocated by %d events", path, allocated, COUNTED_EVENTS);
+        // An object per event takes at least 16 bytes, less than a byte is the JVM compiling the path.
+        if (allocated >= COUNTED_EVENTS)
+            throw new IllegalStateException(path + " allocates " + (double) allocated / COUNTED_EVENTS + " bytes per event");
+    }
+
+    /** Touchscreen mode, every pointer of a two-finger drag is mapped. */
+    @Benchmark
+    public long touch() {
+        sender.sendTouchEvent(events[index], renderData);
+        if (++index == events.length)
+            index = 0;
+        return stub.checksum;
+    }
+
+    /** Simulated touch mode, a tap is sent at the cursor and checked for a double tap. */
+    @Benchmark
+    public long tap() {
+        renderData.setCursorPosition(++index & 1023, 500);
+        strategy.onTap(InputStub.BUTTON_LEFT);
+        return stub.checksum;
+    }
+
+    /** Mouse hover and simulated touch drags, position is mapped and a button is sent at the cursor. */
+    @Benchmark
+    public long hover() {
+        int i = ++index & 1023;
+        float x = renderData.mapX(i), y = renderData.mapY(i / 2f);
+        if (renderData.setCursorPosition(x, y))
+            sender.sendCursorMove(x, y, false);
+        sender.sendMouseEvent(renderData.getCursorPosition(cursor), InputStub.BUTTON_LEFT, (i & 1) == 0, false);
+        return stub.checksum;
+    }
+
+    /** Stylus state without a position is sent at the cursor. */
+    @Benchmark
+    public long stylus() {
+        stylus.pressure = ++index & 65535;
+        pipeline.send(stylus);
+        return stub.checksum;
+    }
+}
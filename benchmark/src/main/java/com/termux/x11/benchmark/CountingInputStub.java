@@ -0,0 +1,56 @@
+package com.termux.x11.benchmark;
+
+import com.termux.x11.input.InputStub;
+
+/**
+ * {@link InputStub} which counts calls and mixes arguments into a checksum instead of sending them
+ * to X server, so JIT can not drop the work done to produce them.
+ */
+public class CountingInputStub implements InputStub {
+    public long events;
+    public long checksum;
+
+    private void count(long value) {
+        events++;
+        checksum = checksum * 31 + value;
+    }
+
+    @Override
+    public void sendMouseEvent(float x, float y, int whichButton, boolean buttonDown, boolean relative) {
+        count(Float.floatToRawIntBits(x) ^ Float.floatToRawIntBits(y) ^ whichButton ^ (buttonDown ? 1 : 0) ^ (relative ? 2 : 0));
+    }
+
+    @Override
+    public void sendMouseWheelEvent(float deltaX, float deltaY) {
+        count(Float.floatToRawIntBits(deltaX) ^ Float.floatToRawIntBits(deltaY));
+    }
+
+    @Override
+    public boolean sendKeyEvent(int scanCode, int keyCode, boolean keyDown) {
+        count(scanCode ^ keyCode ^ (keyDown ? 1 : 0));
+        return true;
+    }
+
+    @Override
+    public void sendTextEvent(byte[] utf8Bytes, int length) {
+        long hash = length;
+        for (int i = 0; i < length; i++)
+            hash = hash * 31 + utf8Bytes[i];
+        count(hash);
+    }
+
+    @Override
+    public void sendTouchEvent(int action, int pointerId, int x, int y) {
+        count(action ^ pointerId ^ x ^ y);
+    }
+
+    @Override
+    public void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouseMode) {
+        count(Float.floatToRawIntBits(x) ^ Float.floatToRawIntBits(y) ^ pressure ^ tiltX ^ tiltY ^ orientation ^ buttons ^ (eraser ? 1 : 0) ^ (mouseMode ? 2 : 0));
+    }
+
+    @Override
+    public void setEventTime(long nanos) {
+        checksum ^= nanos;
+    }
+}
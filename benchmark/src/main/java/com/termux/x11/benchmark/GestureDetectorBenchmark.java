@@ -0,0 +1,125 @@
+package com.termux.x11.benchmark;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import com.termux.x11.benchmark.baseline.GestureDetector;
+import com.termux.x11.benchmark.baseline.SwipeDetector;
+import com.termux.x11.benchmark.baseline.TapGestureDetector;
+import com.termux.x11.input.TouchGestureRecognizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures gesture recognition of TouchInputHandler. Every operation is one MotionEvent of a synthetic
+ * stream: a tap, a drag, a two-finger swipe or a pinch.
+ *
+ * {@code detectors} is the former implementation which fed GestureDetector, TapGestureDetector and
+ * SwipeDetector with every event, {@code recognizer} is TouchGestureRecognizer which replaced them.
+ * Android's GestureDetector can not run on desktop JVM, the baseline one models its work without the
+ * JNI calls of its native velocity tracker and event copies, so {@code detectors} is a lower bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GestureDetectorBenchmark {
+    @Param({"tap", "drag", "swipe", "pinch"})
+    public String gesture;
+
+    private MotionEvent[] events;
+    private GestureDetector gestureDetector;
+    private TapGestureDetector tapDetector;
+    private SwipeDetector swipeDetector;
+    private TouchGestureRecognizer recognizer;
+    private int index;
+    private long taps;
+
+    @Setup
+    public void setUp() {
+        switch (gesture) {
+            case "tap": events = MotionEvents.gesture(1, 2, 2, 2, 0); break;
+            case "drag": events = MotionEvents.gesture(1, 60, 600, 400, 0); break;
+            case "swipe": events = MotionEvents.gesture(2, 60, 0, 500, 0); break;
+            default: events = MotionEvents.gesture(2, 60, 200, 0, 1); break;
+        }
+
+        gestureDetector = new GestureDetector(new Context(), new GestureDetector.Listener() {
+            @Override public void onScroll(MotionEvent e, float downX, float downY, float distanceX, float distanceY) { taps += (long) distanceY; }
+            @Override public void onFling(float velocityX, float velocityY) { taps += (long) velocityY; }
+            @Override public void onDoubleTapEvent(MotionEvent e) { taps++; }
+            @Override public void onSingleTapConfirmed() { taps++; }
+        });
+        tapDetector = new TapGestureDetector(new Context(), new TapGestureDetector.OnTapListener() {
+            @Override public void onTap(int pointerCount, float x, float y) { taps += pointerCount; }
+            @Override public void onLongPress(int pointerCount, float x, float y) { taps -= pointerCount; }
+        });
+        swipeDetector = new SwipeDetector(new Context());
+        recognizer = new TouchGestureRecognizer(new Context(), new TouchGestureRecognizer.Listener() {
+            @Override public void onTap(int pointerCount, float x, float y) { taps += pointerCount; }
+            @Override public void onLongPress(int pointerCount, float x, float y) { taps -= pointerCount; }
+            @Override public void onScroll(MotionEvent e, float downX, float downY, float distanceX, float distanceY) { taps += (long) distanceY; }
+            @Override public void onDoubleTapEvent(MotionEvent e) { taps++; }
+        });
+        index = 0;
+    }
+
+    private MotionEvent next() {
+        MotionEvent e = events[index];
+        if (++index == events.length) {
+            index = 0;
+            // Long-press timeouts fire on gesture boundaries, so they never pile up.
+            Looper.getMainLooper().runPending(SystemClock.uptimeMillis());
+        }
+        return e;
+    }
+
+    @Benchmark
+    public long gestureDetector() {
+        gestureDetector.onTouchEvent(next());
+        return taps;
+    }
+
+    @Benchmark
+    public long tapDetector() {
+        tapDetector.onTouchEvent(next());
+        return taps;
+    }
+
+    @Benchmark
+    public boolean swipeDetector() {
+        swipeDetector.onTouchEvent(next());
+        return swipeDetector.isSwiping();
+    }
+
+    @Benchmark
+    public boolean detectors() {
+        MotionEvent e = next();
+        gestureDetector.onTouchEvent(e);
+        tapDetector.onTouchEvent(e);
+        swipeDetector.onTouchEvent(e);
+        return swipeDetector.isSwiping() ^ (taps & 1) != 0;
+    }
+
+    @Benchmark
+    public boolean recognizer() {
+        recognizer.onTouchEvent(next());
+        return recognizer.isSwiping() ^ (taps & 1) != 0;
+    }
+}
@@ -0,0 +1,81 @@
+package com.termux.x11.benchmark;
+
+import android.content.Context;
+import android.view.MotionEvent;
+
+import com.termux.x11.input.InputEventSender;
+import com.termux.x11.input.InputStrategyInterface;
+import com.termux.x11.input.InputStub;
+import com.termux.x11.input.RenderData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mouse emulation strategies used in trackpad and simulated touchscreen modes.
+ * Every operation is one call of the strategy made by TouchInputHandler for a recognized gesture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputStrategyBenchmark {
+    @Param({"trackpad", "simulatedTouch"})
+    public String strategy;
+
+    private CountingInputStub stub;
+    private InputStrategyInterface input;
+    private MotionEvent up;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        RenderData renderData = new RenderData();
+        renderData.scale.set(1, 1);
+        renderData.screenWidth = renderData.imageWidth = 1920;
+        renderData.screenHeight = renderData.imageHeight = 1080;
+        stub = new CountingInputStub();
+        InputEventSender sender = new InputEventSender(stub);
+        input = "trackpad".equals(strategy)
+                ? new InputStrategyInterface.TrackpadInputStrategy(sender)
+                : new InputStrategyInterface.SimulatedTouchInputStrategy(renderData, sender, new Context());
+        up = MotionEvents.event(0, MotionEvent.ACTION_UP, MotionEvent.TOOL_TYPE_FINGER, 100, 100);
+        index = 0;
+    }
+
+    /** Taps with one, two and three fingers in turn, left taps are checked for double tap. */
+    @Benchmark
+    public long tap() {
+        input.onTap(++index % 3 + InputStub.BUTTON_LEFT);
+        return stub.checksum;
+    }
+
+    @Benchmark
+    public long scroll() {
+        input.onScroll((++index & 1) == 0 ? 3 : -3, 12);
+        return stub.checksum;
+    }
+
+    /** Press-and-hold followed by the MotionEvent which releases the button. */
+    @Benchmark
+    public long pressAndHold() {
+        if ((++index & 1) == 0)
+            input.onPressAndHold(InputStub.BUTTON_LEFT, true);
+        else
+            input.onMotionEvent(up);
+        return stub.checksum;
+    }
+}
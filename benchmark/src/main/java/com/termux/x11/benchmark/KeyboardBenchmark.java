@@ -0,0 +1,94 @@
+package com.termux.x11.benchmark;
+
+import android.view.KeyEvent;
+
+import com.termux.x11.input.InputEventSender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link InputEventSender#sendKeyEvent(KeyEvent)} for sustained typing. Every operation is
+ * one key event, events are created in advance so only the sender is measured.
+ * Run with `-prof gc`: gc.alloc.rate.norm must stay at 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyboardBenchmark {
+    private static final String TEXT = "thequickbrownfoxjumpsoverthelazydog";
+
+    private KeyEvent[] typing, shortcuts, repeat;
+    private CountingInputStub stub;
+    private InputEventSender sender;
+    private int index;
+
+    private static KeyEvent key(int action, int keyCode, int repeat, int metaState) {
+        return new KeyEvent(0, 0, action, keyCode, repeat, metaState, 0, keyCode + 8, 0);
+    }
+
+    @Setup
+    public void setUp() {
+        // Text typed on hardware keyboard, every second letter with Shift, letters are sent as text.
+        typing = new KeyEvent[TEXT.length() * 2];
+        for (int i = 0; i < TEXT.length(); i++) {
+            int keyCode = KeyEvent.KEYCODE_A + TEXT.charAt(i) - 'a', meta = (i & 1) != 0 ? KeyEvent.META_SHIFT_ON : 0;
+            typing[i * 2] = key(KeyEvent.ACTION_DOWN, keyCode, 0, meta);
+            typing[i * 2 + 1] = key(KeyEvent.ACTION_UP, keyCode, 0, meta);
+        }
+
+        // Ctrl+letter shortcuts, they are sent as key events.
+        shortcuts = new KeyEvent[TEXT.length() * 2];
+        for (int i = 0; i < TEXT.length(); i++) {
+            int keyCode = KeyEvent.KEYCODE_A + TEXT.charAt(i) - 'a';
+            shortcuts[i * 2] = key(KeyEvent.ACTION_DOWN, keyCode, 0, KeyEvent.META_CTRL_ON);
+            shortcuts[i * 2 + 1] = key(KeyEvent.ACTION_UP, keyCode, 0, KeyEvent.META_CTRL_ON);
+        }
+
+        // Held key autorepeated by Android, repeats are dropped.
+        repeat = new KeyEvent[64];
+        repeat[0] = key(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_ENTER, 0, 0);
+        for (int i = 1; i < repeat.length - 1; i++)
+            repeat[i] = key(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_ENTER, i, 0);
+        repeat[repeat.length - 1] = key(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_ENTER, 0, 0);
+
+        stub = new CountingInputStub();
+        sender = new InputEventSender(stub);
+        index = 0;
+    }
+
+    private long send(KeyEvent[] events) {
+        sender.sendKeyEvent(events[index]);
+        if (++index == events.length)
+            index = 0;
+        return stub.checksum;
+    }
+
+    @Benchmark
+    public long typing() {
+        return send(typing);
+    }
+
+    @Benchmark
+    public long shortcuts() {
+        return send(shortcuts);
+    }
+
+    @Benchmark
+    public long autorepeat() {
+        return send(repeat);
+    }
+}
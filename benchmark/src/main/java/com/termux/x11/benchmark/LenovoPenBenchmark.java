@@ -0,0 +1,87 @@
+package com.termux.x11.benchmark;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+
+import com.termux.x11.Prefs;
+import com.termux.x11.input.InputEventSender;
+import com.termux.x11.input.LenovoPenButtonMapper;
+import com.termux.x11.input.RenderData;
+import com.termux.x11.input.StylusPipeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link LenovoPenButtonMapper} together with the stylus pipeline it drives. Every operation
+ * is one event of a stream where pen buttons are pressed while stylus draws: single press is
+ * mapped to a timed right button press, double press toggles middle button until the pen is lifted.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LenovoPenBenchmark {
+    private static final int SAMPLES = 64;
+
+    private KeyEvent[] keys;
+    private CountingInputStub stub;
+    private StylusPipeline pipeline;
+    private LenovoPenButtonMapper mapper;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        // Down and up of single press, then of double press, each with its own time.
+        keys = new KeyEvent[] {
+                new KeyEvent(0, 10, KeyEvent.ACTION_DOWN, 600, 0, 0, 0, 0, 0),
+                new KeyEvent(0, 20, KeyEvent.ACTION_UP, 600, 0, 0, 0, 0, 0),
+                new KeyEvent(0, 30, KeyEvent.ACTION_DOWN, 601, 0, 0, 0, 0, 0),
+                new KeyEvent(0, 40, KeyEvent.ACTION_UP, 601, 0, 0, 0, 0, 0),
+        };
+
+        RenderData renderData = new RenderData();
+        renderData.screenWidth = renderData.imageWidth = 1920;
+        renderData.screenHeight = renderData.imageHeight = 1080;
+        stub = new CountingInputStub();
+        pipeline = new StylusPipeline(new InputEventSender(stub), renderData);
+        mapper = new LenovoPenButtonMapper(new Context(), pipeline);
+        mapper.reloadPreferences(new Prefs(new MapSharedPreferences()
+                .put("lenovoPenSinglePressAction", "2")
+                .put("lenovoPenSinglePressDurationMs", "150")
+                .put("lenovoPenDoublePressAction", "3")
+                .put("lenovoPenDoublePressToggle", true)
+                .put("lenovoPenDoublePressToggleOffOnLift", true)));
+        index = 0;
+    }
+
+    @Benchmark
+    public long event() {
+        int i = index++ & (SAMPLES - 1);
+        if (i < keys.length)
+            mapper.onKeyEvent(keys[i]);
+        else {
+            // A stroke, pen is lifted at the end of it.
+            float pressure = i == SAMPLES - 1 ? 0 : 0.5f;
+            pipeline.onSample(100 + i * 10, 200 + i * 5, pressure, 0.5f, 0.2f, pressure > 0 ? 1 : 0, true, false);
+        }
+        if (i == SAMPLES - 1)
+            Looper.getMainLooper().runPending(SystemClock.uptimeMillis() + 1000);
+        return stub.checksum;
+    }
+}
@@ -0,0 +1,31 @@
+package com.termux.x11.benchmark;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** In-memory {@link SharedPreferences} used to configure benchmarked classes. */
+class MapSharedPreferences implements SharedPreferences {
+    private final Map<String, Object> mValues = new HashMap<>();
+
+    MapSharedPreferences put(String key, Object value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return (String) mValues.getOrDefault(key, defValue);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return (Integer) mValues.getOrDefault(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return (Boolean) mValues.getOrDefault(key, defValue);
+    }
+}
@@ -0,0 +1,62 @@
+package com.termux.x11.benchmark;
+
+import android.view.MotionEvent;
+
+/** Builds synthetic MotionEvent streams. Pointer ids are equal to pointer indices. */
+final class MotionEvents {
+    private MotionEvents() {}
+
+    /**
+     * Creates an event.
+     *
+     * @param time event time in milliseconds.
+     * @param xy coordinates of every pointer, x and y of the first one go first.
+     */
+    static MotionEvent event(long time, int action, int toolType, float... xy) {
+        MotionEvent e = MotionEvent.obtain(time, time, action, xy[0], xy[1], 0);
+        e.setPointerCount(xy.length / 2);
+        for (int p = 0; p < xy.length / 2; p++)
+            e.setPointer(p, p, toolType, xy[p * 2], xy[p * 2 + 1]);
+        return e;
+    }
+
+    private static float[] positions(int pointers, float x, float y, float dx, float dy, float spread) {
+        float[] xy = new float[pointers * 2];
+        for (int p = 0; p < pointers; p++) {
+            // Fingers move apart when spread is not 0, like in pinch gesture.
+            xy[p * 2] = x + p * 100 + dx * (1 + p * spread);
+            xy[p * 2 + 1] = y + dy * (1 + p * spread);
+        }
+        return xy;
+    }
+
+    private static float[] firstPointers(float[] xy, int count) {
+        return java.util.Arrays.copyOf(xy, count * 2);
+    }
+
+    /**
+     * Creates a complete gesture: fingers go down one by one, move by (dx, dy) in given number
+     * of samples and go up in reverse order.
+     *
+     * @param spread 0 if all fingers move together, positive if they also move apart.
+     */
+    static MotionEvent[] gesture(int pointers, int samples, float dx, float dy, float spread) {
+        MotionEvent[] events = new MotionEvent[pointers * 2 + samples];
+        long time = 1000;
+        int i = 0;
+        float[] xy = positions(pointers, 200, 300, 0, 0, spread);
+        for (int p = 0; p < pointers; p++, time += 8) {
+            int action = p == 0 ? MotionEvent.ACTION_DOWN : MotionEvent.ACTION_POINTER_DOWN | (p << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+            events[i++] = event(time, action, MotionEvent.TOOL_TYPE_FINGER, firstPointers(xy, p + 1));
+        }
+        for (int s = 1; s <= samples; s++, time += 8) {
+            xy = positions(pointers, 200, 300, dx * s / samples, dy * s / samples, spread);
+            events[i++] = event(time, MotionEvent.ACTION_MOVE, MotionEvent.TOOL_TYPE_FINGER, xy);
+        }
+        for (int p = pointers - 1; p >= 0; p--, time += 8) {
+            int action = p == 0 ? MotionEvent.ACTION_UP : MotionEvent.ACTION_POINTER_UP | (p << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+            events[i++] = event(time, action, MotionEvent.TOOL_TYPE_FINGER, firstPointers(xy, p + 1));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,237 @@
+package com.termux.x11.benchmark;
+
+import com.termux.x11.input.InputTraceReplayer;
+import com.termux.x11.input.PositionPredictor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates {@link PositionPredictor} on strokes and measures the cost of a sample. By default strokes
+ * are synthesized, pass `-p trace=<file>` to JMH to use stylus and touch strokes of a trace recorded
+ * with `termux-x11-preference trace`.
+ *
+ * Accuracy is printed once per fork: mean and 95th percentile distance between the position predicted
+ * `horizonMs` ahead and the real one, the same for the last sample sent as is, and latency saved, which
+ * is how far ahead of the last sample the real position closest to the prediction is.
+ * Score is time of adding a sample and predicting, run with `-prof gc`: gc.alloc.rate.norm must stay at 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredictionBenchmark {
+    private static final long MS = 1_000_000L;
+    private static final long GAP = 200 * MS;
+    private static final int STYLUS = 32;
+
+    @Param({""})
+    public String trace;
+
+    @Param({"16"})
+    public int horizonMs;
+
+    /** Stroke of one pointer, times are in nanoseconds. */
+    private static final class Stroke {
+        long[] t = new long[64];
+        float[] x = new float[64], y = new float[64];
+        int size;
+
+        void add(long time, float px, float py) {
+            if (size == t.length) {
+                t = Arrays.copyOf(t, size * 2);
+                x = Arrays.copyOf(x, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+            }
+            t[size] = time;
+            x[size] = px;
+            y[size] = py;
+            size++;
+        }
+
+        /** Writes the position at the given time to out, returns false if it is past the end of stroke. */
+        boolean at(long time, float[] out) {
+            int i = Arrays.binarySearch(t, 0, size, time);
+            if (i >= 0) {
+                out[0] = x[i];
+                out[1] = y[i];
+                return true;
+            }
+            i = -i - 1;
+            if (i == 0 || i == size)
+                return false;
+            float f = (float) (time - t[i - 1]) / (t[i] - t[i - 1]);
+            out[0] = x[i - 1] + (x[i] - x[i - 1]) * f;
+            out[1] = y[i - 1] + (y[i] - y[i - 1]) * f;
+            return true;
+        }
+    }
+
+    private final List<Stroke> strokes = new ArrayList<>();
+    private final float[] predicted = new float[2];
+    private PositionPredictor predictor;
+    private long[] times;
+    private float[] xs, ys;
+    private int index;
+    private long time;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (trace.isEmpty())
+            synthesize();
+        else
+            load();
+
+        evaluate();
+
+        // The benchmark loops over all samples, strokes are separated by a gap so every one starts anew.
+        int total = 0;
+        for (Stroke s : strokes)
+            total += s.size;
+        times = new long[total];
+        xs = new float[total];
+        ys = new float[total];
+        int i = 0;
+        long base = 0;
+        for (Stroke s : strokes) {
+            for (int j = 0; j < s.size; j++, i++) {
+                times[i] = base + s.t[j] - s.t[0];
+                xs[i] = s.x[j];
+                ys[i] = s.y[j];
+            }
+            base = times[i - 1] + GAP;
+        }
+        predictor = new PositionPredictor(horizonMs * MS);
+        index = 0;
+        time = 0;
+    }
+
+    /** Handwriting-like strokes sampled at 240 Hz with speed changes and half-pixel noise of digitizer. */
+    private void synthesize() {
+        Random random = new Random(1);
+        for (int n = 0; n < 20; n++) {
+            Stroke s = new Stroke();
+            double cx = 400 + random.nextInt(1000), cy = 200 + random.nextInt(600);
+            double ax = 30 + random.nextInt(150), ay = 30 + random.nextInt(150);
+            double fx = 1 + random.nextInt(2), fy = 1 + random.nextInt(3), phase = random.nextDouble() * Math.PI;
+            double duration = 0.8 + random.nextDouble();
+            for (long t = 0; t < duration * 1e9; t += 1_000_000_000L / 240) {
+                // Strokes accelerate and slow down, like hand does.
+                double u = t / (duration * 1e9);
+                double p = 2 * Math.PI * (u - Math.sin(2 * Math.PI * u) / (2 * Math.PI));
+                s.add(t, (float) (cx + ax * Math.sin(fx * p + phase) + random.nextGaussian() * 0.5),
+                        (float) (cy + ay * Math.sin(fy * p) + random.nextGaussian() * 0.5));
+            }
+            strokes.add(s);
+        }
+    }
+
+    /** Splits stylus contacts and touches of the trace to strokes. */
+    private void load() throws IOException {
+        Stroke[] active = new Stroke[STYLUS + 1];
+        InputTraceReplayer[] replayer = new InputTraceReplayer[1];
+        replayer[0] = new InputTraceReplayer(new FileInputStream(trace), new CountingInputStub() {
+            @Override
+            public void sendTouchEvent(int action, int pointerId, int x, int y) {
+                if (pointerId >= 0 && pointerId < STYLUS)
+                    track(pointerId, action != 20 /* XI_TouchEnd */, x, y);
+            }
+
+            @Override
+            public void sendStylusEvent(float x, float y, int pressure, int tiltX, int tiltY, int orientation, int buttons, boolean eraser, boolean mouseMode) {
+                track(STYLUS, pressure > 0, x, y);
+            }
+
+            private void track(int id, boolean down, float x, float y) {
+                if (down) {
+                    if (active[id] == null)
+                        active[id] = new Stroke();
+                    active[id].add(replayer[0].getEventTime(), x, y);
+                } else if (active[id] != null) {
+                    if (active[id].size > 2)
+                        strokes.add(active[id]);
+                    active[id] = null;
+                }
+            }
+        }, 0);
+        replayer[0].replay();
+        if (strokes.isEmpty())
+            throw new IOException("Trace has no stylus or touch strokes");
+    }
+
+    private void evaluate() {
+        PositionPredictor predictor = new PositionPredictor(horizonMs * MS);
+        float[] real = new float[2], closest = new float[2];
+        List<Float> errors = new ArrayList<>(), stale = new ArrayList<>();
+        double saved = 0;
+        long horizon = horizonMs * MS;
+        for (Stroke s : strokes) {
+            predictor.reset(0);
+            for (int i = 0; i < s.size; i++) {
+                predictor.add(0, s.t[i], s.x[i], s.y[i]);
+                if (!predictor.predict(0, s.t[i] + horizon, predicted) || !s.at(s.t[i] + horizon, real))
+                    continue;
+                errors.add((float) Math.hypot(predicted[0] - real[0], predicted[1] - real[1]));
+                stale.add((float) Math.hypot(s.x[i] - real[0], s.y[i] - real[1]));
+
+                // The prediction is as good as a sample which is that much newer.
+                long best = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (long d = 0; d <= horizon; d += MS / 2) {
+                    s.at(s.t[i] + d, closest);
+                    double distance = Math.hypot(predicted[0] - closest[0], predicted[1] - closest[1]);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = d;
+                    }
+                }
+                saved += best;
+            }
+        }
+
+        errors.sort(null);
+        stale.sort(null);
+        System.out.printf("%n%d strokes, %d predictions %d ms ahead%n", strokes.size(), errors.size(), horizonMs);
+        System.out.printf("predicted: mean error %.2f, p95 %.2f%n", mean(errors), errors.get(errors.size() * 95 / 100));
+        System.out.printf("not predicted: mean error %.2f, p95 %.2f%n", mean(stale), stale.get(stale.size() * 95 / 100));
+        System.out.printf("latency saved: %.2f ms%n", saved / errors.size() / MS);
+    }
+
+    private static double mean(List<Float> values) {
+        double sum = 0;
+        for (float v : values)
+            sum += v;
+        return sum / values.size();
+    }
+
+    @Benchmark
+    public float sample() {
+        int i = index++;
+        if (index == times.length) {
+            index = 0;
+            time += times[times.length - 1] + GAP;
+        }
+        predictor.add(0, time + times[i], xs[i], ys[i]);
+        predictor.predict(0, time + times[i] + horizonMs * MS, predicted);
+        return predicted[0] + predicted[1];
+    }
+}
@@ -0,0 +1,85 @@
+package com.termux.x11.benchmark;
+
+import com.termux.x11.input.InputEventSender;
+import com.termux.x11.input.RenderData;
+import com.termux.x11.input.StylusPipeline;
+import com.termux.x11.input.StylusState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a stylus sample from the point it is read from MotionEvent to the point it
+ * is passed to {@link com.termux.x11.input.InputStub}, including button overlays and listeners.
+ * Run with `-prof gc`: gc.alloc.rate.norm must stay at 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StylusBenchmark {
+    // Samples are replayed in a loop, the size is a power of 2 to use a mask instead of modulo.
+    private static final int SAMPLES = 1024;
+
+    private final float[] x = new float[SAMPLES], y = new float[SAMPLES], pressure = new float[SAMPLES];
+    private final float[] tilt = new float[SAMPLES], orientation = new float[SAMPLES];
+    private final int[] buttons = new int[SAMPLES];
+    private CountingInputStub stub;
+    private StylusPipeline pipeline;
+    private int index;
+    private int listenerChecksum;
+
+    @Setup
+    public void setUp() {
+        // A stroke drawn with pen tilted in different directions, second button is pressed in the middle of it.
+        for (int i = 0; i < SAMPLES; i++) {
+            double phase = 2 * Math.PI * i / SAMPLES;
+            x[i] = (float) (960 + 500 * Math.cos(phase));
+            y[i] = (float) (540 + 300 * Math.sin(2 * phase));
+            pressure[i] = (float) (0.5 + 0.4 * Math.sin(7 * phase));
+            tilt[i] = (float) (Math.PI / 4 + Math.PI / 8 * Math.sin(3 * phase));
+            orientation[i] = (float) (Math.PI * Math.sin(phase));
+            buttons[i] = i > SAMPLES / 3 && i < SAMPLES / 2 ? 2 : 0;
+        }
+
+        RenderData renderData = new RenderData();
+        renderData.screenWidth = renderData.imageWidth = 1920;
+        renderData.screenHeight = renderData.imageHeight = 1080;
+        stub = new CountingInputStub();
+        pipeline = new StylusPipeline(new InputEventSender(stub), renderData);
+        pipeline.addListener(this::onStylusState);
+        index = 0;
+    }
+
+    private void onStylusState(StylusState state) {
+        listenerChecksum += state.buttons ^ state.pressure;
+    }
+
+    @Benchmark
+    public long sample() {
+        int i = index++ & (SAMPLES - 1);
+        pipeline.onSample(x[i], y[i], pressure[i], tilt[i], orientation[i], buttons[i], true, false);
+        return stub.checksum + listenerChecksum;
+    }
+
+    @Benchmark
+    public long sampleWithHoldMask() {
+        int i = index++ & (SAMPLES - 1);
+        if ((i & 63) == 0)
+            pipeline.setHoldMask((i & 64) == 0 ? 4 : 0);
+        pipeline.onSample(x[i], y[i], pressure[i], tilt[i], orientation[i], buttons[i], true, false);
+        return stub.checksum + listenerChecksum;
+    }
+}
@@ -0,0 +1,61 @@
+package com.termux.x11.benchmark;
+
+import android.view.MotionEvent;
+
+import com.termux.x11.input.InputEventSender;
+import com.termux.x11.input.RenderData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link InputEventSender#sendTouchEvent(MotionEvent, RenderData)} in touchscreen mode.
+ * Every operation is one MotionEvent of a drag made with given number of fingers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TouchBenchmark {
+    @Param({"1", "2", "5"})
+    public int fingers;
+
+    private MotionEvent[] events;
+    private RenderData renderData;
+    private CountingInputStub stub;
+    private InputEventSender sender;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        events = MotionEvents.gesture(fingers, 120, 600, 400, 0);
+        renderData = new RenderData();
+        renderData.scale.set(1, 1);
+        renderData.screenWidth = renderData.imageWidth = 1920;
+        renderData.screenHeight = renderData.imageHeight = 1080;
+        stub = new CountingInputStub();
+        sender = new InputEventSender(stub);
+        index = 0;
+    }
+
+    @Benchmark
+    public long event() {
+        sender.sendTouchEvent(events[index], renderData);
+        if (++index == events.length)
+            index = 0;
+        return stub.checksum;
+    }
+}
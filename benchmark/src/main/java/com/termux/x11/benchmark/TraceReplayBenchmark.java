@@ -0,0 +1,85 @@
+package com.termux.x11.benchmark;
+
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import com.termux.x11.input.InputEventSender;
+import com.termux.x11.input.InputTraceRecorder;
+import com.termux.x11.input.InputTraceReplayer;
+import com.termux.x11.input.RenderData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays an input trace as fast as possible. By default the trace is synthesized from typing
+ * and touch streams, pass `-p trace=<file>` to JMH to replay a trace recorded with
+ * `termux-x11-preference trace`. Score is time of replaying the whole trace.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceReplayBenchmark {
+    @Param({""})
+    public String trace;
+
+    private byte[] data;
+    private CountingInputStub stub;
+
+    @Setup
+    public void setUp() throws IOException {
+        stub = new CountingInputStub();
+        if (!trace.isEmpty()) {
+            data = Files.readAllBytes(Paths.get(trace));
+            return;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputTraceRecorder recorder = new InputTraceRecorder(new CountingInputStub());
+        InputEventSender sender = new InputEventSender(recorder);
+        RenderData renderData = new RenderData();
+        renderData.scale.set(1, 1);
+        renderData.screenWidth = renderData.imageWidth = 1920;
+        renderData.screenHeight = renderData.imageHeight = 1080;
+
+        recorder.start(out);
+        for (MotionEvent e : MotionEvents.gesture(2, 500, 600, 400, 0)) {
+            sender.beginBatch();
+            sender.setEventTime(e);
+            sender.sendTouchEvent(e, renderData);
+            sender.flushBatch();
+        }
+        for (char c : "the quick brown fox jumps over the lazy dog".toCharArray()) {
+            int keyCode = c == ' ' ? KeyEvent.KEYCODE_SPACE : KeyEvent.KEYCODE_A + c - 'a';
+            sender.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
+            sender.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyCode));
+        }
+        recorder.stop();
+        data = out.toByteArray();
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        new InputTraceReplayer(new ByteArrayInputStream(data), stub, 0).replay();
+        return stub.checksum;
+    }
+}
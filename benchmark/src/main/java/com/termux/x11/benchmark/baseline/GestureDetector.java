@@ -0,0 +1,346 @@
+package com.termux.x11.benchmark.baseline;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.view.MotionEvent;
+import android.view.ViewConfiguration;
+
+/**
+ * Model of the work Android's GestureDetector does for every event, configured the way
+ * TouchInputHandler used it before TouchGestureRecognizer: long-press disabled, double tap
+ * listener set. Android's one can not run on desktop JVM, it is kept as a baseline for
+ * GestureDetectorBenchmark.
+ *
+ * It follows AOSP's onTouchEvent: every event is added to a velocity tracker, focus of pointers is
+ * computed, SHOW_PRESS and TAP messages are posted and removed, and velocity is computed when a
+ * pointer goes up. Android's velocity tracker is native and the events it keeps are copied with
+ * MotionEvent.obtain(), those JNI calls and copies are not modelled, so this is a lower bound.
+ */
+public class GestureDetector {
+    public interface Listener {
+        void onScroll(MotionEvent e, float downX, float downY, float distanceX, float distanceY);
+
+        void onFling(float velocityX, float velocityY);
+
+        void onDoubleTapEvent(MotionEvent e);
+
+        void onSingleTapConfirmed();
+    }
+
+    private static final int SHOW_PRESS = 1;
+    private static final int TAP = 3;
+
+    private final Listener mListener;
+    private final int mTouchSlopSquare;
+    private final int mDoubleTapSlopSquare;
+    private final int mMinimumFlingVelocity;
+    private final int mMaximumFlingVelocity;
+    private final int mTapTimeout = ViewConfiguration.getTapTimeout();
+    private final int mDoubleTapTimeout = ViewConfiguration.getDoubleTapTimeout();
+    private final VelocityTracker mVelocityTracker = new VelocityTracker();
+    private final Handler mHandler;
+
+    private boolean mStillDown;
+    private boolean mDeferConfirmSingleTap;
+    private boolean mAlwaysInTapRegion;
+    private boolean mAlwaysInBiggerTapRegion;
+    private boolean mIsDoubleTapping;
+    private boolean mTapPending;
+
+    // Android keeps copies of these events, only the fields it reads are kept here.
+    private boolean mHasDown, mHasPreviousUp;
+    private float mDownX, mDownY;
+    private long mPreviousUpTime;
+
+    private float mLastFocusX, mLastFocusY;
+    private float mDownFocusX, mDownFocusY;
+
+    public GestureDetector(Context context, Listener listener) {
+        ViewConfiguration configuration = ViewConfiguration.get(context);
+        int touchSlop = configuration.getScaledTouchSlop(), doubleTapSlop = configuration.getScaledDoubleTapSlop();
+        mListener = listener;
+        mTouchSlopSquare = touchSlop * touchSlop;
+        mDoubleTapSlopSquare = doubleTapSlop * doubleTapSlop;
+        mMinimumFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        mMaximumFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+        mHandler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what != TAP)
+                    return;
+                mTapPending = false;
+                if (!mStillDown)
+                    mListener.onSingleTapConfirmed();
+                else
+                    mDeferConfirmSingleTap = true;
+            }
+        };
+    }
+
+    public void onTouchEvent(MotionEvent ev) {
+        final int action = ev.getActionMasked();
+        mVelocityTracker.addMovement(ev);
+
+        final boolean pointerUp = action == MotionEvent.ACTION_POINTER_UP;
+        final int skipIndex = pointerUp ? ev.getActionIndex() : -1;
+
+        // Determine focal point.
+        float sumX = 0, sumY = 0;
+        final int count = ev.getPointerCount();
+        for (int i = 0; i < count; i++) {
+            if (skipIndex == i)
+                continue;
+            sumX += ev.getX(i);
+            sumY += ev.getY(i);
+        }
+        final int div = pointerUp ? count - 1 : count;
+        final float focusX = sumX / div;
+        final float focusY = sumY / div;
+
+        switch (action) {
+            case MotionEvent.ACTION_POINTER_DOWN:
+                mDownFocusX = mLastFocusX = focusX;
+                mDownFocusY = mLastFocusY = focusY;
+                cancelTaps();
+                break;
+
+            case MotionEvent.ACTION_POINTER_UP: {
+                mDownFocusX = mLastFocusX = focusX;
+                mDownFocusY = mLastFocusY = focusY;
+
+                // Check the dot product of current velocities.
+                // If the pointer that left was opposing another velocity vector, clear.
+                mVelocityTracker.computeCurrentVelocity(1000, mMaximumFlingVelocity);
+                final int upIndex = ev.getActionIndex();
+                final int id1 = ev.getPointerId(upIndex);
+                final float x1 = mVelocityTracker.getXVelocity(id1);
+                final float y1 = mVelocityTracker.getYVelocity(id1);
+                for (int i = 0; i < count; i++) {
+                    if (i == upIndex)
+                        continue;
+
+                    final int id2 = ev.getPointerId(i);
+                    final float dot = x1 * mVelocityTracker.getXVelocity(id2) + y1 * mVelocityTracker.getYVelocity(id2);
+                    if (dot < 0) {
+                        mVelocityTracker.clear();
+                        break;
+                    }
+                }
+                break;
+            }
+
+            case MotionEvent.ACTION_DOWN: {
+                boolean hadTapMessage = mTapPending;
+                if (hadTapMessage) {
+                    mHandler.removeMessages(TAP);
+                    mTapPending = false;
+                }
+                if (mHasDown && mHasPreviousUp && hadTapMessage && isConsideredDoubleTap(ev)) {
+                    // This is a second tap.
+                    mIsDoubleTapping = true;
+                    mListener.onDoubleTapEvent(ev);
+                } else {
+                    // This is a first tap.
+                    mHandler.sendEmptyMessageDelayed(TAP, mDoubleTapTimeout);
+                    mTapPending = true;
+                }
+
+                mDownFocusX = mLastFocusX = focusX;
+                mDownFocusY = mLastFocusY = focusY;
+                mHasDown = true;
+                mDownX = ev.getX();
+                mDownY = ev.getY();
+                mAlwaysInTapRegion = true;
+                mAlwaysInBiggerTapRegion = true;
+                mStillDown = true;
+                mDeferConfirmSingleTap = false;
+                mHandler.sendEmptyMessageDelayed(SHOW_PRESS, mTapTimeout);
+                break;
+            }
+
+            case MotionEvent.ACTION_MOVE: {
+                final float scrollX = mLastFocusX - focusX;
+                final float scrollY = mLastFocusY - focusY;
+                if (mIsDoubleTapping) {
+                    mListener.onDoubleTapEvent(ev);
+                } else if (mAlwaysInTapRegion) {
+                    final int deltaX = (int) (focusX - mDownFocusX);
+                    final int deltaY = (int) (focusY - mDownFocusY);
+                    int distance = (deltaX * deltaX) + (deltaY * deltaY);
+                    if (distance > mTouchSlopSquare) {
+                        mListener.onScroll(ev, mDownX, mDownY, scrollX, scrollY);
+                        mLastFocusX = focusX;
+                        mLastFocusY = focusY;
+                        mAlwaysInTapRegion = false;
+                        mHandler.removeMessages(TAP);
+                        mTapPending = false;
+                        mHandler.removeMessages(SHOW_PRESS);
+                        // Android's double tap touch slop is the touch slop.
+                        mAlwaysInBiggerTapRegion = false;
+                    }
+                } else if ((Math.abs(scrollX) >= 1) || (Math.abs(scrollY) >= 1)) {
+                    mListener.onScroll(ev, mDownX, mDownY, scrollX, scrollY);
+                    mLastFocusX = focusX;
+                    mLastFocusY = focusY;
+                }
+                break;
+            }
+
+            case MotionEvent.ACTION_UP: {
+                mStillDown = false;
+                if (mIsDoubleTapping) {
+                    mListener.onDoubleTapEvent(ev);
+                } else if (mAlwaysInTapRegion) {
+                    if (mDeferConfirmSingleTap)
+                        mListener.onSingleTapConfirmed();
+                } else {
+                    // A fling must travel the minimum tap distance.
+                    final int pointerId = ev.getPointerId(0);
+                    mVelocityTracker.computeCurrentVelocity(1000, mMaximumFlingVelocity);
+                    final float velocityY = mVelocityTracker.getYVelocity(pointerId);
+                    final float velocityX = mVelocityTracker.getXVelocity(pointerId);
+                    if ((Math.abs(velocityY) > mMinimumFlingVelocity) || (Math.abs(velocityX) > mMinimumFlingVelocity))
+                        mListener.onFling(velocityX, velocityY);
+                }
+                mHasPreviousUp = true;
+                mPreviousUpTime = ev.getEventTime();
+                mVelocityTracker.clear();
+                mIsDoubleTapping = false;
+                mDeferConfirmSingleTap = false;
+                mHandler.removeMessages(SHOW_PRESS);
+                break;
+            }
+
+            case MotionEvent.ACTION_CANCEL:
+                mHandler.removeMessages(SHOW_PRESS);
+                mHandler.removeMessages(TAP);
+                mTapPending = false;
+                mVelocityTracker.clear();
+                mIsDoubleTapping = false;
+                mStillDown = false;
+                mAlwaysInTapRegion = false;
+                mAlwaysInBiggerTapRegion = false;
+                mDeferConfirmSingleTap = false;
+                break;
+        }
+    }
+
+    private void cancelTaps() {
+        mHandler.removeMessages(SHOW_PRESS);
+        mHandler.removeMessages(TAP);
+        mTapPending = false;
+        mIsDoubleTapping = false;
+        mAlwaysInTapRegion = false;
+        mAlwaysInBiggerTapRegion = false;
+        mDeferConfirmSingleTap = false;
+    }
+
+    private boolean isConsideredDoubleTap(MotionEvent secondDown) {
+        if (!mAlwaysInBiggerTapRegion)
+            return false;
+
+        final long deltaTime = secondDown.getEventTime() - mPreviousUpTime;
+        if (deltaTime > mDoubleTapTimeout || deltaTime < 40)
+            return false;
+
+        int deltaX = (int) mDownX - (int) secondDown.getX();
+        int deltaY = (int) mDownY - (int) secondDown.getY();
+        return (deltaX * deltaX + deltaY * deltaY < mDoubleTapSlopSquare);
+    }
+
+    /**
+     * Model of Android's default velocity tracker strategy: the last 20 samples of every pointer
+     * within 100 ms are fitted with a quadratic by least squares.
+     */
+    private static final class VelocityTracker {
+        private static final int MAX_POINTERS = 16;
+        private static final int HISTORY = 20;
+        private static final long HORIZON_NANOS = 100_000_000L;
+        // Samples older than that belong to a pointer which stopped, they are dropped.
+        private static final long ASSUME_STOPPED_NANOS = 40_000_000L;
+
+        private final long[][] mTime = new long[MAX_POINTERS][HISTORY];
+        private final float[][] mX = new float[MAX_POINTERS][HISTORY], mY = new float[MAX_POINTERS][HISTORY];
+        private final int[] mCount = new int[MAX_POINTERS], mHead = new int[MAX_POINTERS];
+        private final float[] mVelocityX = new float[MAX_POINTERS], mVelocityY = new float[MAX_POINTERS];
+
+        void clear() {
+            for (int i = 0; i < MAX_POINTERS; i++)
+                mCount[i] = 0;
+        }
+
+        void addMovement(MotionEvent ev) {
+            int action = ev.getActionMasked();
+            if (action == MotionEvent.ACTION_DOWN)
+                clear();
+            for (int h = 0; h < ev.getHistorySize(); h++)
+                for (int p = 0; p < ev.getPointerCount(); p++)
+                    add(ev.getPointerId(p), ev.getHistoricalEventTimeNanos(h), ev.getHistoricalX(p, h), ev.getHistoricalY(p, h));
+            for (int p = 0; p < ev.getPointerCount(); p++)
+                add(ev.getPointerId(p), ev.getEventTimeNanos(), ev.getX(p), ev.getY(p));
+        }
+
+        private void add(int id, long time, float x, float y) {
+            if (id < 0 || id >= MAX_POINTERS)
+                return;
+            if (mCount[id] > 0 && time - mTime[id][mHead[id]] > ASSUME_STOPPED_NANOS)
+                mCount[id] = 0;
+            int i = mCount[id] == 0 ? 0 : (mHead[id] + 1) % HISTORY;
+            mTime[id][i] = time;
+            mX[id][i] = x;
+            mY[id][i] = y;
+            mHead[id] = i;
+            mCount[id] = Math.min(mCount[id] + 1, HISTORY);
+        }
+
+        void computeCurrentVelocity(int units, float maxVelocity) {
+            for (int id = 0; id < MAX_POINTERS; id++) {
+                mVelocityX[id] = mVelocityY[id] = 0;
+                if (mCount[id] < 2)
+                    continue;
+                mVelocityX[id] = Math.max(-maxVelocity, Math.min(maxVelocity, fit(id, mX[id]) * units));
+                mVelocityY[id] = Math.max(-maxVelocity, Math.min(maxVelocity, fit(id, mY[id]) * units));
+            }
+        }
+
+        // Derivative at the newest sample of quadratic fitted to samples, in units per second.
+        private float fit(int id, float[] values) {
+            long newest = mTime[id][mHead[id]];
+            double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, v0 = 0, v1 = 0, v2 = 0;
+            for (int n = 0, i = mHead[id]; n < mCount[id]; n++, i = (i + HISTORY - 1) % HISTORY) {
+                long age = newest - mTime[id][i];
+                if (age > HORIZON_NANOS)
+                    break;
+                double t = -age * 1e-9, t2 = t * t;
+                s0++;
+                s1 += t;
+                s2 += t2;
+                s3 += t2 * t;
+                s4 += t2 * t2;
+                v0 += values[i];
+                v1 += values[i] * t;
+                v2 += values[i] * t2;
+            }
+            if (s0 < 3) {
+                // Not enough samples for quadratic, a line through two of them.
+                double det = s0 * s2 - s1 * s1;
+                return det == 0 ? 0 : (float) ((s0 * v1 - s1 * v0) / det);
+            }
+
+            // Cramer's rule for the middle coefficient of normal equations.
+            double det = s0 * (s2 * s4 - s3 * s3) - s1 * (s1 * s4 - s3 * s2) + s2 * (s1 * s3 - s2 * s2);
+            double det1 = s0 * (v1 * s4 - s3 * v2) - v0 * (s1 * s4 - s3 * s2) + s2 * (s1 * v2 - v1 * s2);
+            return det == 0 ? 0 : (float) (det1 / det);
+        }
+
+        float getXVelocity(int id) {
+            return id >= 0 && id < MAX_POINTERS ? mVelocityX[id] : 0;
+        }
+
+        float getYVelocity(int id) {
+            return id >= 0 && id < MAX_POINTERS ? mVelocityY[id] : 0;
+        }
+    }
+}
@@ -2,7 +2,7 @@
 // Use of this source code is governed by a BSD-style license that can be
 // found in the LICENSE file.
 
-package com.termux.x11.input;
+package com.termux.x11.benchmark.baseline;
 
 import android.content.Context;
 import android.view.MotionEvent;
@@ -12,10 +12,14 @@ import android.view.ViewConfiguration;
  * Helper class for disambiguating whether to treat a two-finger gesture as a swipe or a pinch.
  * Initially, the status will be unknown, until the fingers have moved sufficiently far to
  * determine the intent.
+ *
+ * TouchInputHandler used it until TouchGestureRecognizer replaced it, it is kept as a baseline for
+ * GestureDetectorBenchmark.
  */
 @SuppressWarnings("ConstantConditions")
 public class SwipeDetector {
     private boolean mInSwipe = false;
+    private boolean mInPinch = false;
 
     /** Initial coordinates of the two pointers in the current gesture. */
     private float mFirstX0;
@@ -36,6 +40,7 @@ public class SwipeDetector {
 
     private void reset() {
         mInSwipe = false;
+        mInPinch = false;
         mInGesture = false;
     }
 
@@ -51,6 +56,11 @@ public class SwipeDetector {
         return mInSwipe;
     }
 
+    /** Returns whether a pinch is in progress. Unlike a swipe, a pinch may still turn into a swipe. */
+    public boolean isPinching() {
+        return mInPinch;
+    }
+
     /**
      * Analyzes the touch event to determine whether the user is swiping or pinching. Only
      * motion events with 2 pointers are considered here. Once the gesture is determined to be a
@@ -122,5 +132,6 @@ public class SwipeDetector {
         // directions.
         float scalarProduct = deltaX0 * deltaX1 + deltaY0 * deltaY1;
         mInSwipe = scalarProduct > 0;
+        mInPinch = !mInSwipe;
     }
 }
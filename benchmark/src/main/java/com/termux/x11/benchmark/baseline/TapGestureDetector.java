@@ -2,7 +2,7 @@
 // Use of this source code is governed by a BSD-style license that can be
 // found in the LICENSE file.
 
-package com.termux.x11.input;
+package com.termux.x11.benchmark.baseline;
 
 import android.content.Context;
 import android.graphics.PointF;
@@ -17,6 +17,9 @@ import java.lang.ref.WeakReference;
 /**
  * This class detects multi-finger tap and long-press events. This is provided since the stock
  * Android gesture-detectors only detect taps/long-presses made with one finger.
+ *
+ * TouchInputHandler used it until TouchGestureRecognizer replaced it, it is kept as a baseline for
+ * GestureDetectorBenchmark.
  */
 public class TapGestureDetector {
     /** The listener for receiving notifications of tap gestures. */
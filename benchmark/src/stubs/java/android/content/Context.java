@@ -0,0 +1,8 @@
+package android.content;
+
+/** Stand-in for Android's Context. */
+public class Context {
+    public Context getApplicationContext() {
+        return this;
+    }
+}
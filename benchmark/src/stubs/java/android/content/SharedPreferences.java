@@ -0,0 +1,10 @@
+package android.content;
+
+/** Stand-in for Android's SharedPreferences, only getters used by benchmarked sources. */
+public interface SharedPreferences {
+    String getString(String key, String defValue);
+
+    int getInt(String key, int defValue);
+
+    boolean getBoolean(String key, boolean defValue);
+}
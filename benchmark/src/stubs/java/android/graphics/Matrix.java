@@ -0,0 +1,4 @@
+package android.graphics;
+
+/** Stand-in for Android's Matrix, only needed to compile app sources. */
+public class Matrix {}
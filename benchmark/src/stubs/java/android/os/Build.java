@@ -0,0 +1,18 @@
+package android.os;
+
+/** Stand-in for Android's Build, benchmarks behave as on Android 14. */
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = VERSION_CODES.UPSIDE_DOWN_CAKE;
+    }
+
+    public static class VERSION_CODES {
+        public static final int O = 26;
+        public static final int P = 28;
+        public static final int Q = 29;
+        public static final int R = 30;
+        public static final int S = 31;
+        public static final int TIRAMISU = 33;
+        public static final int UPSIDE_DOWN_CAKE = 34;
+    }
+}
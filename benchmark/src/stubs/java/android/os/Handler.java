@@ -0,0 +1,47 @@
+package android.os;
+
+/** Stand-in for Android's Handler, see {@link Looper} for how messages are dispatched. */
+public class Handler {
+    private final Looper mLooper;
+
+    @Deprecated
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public void handleMessage(Message msg) {}
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        mLooper.post(this, r, 0, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+        return true;
+    }
+
+    public final boolean sendEmptyMessage(int what) {
+        return sendEmptyMessageDelayed(what, 0);
+    }
+
+    public final boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+        mLooper.post(this, null, what, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        mLooper.remove(this, r, 0);
+    }
+
+    public final void removeMessages(int what) {
+        mLooper.remove(this, null, what);
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+}
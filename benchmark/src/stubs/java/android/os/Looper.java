@@ -0,0 +1,88 @@
+package android.os;
+
+/**
+ * Stand-in for Android's Looper. There is no thread behind it, messages and callbacks posted to
+ * its handlers are kept until {@link #runPending(long)} is called, so benchmarks control when
+ * timeouts fire.
+ */
+public final class Looper {
+    private static final Looper sMainLooper = new Looper();
+
+    private Handler[] mHandlers = new Handler[16];
+    private Runnable[] mCallbacks = new Runnable[16];
+    private int[] mWhats = new int[16];
+    private long[] mTimes = new long[16];
+    private int mSize;
+    private final Message mMessage = new Message();
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sMainLooper;
+    }
+
+    void post(Handler handler, Runnable callback, int what, long uptimeMillis) {
+        if (mSize == mHandlers.length) {
+            mHandlers = java.util.Arrays.copyOf(mHandlers, mSize * 2);
+            mCallbacks = java.util.Arrays.copyOf(mCallbacks, mSize * 2);
+            mWhats = java.util.Arrays.copyOf(mWhats, mSize * 2);
+            mTimes = java.util.Arrays.copyOf(mTimes, mSize * 2);
+        }
+        mHandlers[mSize] = handler;
+        mCallbacks[mSize] = callback;
+        mWhats[mSize] = what;
+        mTimes[mSize] = uptimeMillis;
+        mSize++;
+    }
+
+    void remove(Handler handler, Runnable callback, int what) {
+        int j = 0;
+        for (int i = 0; i < mSize; i++) {
+            boolean matches = mHandlers[i] == handler && (callback != null ? mCallbacks[i] == callback : mCallbacks[i] == null && mWhats[i] == what);
+            if (!matches) {
+                mHandlers[j] = mHandlers[i];
+                mCallbacks[j] = mCallbacks[i];
+                mWhats[j] = mWhats[i];
+                mTimes[j] = mTimes[i];
+                j++;
+            }
+        }
+        for (int i = j; i < mSize; i++) {
+            mHandlers[i] = null;
+            mCallbacks[i] = null;
+        }
+        mSize = j;
+    }
+
+    /** Stand-in only: dispatches messages and callbacks which are due at the given time. */
+    public void runPending(long uptimeMillis) {
+        for (int i = 0; i < mSize; i++) {
+            if (mTimes[i] > uptimeMillis)
+                continue;
+
+            Handler handler = mHandlers[i];
+            Runnable callback = mCallbacks[i];
+            mMessage.what = mWhats[i];
+            System.arraycopy(mHandlers, i + 1, mHandlers, i, mSize - i - 1);
+            System.arraycopy(mCallbacks, i + 1, mCallbacks, i, mSize - i - 1);
+            System.arraycopy(mWhats, i + 1, mWhats, i, mSize - i - 1);
+            System.arraycopy(mTimes, i + 1, mTimes, i, mSize - i - 1);
+            mSize--;
+            mHandlers[mSize] = null;
+            mCallbacks[mSize] = null;
+            i--;
+
+            if (callback != null)
+                callback.run();
+            else
+                handler.handleMessage(mMessage);
+        }
+    }
+
+    /** Stand-in only: returns the number of pending messages and callbacks. */
+    public int pendingCount() {
+        return mSize;
+    }
+}
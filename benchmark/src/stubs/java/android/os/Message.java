@@ -0,0 +1,6 @@
+package android.os;
+
+/** Stand-in for Android's Message. */
+public final class Message {
+    public int what;
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+/** Stand-in for Android's SystemClock. */
+public final class SystemClock {
+    private SystemClock() {}
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public static long uptimeNanos() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,30 @@
+package android.view;
+
+/** Stand-in for Android's InputEvent. */
+public abstract class InputEvent {
+    long mEventTimeNanos;
+    int mDeviceId;
+    int mSource;
+
+    InputEvent() {}
+
+    public int getDeviceId() {
+        return mDeviceId;
+    }
+
+    public int getSource() {
+        return mSource;
+    }
+
+    public void setSource(int source) {
+        mSource = source;
+    }
+
+    public final long getEventTime() {
+        return mEventTimeNanos / 1000000;
+    }
+
+    public final long getEventTimeNanos() {
+        return mEventTimeNanos;
+    }
+}
@@ -0,0 +1,130 @@
+package android.view;
+
+/** Stand-in for Android's KeyEvent, holds the values it was created with. */
+public class KeyEvent extends InputEvent {
+    public static final int KEYCODE_UNKNOWN = 0;
+    public static final int KEYCODE_2 = 9;
+    public static final int KEYCODE_3 = 10;
+    public static final int KEYCODE_8 = 15;
+    public static final int KEYCODE_STAR = 17;
+    public static final int KEYCODE_POUND = 18;
+    public static final int KEYCODE_A = 29;
+    public static final int KEYCODE_ALT_RIGHT = 58;
+    public static final int KEYCODE_SHIFT_LEFT = 59;
+    public static final int KEYCODE_SPACE = 62;
+    public static final int KEYCODE_ENTER = 66;
+    public static final int KEYCODE_EQUALS = 70;
+    public static final int KEYCODE_AT = 77;
+    public static final int KEYCODE_PLUS = 81;
+    public static final int KEYCODE_ESCAPE = 111;
+
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MULTIPLE = 2;
+
+    public static final int META_SHIFT_ON = 1;
+    public static final int META_ALT_ON = 2;
+    public static final int META_ALT_LEFT_ON = 16;
+    public static final int META_ALT_RIGHT_ON = 32;
+    public static final int META_SHIFT_LEFT_ON = 64;
+    public static final int META_SHIFT_RIGHT_ON = 128;
+    public static final int META_CTRL_ON = 4096;
+    public static final int META_CTRL_LEFT_ON = 8192;
+    public static final int META_CTRL_RIGHT_ON = 16384;
+    public static final int META_META_ON = 65536;
+    public static final int META_META_LEFT_ON = 131072;
+    public static final int META_META_RIGHT_ON = 262144;
+
+    public static final int FLAG_CANCELED = 32;
+
+    private final int mAction;
+    private final int mKeyCode;
+    private final int mScanCode;
+    private final int mMetaState;
+    private final int mRepeatCount;
+    private final int mFlags;
+    private final String mCharacters;
+
+    public KeyEvent(int action, int code) {
+        this(0, 0, action, code, 0, 0, 0, 0, 0);
+    }
+
+    public KeyEvent(long downTime, long eventTime, int action, int code, int repeat, int metaState, int deviceId, int scancode, int flags) {
+        mEventTimeNanos = eventTime * 1000000;
+        mDeviceId = deviceId;
+        mAction = action;
+        mKeyCode = code;
+        mScanCode = scancode;
+        mMetaState = metaState;
+        mRepeatCount = repeat;
+        mFlags = flags;
+        mCharacters = null;
+    }
+
+    public KeyEvent(long time, String characters, int deviceId, int flags) {
+        mEventTimeNanos = time * 1000000;
+        mDeviceId = deviceId;
+        mAction = ACTION_MULTIPLE;
+        mKeyCode = KEYCODE_UNKNOWN;
+        mScanCode = 0;
+        mMetaState = 0;
+        mRepeatCount = 0;
+        mFlags = flags;
+        mCharacters = characters;
+    }
+
+    public final int getAction() {
+        return mAction;
+    }
+
+    public final int getKeyCode() {
+        return mKeyCode;
+    }
+
+    public final int getScanCode() {
+        return mScanCode;
+    }
+
+    public final int getMetaState() {
+        return mMetaState;
+    }
+
+    public final int getRepeatCount() {
+        return mRepeatCount;
+    }
+
+    public final int getFlags() {
+        return mFlags;
+    }
+
+    public final String getCharacters() {
+        return mCharacters;
+    }
+
+    public int getUnicodeChar() {
+        if (mKeyCode >= KEYCODE_A && mKeyCode < KEYCODE_A + 26)
+            return ((mMetaState & META_SHIFT_ON) != 0 ? 'A' : 'a') + mKeyCode - KEYCODE_A;
+        return 0;
+    }
+
+    public final boolean hasNoModifiers() {
+        return (mMetaState & (META_SHIFT_ON | META_ALT_ON | META_CTRL_ON | META_META_ON)) == 0;
+    }
+
+    public final boolean isAltPressed() {
+        return (mMetaState & META_ALT_ON) != 0;
+    }
+
+    public final boolean isCtrlPressed() {
+        return (mMetaState & META_CTRL_ON) != 0;
+    }
+
+    public final boolean isMetaPressed() {
+        return (mMetaState & META_META_ON) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyEvent { action=" + mAction + ", keyCode=" + mKeyCode + ", scanCode=" + mScanCode + " }";
+    }
+}
@@ -0,0 +1,217 @@
+package android.view;
+
+/**
+ * Stand-in for Android's MotionEvent. Unlike the real one it is mutable, so benchmarks can reuse
+ * a single instance instead of measuring allocations of the fake itself.
+ */
+public final class MotionEvent extends InputEvent {
+    public static final int ACTION_MASK = 255;
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_CANCEL = 3;
+    public static final int ACTION_OUTSIDE = 4;
+    public static final int ACTION_POINTER_DOWN = 5;
+    public static final int ACTION_POINTER_UP = 6;
+    public static final int ACTION_HOVER_MOVE = 7;
+    public static final int ACTION_SCROLL = 8;
+    public static final int ACTION_HOVER_ENTER = 9;
+    public static final int ACTION_HOVER_EXIT = 10;
+    public static final int ACTION_BUTTON_PRESS = 11;
+    public static final int ACTION_BUTTON_RELEASE = 12;
+    public static final int ACTION_POINTER_INDEX_MASK = 65280;
+    public static final int ACTION_POINTER_INDEX_SHIFT = 8;
+
+    public static final int AXIS_X = 0;
+    public static final int AXIS_Y = 1;
+    public static final int AXIS_PRESSURE = 2;
+    public static final int AXIS_ORIENTATION = 8;
+    public static final int AXIS_VSCROLL = 9;
+    public static final int AXIS_HSCROLL = 10;
+    public static final int AXIS_TILT = 25;
+
+    public static final int BUTTON_PRIMARY = 1;
+    public static final int BUTTON_SECONDARY = 2;
+    public static final int BUTTON_TERTIARY = 4;
+    public static final int BUTTON_STYLUS_PRIMARY = 32;
+    public static final int BUTTON_STYLUS_SECONDARY = 64;
+
+    public static final int TOOL_TYPE_UNKNOWN = 0;
+    public static final int TOOL_TYPE_FINGER = 1;
+    public static final int TOOL_TYPE_STYLUS = 2;
+    public static final int TOOL_TYPE_MOUSE = 3;
+    public static final int TOOL_TYPE_ERASER = 4;
+
+    public static final int FLAG_CANCELED = 32;
+
+    private static final int MAX_POINTERS = 16;
+    private static final int MAX_HISTORY = 16;
+
+    private int mAction;
+    private int mButtonState;
+    private int mPointerCount;
+    private final int[] mPointerIds = new int[MAX_POINTERS];
+    private final int[] mToolTypes = new int[MAX_POINTERS];
+    // [history][pointer][axis], the last row is the current sample.
+    private final float[][][] mAxes = new float[MAX_HISTORY + 1][MAX_POINTERS][AXIS_TILT + 1];
+    private final long[] mHistoricalTimes = new long[MAX_HISTORY];
+    private int mHistorySize;
+
+    private MotionEvent() {}
+
+    public static MotionEvent obtain(long downTime, long eventTime, int action, float x, float y, int metaState) {
+        MotionEvent e = new MotionEvent();
+        e.setPointerCount(1);
+        e.setPointer(0, 0, TOOL_TYPE_FINGER, x, y);
+        e.setEventTimeNanos(eventTime * 1000000);
+        e.setAction(action);
+        return e;
+    }
+
+    public void recycle() {}
+
+    /** Sets the number of pointers, their ids and coordinates are kept. */
+    public void setPointerCount(int count) {
+        mPointerCount = count;
+    }
+
+    /** Sets current sample of pointer with given index. */
+    public void setPointer(int index, int id, int toolType, float x, float y) {
+        mPointerIds[index] = id;
+        mToolTypes[index] = toolType;
+        mAxes[mHistorySize][index][AXIS_X] = x;
+        mAxes[mHistorySize][index][AXIS_Y] = y;
+    }
+
+    /** Sets an axis of current sample of pointer with given index. */
+    public void setAxisValue(int axis, int index, float value) {
+        mAxes[mHistorySize][index][axis] = value;
+    }
+
+    /** Moves current sample to history and starts a new one with the same values. */
+    public void addBatch(long eventTimeNanos) {
+        mHistoricalTimes[mHistorySize] = mEventTimeNanos;
+        mHistorySize++;
+        for (int p = 0; p < mPointerCount; p++)
+            System.arraycopy(mAxes[mHistorySize - 1][p], 0, mAxes[mHistorySize][p], 0, AXIS_TILT + 1);
+        mEventTimeNanos = eventTimeNanos;
+    }
+
+    /** Drops historical samples, current sample is kept. */
+    public void clearHistory() {
+        if (mHistorySize == 0)
+            return;
+        for (int p = 0; p < mPointerCount; p++)
+            System.arraycopy(mAxes[mHistorySize][p], 0, mAxes[0][p], 0, AXIS_TILT + 1);
+        mHistorySize = 0;
+    }
+
+    public void setEventTimeNanos(long nanos) {
+        mEventTimeNanos = nanos;
+    }
+
+    public void setAction(int action) {
+        mAction = action;
+    }
+
+    public void setButtonState(int buttonState) {
+        mButtonState = buttonState;
+    }
+
+    public void setLocation(float x, float y) {
+        mAxes[mHistorySize][0][AXIS_X] = x;
+        mAxes[mHistorySize][0][AXIS_Y] = y;
+    }
+
+    public int getAction() {
+        return mAction;
+    }
+
+    public int getActionMasked() {
+        return mAction & ACTION_MASK;
+    }
+
+    public int getActionIndex() {
+        return (mAction & ACTION_POINTER_INDEX_MASK) >> ACTION_POINTER_INDEX_SHIFT;
+    }
+
+    public int getButtonState() {
+        return mButtonState;
+    }
+
+    public int getPointerCount() {
+        return mPointerCount;
+    }
+
+    public int getPointerId(int index) {
+        return mPointerIds[index];
+    }
+
+    public int findPointerIndex(int id) {
+        for (int i = 0; i < mPointerCount; i++)
+            if (mPointerIds[i] == id)
+                return i;
+        return -1;
+    }
+
+    public int getToolType(int index) {
+        return mToolTypes[index];
+    }
+
+    public float getX() {
+        return getX(0);
+    }
+
+    public float getY() {
+        return getY(0);
+    }
+
+    public float getX(int index) {
+        return mAxes[mHistorySize][index][AXIS_X];
+    }
+
+    public float getY(int index) {
+        return mAxes[mHistorySize][index][AXIS_Y];
+    }
+
+    public float getPressure() {
+        return getAxisValue(AXIS_PRESSURE, 0);
+    }
+
+    public float getAxisValue(int axis) {
+        return getAxisValue(axis, 0);
+    }
+
+    public float getAxisValue(int axis, int index) {
+        return mAxes[mHistorySize][index][axis];
+    }
+
+    public int getHistorySize() {
+        return mHistorySize;
+    }
+
+    public float getHistoricalX(int index, int pos) {
+        return mAxes[pos][index][AXIS_X];
+    }
+
+    public float getHistoricalY(int index, int pos) {
+        return mAxes[pos][index][AXIS_Y];
+    }
+
+    public float getHistoricalAxisValue(int axis, int index, int pos) {
+        return mAxes[pos][index][axis];
+    }
+
+    public long getHistoricalEventTime(int pos) {
+        return mHistoricalTimes[pos] / 1000000;
+    }
+
+    public long getHistoricalEventTimeNanos(int pos) {
+        return mHistoricalTimes[pos];
+    }
+
+    @Override
+    public String toString() {
+        return "MotionEvent { action=" + mAction + ", pointerCount=" + mPointerCount + " }";
+    }
+}
@@ -0,0 +1,40 @@
+package android.view;
+
+import android.content.Context;
+
+/** Stand-in for Android's ViewConfiguration, values are those of a 3x density phone. */
+public class ViewConfiguration {
+    private static final ViewConfiguration sInstance = new ViewConfiguration();
+
+    public static ViewConfiguration get(Context context) {
+        return sInstance;
+    }
+
+    public static int getDoubleTapTimeout() {
+        return 300;
+    }
+
+    public static int getLongPressTimeout() {
+        return 400;
+    }
+
+    public static int getTapTimeout() {
+        return 100;
+    }
+
+    public int getScaledTouchSlop() {
+        return 24;
+    }
+
+    public int getScaledDoubleTapSlop() {
+        return 300;
+    }
+
+    public int getScaledMinimumFlingVelocity() {
+        return 150;
+    }
+
+    public int getScaledMaximumFlingVelocity() {
+        return 24000;
+    }
+}
@@ -0,0 +1,14 @@
+package androidx.core.math;
+
+/** Stand-in for AndroidX MathUtils. */
+public final class MathUtils {
+    private MathUtils() {}
+
+    public static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    public static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
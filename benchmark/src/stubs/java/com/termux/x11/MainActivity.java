@@ -0,0 +1,6 @@
+package com.termux.x11;
+
+/** Stand-in for the activity, input classes only use it to toggle pointer capture. */
+public class MainActivity {
+    public static void setCapturingEnabled(boolean enabled) {}
+}
@@ -0,0 +1,71 @@
+package com.termux.x11;
+
+import android.content.SharedPreferences;
+
+/**
+ * Stand-in for Prefs the app generates from preferences.xml, only preferences read by benchmarked
+ * sources. Values are read from the given SharedPreferences.
+ */
+public class Prefs {
+    public class BooleanPreference {
+        private final String key;
+        private final boolean defValue;
+
+        BooleanPreference(String key, boolean defValue) {
+            this.key = key;
+            this.defValue = defValue;
+        }
+
+        public boolean get() {
+            return preferences.getBoolean(key, defValue);
+        }
+    }
+
+    public class StringPreference {
+        private final String key, defValue;
+
+        StringPreference(String key, String defValue) {
+            this.key = key;
+            this.defValue = defValue;
+        }
+
+        public String get() {
+            return preferences.getString(key, defValue);
+        }
+    }
+
+    public class ListPreference extends StringPreference {
+        ListPreference(String key, String defValue) {
+            super(key, defValue);
+        }
+    }
+
+    private final SharedPreferences preferences;
+
+    public final BooleanPreference lenovoPenShowDetections = new BooleanPreference("lenovoPenShowDetections", false);
+    public final BooleanPreference lenovoPenDebugToggleToasts = new BooleanPreference("lenovoPenDebugToggleToasts", false);
+    public final ListPreference lenovoPenSinglePressAction = new ListPreference("lenovoPenSinglePressAction", "disabled");
+    public final BooleanPreference lenovoPenSinglePressToggle = new BooleanPreference("lenovoPenSinglePressToggle", false);
+    public final BooleanPreference lenovoPenSinglePressToggleOffOnLift = new BooleanPreference("lenovoPenSinglePressToggleOffOnLift", false);
+    public final StringPreference lenovoPenSinglePressDurationMs = new StringPreference("lenovoPenSinglePressDurationMs", "150");
+    public final ListPreference lenovoPenDoublePressAction = new ListPreference("lenovoPenDoublePressAction", "disabled");
+    public final BooleanPreference lenovoPenDoublePressToggle = new BooleanPreference("lenovoPenDoublePressToggle", false);
+    public final BooleanPreference lenovoPenDoublePressToggleOffOnLift = new BooleanPreference("lenovoPenDoublePressToggleOffOnLift", false);
+    public final StringPreference lenovoPenDoublePressDurationMs = new StringPreference("lenovoPenDoublePressDurationMs", "150");
+    public final ListPreference lenovoPenTriplePressAction = new ListPreference("lenovoPenTriplePressAction", "disabled");
+    public final BooleanPreference lenovoPenTriplePressToggle = new BooleanPreference("lenovoPenTriplePressToggle", false);
+    public final BooleanPreference lenovoPenTriplePressToggleOffOnLift = new BooleanPreference("lenovoPenTriplePressToggleOffOnLift", false);
+    public final StringPreference lenovoPenTriplePressDurationMs = new StringPreference("lenovoPenTriplePressDurationMs", "150");
+    public final ListPreference lenovoPenLongPressAction = new ListPreference("lenovoPenLongPressAction", "disabled");
+    public final BooleanPreference lenovoPenLongPressToggle = new BooleanPreference("lenovoPenLongPressToggle", false);
+    public final BooleanPreference lenovoPenLongPressToggleOffOnLift = new BooleanPreference("lenovoPenLongPressToggleOffOnLift", false);
+    public final StringPreference lenovoPenLongPressDurationMs = new StringPreference("lenovoPenLongPressDurationMs", "150");
+    public final ListPreference lenovoPenLongPressClickAction = new ListPreference("lenovoPenLongPressClickAction", "disabled");
+    public final BooleanPreference lenovoPenLongPressClickToggle = new BooleanPreference("lenovoPenLongPressClickToggle", false);
+    public final BooleanPreference lenovoPenLongPressClickToggleOffOnLift = new BooleanPreference("lenovoPenLongPressClickToggleOffOnLift", false);
+    public final StringPreference lenovoPenLongPressClickDurationMs = new StringPreference("lenovoPenLongPressClickDurationMs", "150");
+
+    public Prefs(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+}